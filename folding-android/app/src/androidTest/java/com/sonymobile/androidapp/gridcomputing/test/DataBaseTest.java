@@ -5,16 +5,33 @@
 
 package com.sonymobile.androidapp.gridcomputing.test;
 
+import android.database.Cursor;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.sonymobile.androidapp.gridcomputing.database.CheckpointBuffer;
+import com.sonymobile.androidapp.gridcomputing.database.DatabaseExecutor;
+import com.sonymobile.androidapp.gridcomputing.database.HistoryArchive;
 import com.sonymobile.androidapp.gridcomputing.database.JobCheckpointsContract;
+import com.sonymobile.androidapp.gridcomputing.database.JobDBHelper;
+import com.sonymobile.androidapp.gridcomputing.database.JobLedger;
+import com.sonymobile.androidapp.gridcomputing.database.JobLedgerContract;
+import com.sonymobile.androidapp.gridcomputing.database.JobRollupContract;
+import com.sonymobile.androidapp.gridcomputing.database.ReportSeries;
+import com.sonymobile.androidapp.gridcomputing.fragments.ReportChartFragment;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+
 @RunWith(AndroidJUnit4.class)
 public class DataBaseTest{
 
@@ -45,4 +62,119 @@ public class DataBaseTest{
         assertEquals(3000, JobCheckpointsContract.get24HourAccumulatedTime());
     }
 
+    @Test
+    public void testWorkerCheckpoints() throws InterruptedException {
+        JobCheckpointsContract.clear24HourAccumulatedTime();
+        final long initial = JobCheckpointsContract.get24HourAccumulatedTime();
+        final long initialCpu = JobCheckpointsContract.get24HourAccumulatedCpuTime();
+
+        // Checkpoints of different workers at the same time must not replace each other.
+        JobCheckpointsContract.addCheckpoint(0, 1000, 500);
+        JobCheckpointsContract.addCheckpoint(1, 1000, 500);
+        JobCheckpointsContract.addCheckpoint(2, 1000, 500);
+        assertEquals(initial + 3000, JobCheckpointsContract.get24HourAccumulatedTime());
+        assertEquals(initialCpu + 1500, JobCheckpointsContract.get24HourAccumulatedCpuTime());
+    }
+
+    @Test
+    public void testRollup() {
+        final int year = Calendar.getInstance().get(Calendar.YEAR);
+        final double initial = getYearHours(year);
+
+        JobCheckpointsContract.addCheckpoint(0, 3600000, 0);
+        assertEquals(initial + 1.0, getYearHours(year), 0.0001);
+
+        // Deleting old checkpoints keeps the rollups.
+        JobCheckpointsContract.clear24HourAccumulatedTime();
+        assertEquals(initial + 1.0, getYearHours(year), 0.0001);
+    }
+
+    @Test
+    public void testCheckpointBuffer() {
+        final CheckpointBuffer buffer = CheckpointBuffer.getInstance();
+        // Queued after the load of the buffer.
+        DatabaseExecutor.await(buffer.flush());
+        final long initial = JobCheckpointsContract.get24HourAccumulatedTime();
+
+        buffer.add(0, JobLedger.NO_JOB, 1000, 500);
+        buffer.add(1, JobLedger.NO_JOB, 1000, 500);
+        assertEquals(initial + 2000, JobCheckpointsContract.get24HourAccumulatedTime());
+
+        buffer.flush();
+        assertEquals(initial + 2000, JobCheckpointsContract.get24HourAccumulatedTime());
+    }
+
+    @Test
+    public void testJobLedger() {
+        final String project = "test-project";
+        final JobLedger ledger = JobLedger.getInstance();
+        final CheckpointBuffer buffer = CheckpointBuffer.getInstance();
+
+        final long jobId = ledger.startJob(7);
+        assertEquals(jobId, ledger.getJobId(7));
+        ledger.setResearchDetails(7, project, "stream", "Test");
+        ledger.addTransfer(7, 1000, 10);
+        buffer.add(7, jobId, 60000, 30000);
+        ledger.finishJob(7, 0, JobLedgerContract.STOP_REASON_FINISHED);
+        assertEquals(JobLedger.NO_JOB, ledger.getJobId(7));
+        // Queued after the close.
+        DatabaseExecutor.await(buffer.flush());
+
+        final Cursor cursor = JobDBHelper.getInstance().getDatabase().query(
+                JobLedgerContract.JobLedgerEntry.TABLE_NAME, new String[]{
+                        JobLedgerContract.JobLedgerEntry.COLUMN_NAME_PROJECT,
+                        JobLedgerContract.JobLedgerEntry.COLUMN_NAME_RUN_TIME,
+                        JobLedgerContract.JobLedgerEntry.COLUMN_NAME_CPU_TIME,
+                        JobLedgerContract.JobLedgerEntry.COLUMN_NAME_BYTES_DOWNLOADED,
+                        JobLedgerContract.JobLedgerEntry.COLUMN_NAME_STOP_REASON},
+                JobLedgerContract.JobLedgerEntry._ID + " = ?",
+                new String[]{String.valueOf(jobId)}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(project, cursor.getString(0));
+            assertEquals(60000, cursor.getLong(1));
+            assertEquals(30000, cursor.getLong(2));
+            assertEquals(1000, cursor.getLong(3));
+            assertEquals(JobLedgerContract.STOP_REASON_FINISHED, cursor.getString(4));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testHistoryArchive() throws IOException {
+        final int year = Calendar.getInstance().get(Calendar.YEAR);
+        JobCheckpointsContract.addCheckpoint(0, 60000, 30000);
+        final double initial = getYearHours(year);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final HistoryArchive.Counts exported = HistoryArchive.exportTo(output);
+        assertTrue(exported.getCheckpoints() > 0);
+
+        // The checkpoints are already stored and the rollups are this installation's.
+        final HistoryArchive.Counts imported = HistoryArchive.importFrom(
+                new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(0, imported.getCheckpoints());
+        assertEquals(0, imported.getRollups());
+        assertEquals(initial, getYearHours(year), 0.0001);
+
+        try {
+            HistoryArchive.importFrom(new ByteArrayInputStream(output.toByteArray(), 0, 8));
+            fail("Truncated archive imported");
+        } catch (final IOException e) {
+            // Expected.
+        }
+    }
+
+    private static double getYearHours(final int year) {
+        final ReportSeries series = new ReportSeries();
+        JobRollupContract.getReport(ReportChartFragment.DataType.ALL_TIME, series);
+        for (int i = 0; i < series.size(); i++) {
+            if (series.getKey(i) == year) {
+                return series.getValue(i);
+            }
+        }
+        return 0.0;
+    }
+
 }
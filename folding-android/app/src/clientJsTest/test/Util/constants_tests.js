@@ -1,5 +1,6 @@
 var PATH_MAIN_CLIENT = "../../main/assets/client.js";
 var PATH_CONSTANTS_CLIENTE = "../../main/assets/consts_client.js";
+var PATH_PROTOCOL = "../../main/assets/protocol.js";
 var PATH_JOBSERVER_TEST_HELPER = "../../../../../server/jobserver/test/Util/jobservertesthelper.js";
 var PATH_JOBSERVER_CONSTANTS_HELPER_TEST = "../../../../../server/jobserver/test/Util/consts_helper_tests.js";
 var PATH_CLIENT_ASSETS = "../main/assets/";
@@ -9,6 +10,7 @@ var PATH_CLIENT_ASSETS = "../main/assets/";
 module.exports = {
   PATH_MAIN_CLIENT: PATH_MAIN_CLIENT,
   PATH_CONSTANTS_CLIENTE: PATH_CONSTANTS_CLIENTE,
+  PATH_PROTOCOL: PATH_PROTOCOL,
   PATH_JOBSERVER_TEST_HELPER: PATH_JOBSERVER_TEST_HELPER,
   PATH_JOBSERVER_CONSTANTS_HELPER_TEST: PATH_JOBSERVER_CONSTANTS_HELPER_TEST,
   PATH_CLIENT_ASSETS: PATH_CLIENT_ASSETS
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+var assert = require("assert");
+var consts_tests = require("./Util/constants_tests.js");
+var protocol = require(consts_tests.PATH_PROTOCOL);
+
+function roundTrip(message) {
+  var decoded = [];
+  var decoder = new protocol.StreamDecoder(function(line) {
+    assert.fail(line, null, "No line expected in framed mode.");
+  }, function(msg) {
+    decoded.push(msg);
+  });
+  decoder.setFramed(true);
+  decoder.push(protocol.encode(message));
+  assert.equal(1, decoded.length);
+  return decoded[0];
+}
+
+describe("Host Protocol", function(){
+
+  it("Should round trip the control messages", function(done) {
+    assert.deepEqual({action: 'kill', content: 'SIGKILL'},
+      roundTrip({action: 'kill', content: 'SIGKILL'}));
+    assert.deepEqual({action: 'kill', content: 'SIGTERM'},
+      roundTrip({action: 'kill', content: 'SIGTERM'}));
+    assert.deepEqual({action: 'continue', content: {}},
+      roundTrip({action: 'continue', content: {}}));
+    assert.deepEqual({action: 'freeze', content: {}},
+      roundTrip({action: 'freeze', content: {}}));
+    assert.deepEqual({action: 'heartbeat', content: {}},
+      roundTrip({action: 'heartbeat', content: {}}));
+    assert.deepEqual({action: 'number_of_users', content: {number_of_users: 300000}},
+      roundTrip({action: 'number_of_users', content: {number_of_users: 300000}}));
+    assert.deepEqual({action: 'job_execution_error', content: {exit_code: -1, error: 'fail'}},
+      roundTrip({action: 'job_execution_error', content: {exit_code: -1, error: 'fail'}}));
+    assert.deepEqual({action: 'job_stats', content: {bytes_downloaded: 5000000, bytes_uploaded: 0}},
+      roundTrip({action: 'job_stats', content: {bytes_downloaded: 5000000, bytes_uploaded: 0}}));
+    assert.deepEqual({action: 'key', content: {key: 'clientkey', uuid: 'DUMMY_UUID'}},
+      roundTrip({action: 'key', content: {key: 'clientkey', uuid: 'DUMMY_UUID'}}));
+    done();
+  });
+
+  it("Should encode the continue frame in two bytes", function(done) {
+    var frame = protocol.encode({action: 'continue', content: {}});
+    assert.equal(2, frame.length);
+    assert.equal(protocol.ACTIONS['continue'], frame[1]);
+    done();
+  });
+
+  it("Should decode frames split across chunks", function(done) {
+    var decoded = [];
+    var decoder = new protocol.StreamDecoder(function() {}, function(msg) {
+      decoded.push(msg);
+    });
+    decoder.setFramed(true);
+    var data = Buffer.concat([
+      protocol.encode({action: 'log', content: 'héllo'}),
+      protocol.encode({action: 'kill', content: 'SIGTERM'})
+    ]);
+    for (var i = 0; i < data.length; i++) {
+      decoder.push(data.slice(i, i + 1));
+    }
+    assert.equal(2, decoded.length);
+    assert.equal('héllo', decoded[0].content);
+    assert.equal('kill', decoded[1].action);
+    done();
+  });
+
+  it("Should switch from lines to frames", function(done) {
+    var lines = [];
+    var frames = [];
+    var decoder = new protocol.StreamDecoder(function(line) {
+      lines.push(line);
+      decoder.setFramed(true);
+    }, function(msg) {
+      frames.push(msg);
+    });
+    decoder.push(Buffer.concat([
+      new Buffer(JSON.stringify({action: 'key', content: {features: protocol.FEATURES}}) + '\n'),
+      protocol.encode({action: 'continue', content: {}})
+    ]));
+    assert.equal(1, lines.length);
+    assert.equal(1, frames.length);
+    assert.equal('continue', frames[0].action);
+    done();
+  });
+
+  it("Should reject invalid frame lengths", function(done) {
+    var decoder = new protocol.StreamDecoder(function() {}, function() {});
+    decoder.setFramed(true);
+    assert.throws(function() {
+      decoder.push(new Buffer([0]));
+    });
+    done();
+  });
+});
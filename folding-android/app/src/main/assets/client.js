@@ -12,23 +12,44 @@
 /*global process: false, require: false, module: false, __dirname: false, Buffer: false */
 var consts = require('./consts_client.js');
 var Fsm = require('./fsm.js');
+var protocol = require('./protocol.js');
 var https = require('https');
 var fs = require('fs');
 var child_process = require('child_process');
-var readline = require('readline');
+var util = require('util');
 var zlib = require('zlib');
 var x509 = require('x509');
 var dns = require('dns');
 
 var debug = true;
 var runningFromCmd = require.main === module;
-var consolelog = (runningFromCmd && debug) ? console.log : function() {};
-var consoledir = (runningFromCmd && debug) ? console.dir : function() {};
+var consolelog = (runningFromCmd && debug) ? function() {
+  host_log(util.format.apply(util, arguments));
+} : function() {};
+var consoledir = (runningFromCmd && debug) ? function(obj) {
+  host_log(util.inspect(obj));
+} : function() {};
 var processexit = (runningFromCmd && debug) ? process.exit : function() {};
 var host_communication = null;
+var host_decoder = null;
+var host_framing = false;
+var host_heartbeat = null;
 var resPath = __dirname + '/';
+// Each worker of the host keeps its job state in its own directory.
+var statePath = process.env.GCOMP_WORKDIR ? process.env.GCOMP_WORKDIR + '/' : resPath;
 var execPath = process.argv[0];
 
+
+/**
+ * Writes a log line to the host. Logs go to stderr, the host reads them on
+ * their own thread and stdout carries only the control messages.
+ *
+ * @param {String} text The text to log.
+ */
+function host_log(text) {
+  process.stderr.write(text + '\n');
+}
+
 /**
  * Creates a new Client.
  *
@@ -41,6 +62,9 @@ function Client() {
   this.expectedKill = false;
   this.shouldKill = false;
   this.killTimeout = null;
+  this.frozen = false;
+  this.frozenSince = 0;
+  this.frozenTime = 0;
   this.cancelJobTimerID = null;
   this.client_consts = consts;
 
@@ -49,6 +73,7 @@ function Client() {
   this.app_version = null;
   this.client_data = {platform:'', os_version:'', arch:''};
   this.ipAddress = null;
+  this.jobBytesDownloaded = 0;
 
   this.jobclient = {
   };
@@ -88,7 +113,7 @@ Client.prototype.createFsm = function() {
   waiting_key_state.in = function() {
     consolelog('FSM: Waiting key');
     // Request host key
-    self.host_send({action: 'get_key', content: {}});
+    self.host_send({action: 'get_key', content: {features: protocol.FEATURES}});
   };
 
   var reading_key_state = {};
@@ -137,6 +162,11 @@ Client.prototype.createFsm = function() {
   executing_job_state.in = function(data) {
     consolelog('FSM: Executing job');
     self.host_send({action: 'executing_job', content: {}});
+    if (self.jobBytesDownloaded > 0) {
+      // The job script download.
+      self.handleJobTransfer({downloaded: self.jobBytesDownloaded, uploaded: 0});
+      self.jobBytesDownloaded = 0;
+    }
     self.runJob(data.script, function(code, errorMsg) {
       if (code) {
         self.host_send({action: 'job_execution_error',
@@ -235,6 +265,7 @@ Client.prototype.runJob = function(script, callback) {
 
   var startTime = Date.now();
   var errorMsg = '';
+  this.frozenTime = 0;
   //gcomp_script is a version of nodejs incapable
   //of accessing the filesystem freely or creating child processes.
   script = fs.readFileSync(resPath + this.client_consts.SCRIPT_PREPEND_PATH).toString()
@@ -260,6 +291,8 @@ Client.prototype.runJob = function(script, callback) {
         self.handleJobSaveContext(evt.data);
       } else if (evt.event === 'research_details') {
         self.handleResearchDetails(evt.data);
+      } else if (evt.event === 'transfer') {
+        self.handleJobTransfer(evt.data);
       } else {
         consolelog('No handler for script event: "' + evt.event + '", with data: ' +
             JSON.stringify(evt.data));
@@ -282,6 +315,7 @@ Client.prototype.runJob = function(script, callback) {
 
   this.cproc.on('close', function(code, signal) {
     self.cproc = null;
+    self.actionThaw();
     if (signal === 'SIGKILL') {
       // The job has expired while running or killed after a pause
       if (self.expectedKill) {
@@ -289,7 +323,8 @@ Client.prototype.runJob = function(script, callback) {
         self.clearPausedState();
       } else {
         var now = Date.now();
-        var elapsedTime = now - startTime;
+        // The time spent frozen doesn't count as run time.
+        var elapsedTime = now - startTime - self.frozenTime;
         self.decrementJobRemaningRunTime(elapsedTime);
 
         if (!this.shouldKill) {
@@ -335,12 +370,12 @@ Client.prototype.cancelJob = function() {
  */
 Client.prototype.decrementJobRemaningRunTime = function(elapsedTime) {
   try {
-    if (fs.existsSync(resPath + this.client_consts.JOB_ATTRIBUTES_PATH)) {
-      var attributes = JSON.parse(fs.readFileSync(resPath +
+    if (fs.existsSync(statePath + this.client_consts.JOB_ATTRIBUTES_PATH)) {
+      var attributes = JSON.parse(fs.readFileSync(statePath +
           this.client_consts.JOB_ATTRIBUTES_PATH));
       attributes.remaining_run_time = attributes.remaining_run_time - elapsedTime;
 
-      fs.writeFileSync(resPath +
+      fs.writeFileSync(statePath +
           this.client_consts.JOB_ATTRIBUTES_PATH, JSON.stringify(attributes));
     }
   } catch (e) {
@@ -673,6 +708,7 @@ Client.prototype.getJob = function(jobDesc, attributes, headers, callback) {
       res.on('end', function() {
         if (encoding === 'gzip') {
           var buffer = new Buffer(script, 'base64');
+          self.jobBytesDownloaded += buffer.length;
           zlib.gunzip(buffer, function(err, decoded) {
             if (!err)
               callback(null, decoded.toString());
@@ -680,6 +716,7 @@ Client.prototype.getJob = function(jobDesc, attributes, headers, callback) {
               callback(err, null);
           });
         } else {
+          self.jobBytesDownloaded += Buffer.byteLength(script);
           callback(null, script.toString());
         }
       });
@@ -737,11 +774,11 @@ Client.prototype.handleJobSaveContext = function(context) {
   try {
     var contextString = JSON.stringify(context);
     var jobAttributes;
-    jobAttributes = JSON.parse(fs.readFileSync(resPath +
+    jobAttributes = JSON.parse(fs.readFileSync(statePath +
         this.client_consts.JOB_ATTRIBUTES_PATH).toString());
 
     if ((contextString.length / (1024 * 1024)) <= jobAttributes.storage_limit) {
-      fs.writeFileSync(resPath + this.client_consts.JOB_SCRIPT_CONTEXT_PATH, contextString);
+      fs.writeFileSync(statePath + this.client_consts.JOB_SCRIPT_CONTEXT_PATH, contextString);
     } else {
       var violationData = {
         violation: 'context_length',
@@ -774,6 +811,19 @@ Client.prototype.handleResearchDetails = function(data) {
 };
 
 
+/**
+ * Handles the transfer operation, reporting the bytes moved by a request
+ * of the job to the host.
+ *
+ * @param {Object} data The bytes downloaded and uploaded.
+ */
+Client.prototype.handleJobTransfer = function(data) {
+  this.host_send({action: 'job_stats',
+    content: {bytes_downloaded: data.downloaded || 0,
+      bytes_uploaded: data.uploaded || 0}});
+};
+
+
 /**
  * Posts a error report about access violations.
  *
@@ -848,11 +898,11 @@ Client.prototype.getJobByOwn = function(jobDesc, attributes, nextJobTimeout, cal
             (script.length + JSON.stringify(attributes).length +
             jobDesc.project_public_certificate.length) / (1024 * 1024);
 
-        fs.writeFileSync(resPath +
+        fs.writeFileSync(statePath +
             self.client_consts.CURRENT_SCRIPT_PATH, script);
-        fs.writeFileSync(resPath +
+        fs.writeFileSync(statePath +
             self.client_consts.JOB_ATTRIBUTES_PATH, JSON.stringify(attributes));
-        fs.writeFileSync(resPath +
+        fs.writeFileSync(statePath +
             self.client_consts.JOB_PROJECT_CERTIFICATE_PATH,
             jobDesc.project_public_certificate);
 
@@ -888,7 +938,7 @@ Client.prototype.getJobByS3 = function(jobDesc, attributes, nextJobTimeout, call
 
   var host = 's3-' + region + '.amazonaws.com';
   var path = '/' + bucket + '/' + key;
-  console.log('job: ' + host + path);
+  consolelog('job: ' + host + path);
 
   dns.lookup(host, function(err, s3IpAddress, family) {
     //Write a job startup notification to the parent process.
@@ -927,6 +977,7 @@ Client.prototype.getJobByS3 = function(jobDesc, attributes, nextJobTimeout, call
         err.http_code = res.statusCode;
         callback(err, null, nextJobTimeout);
       } else {
+        self.jobBytesDownloaded += Buffer.byteLength(data);
         callback(null, data, nextJobTimeout);
       }
     });
@@ -998,7 +1049,11 @@ Client.prototype.execute = function(timeout, options, callback) {
  */
 Client.prototype.host_send = function(message) {
   if (runningFromCmd) {
-    process.stdout.write(JSON.stringify(message) + '\n');
+    if (host_framing) {
+      process.stdout.write(protocol.encode(message));
+    } else {
+      process.stdout.write(JSON.stringify(message) + '\n');
+    }
   }
 };
 
@@ -1012,11 +1067,29 @@ Client.prototype.host_handle_message = function(message) {
   var msg = null;
   try {
     msg = JSON.parse(message);
+  } catch (e) {
+    consoledir(e);
+    this.client_exit(5);
+  }
+  this.host_dispatch(msg);
+};
+
+
+/**
+ * Dispatches a message decoded from the host, either from a JSON line or
+ * from a frame.
+ *
+ * @param {Object} msg The message in the {action, content} form.
+ */
+Client.prototype.host_dispatch = function(msg) {
+  try {
     if (msg) {
       consolelog(msg);
       if (msg.action === 'key') {
         this.client_fsm.next('RxKey', msg.content);
       } else if (msg.action === 'kill') {
+        // A stopped job can't handle the kill signals.
+        this.actionThaw();
         if (!this.shouldKill) {
           this.shouldKill = true;
           if (msg.content === 'SIGKILL') {
@@ -1026,8 +1099,17 @@ Client.prototype.host_handle_message = function(message) {
             this.actionKill();
           }
         }
+      } else if (msg.action === 'freeze') {
+        if (this.cproc !== null) {
+          this.actionFreeze();
+        } else if (!this.shouldKill) {
+          // Nothing to freeze, behave as a graceful kill.
+          this.shouldKill = true;
+          this.actionKill();
+        }
       } else if (msg.action === 'continue') {
         this.shouldKill = false;
+        this.actionThaw();
         if (this.killTimeout !== null) {
           clearTimeout(this.killTimeout);
           this.killTimeout = null;
@@ -1044,6 +1126,19 @@ Client.prototype.host_handle_message = function(message) {
 };
 
 
+/**
+ * Switches the host communication to the framed protocol.
+ *
+ * @param {Boolean} framed True to use frames, false to use JSON lines.
+ */
+Client.prototype.setFraming = function(framed) {
+  host_framing = framed;
+  if (host_decoder !== null) {
+    host_decoder.setFramed(framed);
+  }
+};
+
+
 /**
  * Exits the script.
  *
@@ -1111,8 +1206,64 @@ Client.prototype.actionKey = function(key_data) {
      consolelog('OS version is ' + this.client_data.os_version);
      consolelog('App arch is ' + this.client_data.arch);
   }
-  // Notify key accepted.
-  this.host_send({action: 'key_accepted', content: {}});
+  var accepted = (key_data && key_data.features instanceof Array) ?
+      protocol.FEATURES.filter(function(feature) {
+        return key_data.features.indexOf(feature) != -1;
+      }) : [];
+  var framing = host_framing || accepted.indexOf(protocol.FEATURE_FRAMING) != -1;
+  // Notify key accepted. This is the last JSON line when the framing was
+  // accepted by the host, everything after it is framed.
+  this.host_send({action: 'key_accepted', content: {features: accepted}});
+  if (framing) {
+    this.setFraming(true);
+  }
+  if (accepted.indexOf(protocol.FEATURE_HEARTBEAT) != -1) {
+    this.startHeartbeat(key_data.heartbeat_interval);
+  }
+};
+
+
+/**
+ * Starts sending heartbeats to the host, so it knows the client is not stuck.
+ *
+ * @param {int} interval The interval between heartbeats, in milliseconds.
+ */
+Client.prototype.startHeartbeat = function(interval) {
+  var self = this;
+  if (host_heartbeat !== null) {
+    clearInterval(host_heartbeat);
+  }
+  host_heartbeat = setInterval(function() {
+    self.host_send({action: 'heartbeat', content: {}});
+  }, interval > 0 ? interval : this.client_consts.HEARTBEAT_INTERVAL);
+};
+
+
+/**
+ * Freezes the job process, keeping its memory so it can continue later.
+ */
+Client.prototype.actionFreeze = function() {
+  if (this.cproc !== null && !this.frozen) {
+    consolelog('FSM: Freezing job');
+    this.cproc.kill('SIGSTOP');
+    this.frozen = true;
+    this.frozenSince = Date.now();
+  }
+};
+
+
+/**
+ * Continues a frozen job process.
+ */
+Client.prototype.actionThaw = function() {
+  if (this.frozen) {
+    consolelog('FSM: Thawing job');
+    this.frozen = false;
+    this.frozenTime += Date.now() - this.frozenSince;
+    if (this.cproc !== null) {
+      this.cproc.kill('SIGCONT');
+    }
+  }
 };
 
 
@@ -1147,21 +1298,39 @@ Client.prototype.startCommunication = function() {
   }
 
   // Start host communication
-  host_communication = readline.createInterface({
-    input: process.stdin,
-    output: process.stdout
-  });
   var self = this;
-  host_communication.on('line', function(line) {
+  host_decoder = new protocol.StreamDecoder(function(line) {
     self.host_handle_message(line);
+  }, function(msg) {
+    self.host_dispatch(msg);
   });
+  // A restarted FSM keeps the protocol negotiated by the previous one.
+  host_decoder.setFramed(host_framing);
 
+  var onData = function(chunk) {
+    try {
+      host_decoder.push(chunk);
+    } catch (e) {
+      consoledir(e);
+      self.client_exit(5);
+    }
+  };
+  var onEnd = function() {
+    self.cancelJob();
+    process.exit(1);
+  };
+  process.stdin.on('data', onData);
   if (runningFromCmd) {
-    host_communication.on('close', function() {
-      self.cancelJob();
-      process.exit(1);
-    });
+    process.stdin.on('end', onEnd);
   }
+  process.stdin.resume();
+
+  host_communication = {
+    close: function() {
+      process.stdin.removeListener('data', onData);
+      process.stdin.removeListener('end', onEnd);
+    }
+  };
 
   // Handle uncaught exceptions.
   process.removeAllListeners('uncaughtException'); // Remove old leaked Listeners
@@ -1189,10 +1358,10 @@ Client.prototype.safeFileRemove = function(path) {
  * Clears the paused state.
  */
 Client.prototype.clearPausedState = function() {
-  this.safeFileRemove(resPath + this.client_consts.CURRENT_SCRIPT_PATH);
-  this.safeFileRemove(resPath + this.client_consts.JOB_ATTRIBUTES_PATH);
-  this.safeFileRemove(resPath + this.client_consts.JOB_SCRIPT_CONTEXT_PATH);
-  this.safeFileRemove(resPath + this.client_consts.JOB_PROJECT_CERTIFICATE_PATH);
+  this.safeFileRemove(statePath + this.client_consts.CURRENT_SCRIPT_PATH);
+  this.safeFileRemove(statePath + this.client_consts.JOB_ATTRIBUTES_PATH);
+  this.safeFileRemove(statePath + this.client_consts.JOB_SCRIPT_CONTEXT_PATH);
+  this.safeFileRemove(statePath + this.client_consts.JOB_PROJECT_CERTIFICATE_PATH);
 };
 
 
@@ -1203,8 +1372,8 @@ Client.prototype.clearPausedState = function() {
 Client.prototype.getPausedScript = function() {
   var script = null;
   try {
-    script = fs.readFileSync(resPath + this.client_consts.CURRENT_SCRIPT_PATH).toString();
-    var jobAttributes = JSON.parse(fs.readFileSync(resPath +
+    script = fs.readFileSync(statePath + this.client_consts.CURRENT_SCRIPT_PATH).toString();
+    var jobAttributes = JSON.parse(fs.readFileSync(statePath +
         this.client_consts.JOB_ATTRIBUTES_PATH).toString());
 
     var now = Date.now();
@@ -1239,7 +1408,7 @@ Client.prototype.getPausedScript = function() {
 Client.prototype.getPausedProjectCertificate = function() {
   var projectCertificate = null;
   try {
-    projectCertificate = fs.readFileSync(resPath +
+    projectCertificate = fs.readFileSync(statePath +
         this.client_consts.JOB_PROJECT_CERTIFICATE_PATH).toString();
   } catch (e) {
     projectCertificate = null;
@@ -17,6 +17,7 @@ var HOUR_IN_MILLISECONDS = 60 * 60 * 1000;
 var MAX_START_TIME_DELAY_MS = 300 * 1000;
 var REQUEST_JOB_BY_OWN = 'REQUEST_JOB_BY_OWN';
 var REQUEST_JOB_BY_S3 = 'REQUEST_JOB_BY_S3';
+var HEARTBEAT_INTERVAL = 30 * 1000;
 
 
 /**
@@ -35,7 +36,8 @@ module.exports = {
   HOUR_IN_MILLISECONDS: HOUR_IN_MILLISECONDS,
   MAX_START_TIME_DELAY_MS: MAX_START_TIME_DELAY_MS,
   REQUEST_JOB_BY_OWN: REQUEST_JOB_BY_OWN,
-  REQUEST_JOB_BY_S3: REQUEST_JOB_BY_S3
+  REQUEST_JOB_BY_S3: REQUEST_JOB_BY_S3,
+  HEARTBEAT_INTERVAL: HEARTBEAT_INTERVAL
 };
 
 for (var key in env) {
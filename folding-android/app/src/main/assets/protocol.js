@@ -0,0 +1,416 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+'use strict';
+/*jshint node: true */
+/*global require: false, module: false, Buffer: false */
+
+/**
+ * Framed binary protocol used between client.js and the host application.
+ *
+ * Every frame is encoded as: varint length, one byte action code and a
+ * compact payload. The length covers the action code and the payload.
+ * Strings are encoded as a varint byte length followed by UTF-8 bytes and
+ * signed numbers are zigzag encoded varints.
+ *
+ * The framing is negotiated during the get_key/key handshake, so hosts that
+ * don't know about it keep talking line separated JSON.
+ *
+ * @module protocol
+ */
+
+
+/**
+ * Name of the framing feature advertised during the handshake.
+ */
+var FEATURE_FRAMING = 'framing';
+
+/**
+ * Name of the feature that lets the host freeze the job instead of killing it.
+ */
+var FEATURE_FREEZE = 'freeze';
+
+/**
+ * Name of the feature that makes the client send periodic heartbeats.
+ */
+var FEATURE_HEARTBEAT = 'heartbeat';
+
+/**
+ * Features supported by this client.
+ */
+var FEATURES = [FEATURE_FRAMING, FEATURE_FREEZE, FEATURE_HEARTBEAT];
+
+/**
+ * Biggest frame accepted from the host.
+ */
+var MAX_FRAME_LENGTH = 1024 * 1024;
+
+/**
+ * Action codes. Must be kept in sync with ControlProtocol.java.
+ */
+var ACTIONS = {
+  get_key: 1,
+  key: 2,
+  key_accepted: 3,
+  no_job_available: 4,
+  number_of_users: 5,
+  research_details: 6,
+  limit_storage: 7,
+  job_received: 8,
+  executing_job: 9,
+  job_finished: 10,
+  job_execution_error: 11,
+  client_killed: 12,
+  dns_error: 13,
+  log: 14,
+  kill: 15,
+  'continue': 16,
+  freeze: 17,
+  heartbeat: 18,
+  job_stats: 19
+};
+
+/**
+ * Kill signals sent on the kill frame payload.
+ */
+var KILL_SIGNALS = ['SIGTERM', 'SIGKILL'];
+
+var ACTION_NAMES = {};
+for (var name in ACTIONS) {
+  ACTION_NAMES[ACTIONS[name]] = name;
+}
+
+
+/**
+ * Creates a new frame writer.
+ *
+ * @constructor
+ */
+function FrameWriter() {
+  this.parts = [];
+  this.length = 0;
+}
+
+
+/**
+ * Appends an unsigned varint.
+ *
+ * @param {int} value The value to append.
+ * @return {FrameWriter} This writer.
+ */
+FrameWriter.prototype.varint = function(value) {
+  var bytes = [];
+  value = Math.max(0, Math.floor(value || 0));
+  while (value >= 0x80) {
+    bytes.push((value % 0x80) | 0x80);
+    value = Math.floor(value / 0x80);
+  }
+  bytes.push(value);
+  this.parts.push(new Buffer(bytes));
+  this.length += bytes.length;
+  return this;
+};
+
+
+/**
+ * Appends a zigzag encoded signed varint.
+ *
+ * @param {int} value The value to append.
+ * @return {FrameWriter} This writer.
+ */
+FrameWriter.prototype.signed = function(value) {
+  value = Math.floor(value || 0);
+  return this.varint(value < 0 ? -value * 2 - 1 : value * 2);
+};
+
+
+/**
+ * Appends a length prefixed UTF-8 string.
+ *
+ * @param {String} value The value to append.
+ * @return {FrameWriter} This writer.
+ */
+FrameWriter.prototype.string = function(value) {
+  var buffer = new Buffer(value === undefined || value === null ? '' : String(value), 'utf8');
+  this.varint(buffer.length);
+  this.parts.push(buffer);
+  this.length += buffer.length;
+  return this;
+};
+
+
+/**
+ * Builds the frame for the given action code.
+ *
+ * @param {int} code The action code.
+ * @return {Buffer} The encoded frame.
+ */
+FrameWriter.prototype.toFrame = function(code) {
+  var header = new FrameWriter().varint(this.length + 1);
+  return Buffer.concat(header.parts.concat([new Buffer([code])], this.parts));
+};
+
+
+/**
+ * Creates a reader over a frame payload.
+ *
+ * @constructor
+ * @param {Buffer} buffer The payload.
+ */
+function FrameReader(buffer) {
+  this.buffer = buffer;
+  this.position = 0;
+}
+
+
+/**
+ * Reads an unsigned varint.
+ *
+ * @return {int} The value read.
+ */
+FrameReader.prototype.varint = function() {
+  var value = 0;
+  var multiplier = 1;
+  var b;
+  do {
+    if (this.position >= this.buffer.length) {
+      throw new Error('Truncated frame');
+    }
+    b = this.buffer[this.position++];
+    value += (b & 0x7f) * multiplier;
+    multiplier *= 0x80;
+  } while (b & 0x80);
+  return value;
+};
+
+
+/**
+ * Reads a zigzag encoded signed varint.
+ *
+ * @return {int} The value read.
+ */
+FrameReader.prototype.signed = function() {
+  var value = this.varint();
+  return value % 2 === 0 ? value / 2 : -(value + 1) / 2;
+};
+
+
+/**
+ * Reads a length prefixed UTF-8 string.
+ *
+ * @return {String} The value read.
+ */
+FrameReader.prototype.string = function() {
+  var length = this.varint();
+  if (this.position + length > this.buffer.length) {
+    throw new Error('Truncated frame');
+  }
+  var value = this.buffer.toString('utf8', this.position, this.position + length);
+  this.position += length;
+  return value;
+};
+
+
+/**
+ * Encodes a message in the {action, content} form into a frame.
+ *
+ * @param {Object} message The message to encode.
+ * @return {Buffer} The encoded frame.
+ */
+function encode(message) {
+  var code = ACTIONS[message.action];
+  var content = message.content || {};
+  var writer = new FrameWriter();
+
+  if (code === undefined) {
+    // Unknown actions are forwarded as log lines, so nothing is lost.
+    return encode({action: 'log', content: JSON.stringify(message)});
+  }
+
+  switch (message.action) {
+    case 'key':
+      // Only sent framed when the client restarts after the negotiation.
+      writer.string(JSON.stringify(content));
+      break;
+    case 'number_of_users':
+      writer.varint(content.number_of_users);
+      break;
+    case 'research_details':
+      writer.string(content.title).string(content.description).string(content.url)
+          .string(content.target_id).string(content.stream_id);
+      break;
+    case 'job_received':
+      writer.string(content.ip_address);
+      break;
+    case 'job_finished':
+      writer.signed(content.exit_code);
+      break;
+    case 'job_execution_error':
+      writer.signed(content.exit_code).string(content.error);
+      break;
+    case 'job_stats':
+      writer.varint(content.bytes_downloaded).varint(content.bytes_uploaded);
+      break;
+    case 'dns_error':
+      writer.string(content.error && content.error.code ? content.error.code : content.error);
+      break;
+    case 'log':
+      writer.string(content);
+      break;
+    case 'kill':
+      writer.varint(KILL_SIGNALS.indexOf(content) === 1 ? 1 : 0);
+      break;
+  }
+  return writer.toFrame(code);
+}
+
+
+/**
+ * Decodes a frame into a message in the {action, content} form.
+ *
+ * @param {int} code The action code.
+ * @param {Buffer} payload The frame payload.
+ * @return {Object} The decoded message.
+ */
+function decode(code, payload) {
+  var reader = new FrameReader(payload);
+  var action = ACTION_NAMES[code];
+  var content = {};
+
+  switch (action) {
+    case 'key':
+      content = JSON.parse(reader.string());
+      break;
+    case 'kill':
+      content = KILL_SIGNALS[reader.varint()] || KILL_SIGNALS[0];
+      break;
+    case 'number_of_users':
+      content = {number_of_users: reader.varint()};
+      break;
+    case 'research_details':
+      content = {title: reader.string(), description: reader.string(), url: reader.string(),
+        target_id: reader.string(), stream_id: reader.string()};
+      break;
+    case 'job_received':
+      content = {ip_address: reader.string()};
+      break;
+    case 'job_finished':
+      content = {exit_code: reader.signed()};
+      break;
+    case 'job_execution_error':
+      content = {exit_code: reader.signed(), error: reader.string()};
+      break;
+    case 'job_stats':
+      content = {bytes_downloaded: reader.varint(), bytes_uploaded: reader.varint()};
+      break;
+    case 'dns_error':
+      content = {error: reader.string()};
+      break;
+    case 'log':
+      content = reader.string();
+      break;
+  }
+  return {action: action, content: content};
+}
+
+
+/**
+ * Creates a decoder for the host stream. It starts splitting the input in
+ * lines and switches to frames once setFramed(true) is called.
+ *
+ * @constructor
+ * @param {Function} onLine Called for every line received in line mode.
+ * @param {Function} onMessage Called for every message decoded in framed mode.
+ */
+function StreamDecoder(onLine, onMessage) {
+  this.onLine = onLine;
+  this.onMessage = onMessage;
+  this.framed = false;
+  this.pending = new Buffer(0);
+}
+
+
+/**
+ * Switches the decoder between line mode and framed mode.
+ *
+ * @param {Boolean} framed True to decode frames.
+ */
+StreamDecoder.prototype.setFramed = function(framed) {
+  this.framed = framed;
+};
+
+
+/**
+ * Feeds a chunk read from the host.
+ *
+ * @param {Buffer} chunk The data read.
+ */
+StreamDecoder.prototype.push = function(chunk) {
+  this.pending = this.pending.length ? Buffer.concat([this.pending, chunk]) : chunk;
+  var consumed;
+  do {
+    consumed = this.framed ? this.nextFrame() : this.nextLine();
+  } while (consumed && this.pending.length);
+};
+
+
+/**
+ * Consumes a line from the pending data, if available.
+ *
+ * @return {Boolean} True if a line was consumed.
+ */
+StreamDecoder.prototype.nextLine = function() {
+  for (var i = 0; i < this.pending.length; i++) {
+    if (this.pending[i] === 0x0a) {
+      var line = this.pending.toString('utf8', 0, i);
+      this.pending = this.pending.slice(i + 1);
+      this.onLine(line);
+      return true;
+    }
+  }
+  return false;
+};
+
+
+/**
+ * Consumes a frame from the pending data, if available.
+ *
+ * @return {Boolean} True if a frame was consumed.
+ */
+StreamDecoder.prototype.nextFrame = function() {
+  var reader = new FrameReader(this.pending);
+  var length;
+  try {
+    length = reader.varint();
+  } catch (e) {
+    return false;
+  }
+  if (length < 1 || length > MAX_FRAME_LENGTH) {
+    throw new Error('Invalid frame length: ' + length);
+  }
+  if (reader.position + length > this.pending.length) {
+    return false;
+  }
+  var code = this.pending[reader.position];
+  var payload = this.pending.slice(reader.position + 1, reader.position + length);
+  this.pending = this.pending.slice(reader.position + length);
+  this.onMessage(decode(code, payload));
+  return true;
+};
+
+
+/**
+ * Module's exports.
+ */
+module.exports = {
+  FEATURE_FRAMING: FEATURE_FRAMING,
+  FEATURE_FREEZE: FEATURE_FREEZE,
+  FEATURE_HEARTBEAT: FEATURE_HEARTBEAT,
+  FEATURES: FEATURES,
+  ACTIONS: ACTIONS,
+  encode: encode,
+  decode: decode,
+  StreamDecoder: StreamDecoder
+};
@@ -111,6 +111,44 @@ function enable() {
     }
   });
 
+  var sendTransfer = function(downloaded, uploaded) {
+    if (typeof(process.send) == 'function') {
+      process.send({
+        event: 'transfer',
+        data: {
+          downloaded: downloaded,
+          uploaded: uploaded
+        }
+      });
+    }
+  };
+
+  // Reports the bytes a request moved through its socket once it ends.
+  // The socket counters are read at both ends, so a socket kept alive by
+  // an agent is not counted twice.
+  var countTransfer = function(req) {
+    var socket = null;
+    var read = 0;
+    var written = 0;
+    var report = function() {
+      if (socket !== null) {
+        sendTransfer(Math.max(0, (socket.bytesRead || 0) - read),
+            Math.max(0, (socket.bytesWritten || 0) - written));
+        socket = null;
+      }
+    };
+    req.on('socket', function(s) {
+      socket = s;
+      read = s.bytesRead || 0;
+      written = s.bytesWritten || 0;
+    });
+    req.on('response', function(res) {
+      res.on('end', report);
+    });
+    req.on('error', report);
+    req.on('abort', report);
+  };
+
   var isProhibited = function(host) {
     return (host !== undefined &&
         (prohibitedHosts.indexOf(host) != -1) || checkProhibitedPattern(host));
@@ -125,6 +163,7 @@ function enable() {
       }
     } else {
       var req = https.request(options, callback);
+      countTransfer(req);
       req.setTimeout(REQUEST_TIMEOUT, function() {
         req.abort();
       });
@@ -141,6 +180,7 @@ function enable() {
       }
     } else {
       var req = https.get(options, callback);
+      countTransfer(req);
       req.setTimeout(REQUEST_TIMEOUT, function() {
         req.abort();
       });
@@ -5,6 +5,10 @@
 
 package com.sonymobile.androidapp.gridcomputing.activities;
 
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.design.widget.TabLayout;
@@ -14,13 +18,39 @@ import android.support.v4.app.FragmentStatePagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.Toast;
 
 import com.sonymobile.androidapp.gridcomputing.R;
+import com.sonymobile.androidapp.gridcomputing.database.HistoryArchive;
 import com.sonymobile.androidapp.gridcomputing.fragments.ReportChartFragment;
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public class ReportsActivity extends AppCompatActivity {
 
+    /**
+     * Request code picking the file to export the history to.
+     */
+    private static final int REQUEST_EXPORT_HISTORY = 1;
+    /**
+     * Request code picking the file to import the history from.
+     */
+    private static final int REQUEST_IMPORT_HISTORY = 2;
+    /**
+     * MIME type of the history archive.
+     */
+    private static final String HISTORY_MIME_TYPE = "application/octet-stream";
+    /**
+     * File name suggested for the history archive.
+     */
+    private static final String HISTORY_FILE_NAME = "contribution_history.bin";
+
     private ViewPager mPager;
 
     @Override
@@ -43,12 +73,24 @@ public class ReportsActivity extends AppCompatActivity {
         tabLayout.setupWithViewPager(mPager);
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(final Menu menu) {
+        getMenuInflater().inflate(R.menu.reports_menu, menu);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(final MenuItem item) {
         switch (item.getItemId()) {
             case android.R.id.home:
                 onBackPressed();
                 break;
+            case R.id.reports_menu_export_history:
+                pickHistoryFile(Intent.ACTION_CREATE_DOCUMENT, REQUEST_EXPORT_HISTORY);
+                break;
+            case R.id.reports_menu_import_history:
+                pickHistoryFile(Intent.ACTION_OPEN_DOCUMENT, REQUEST_IMPORT_HISTORY);
+                break;
             default:
                 // ignore
                 break;
@@ -56,6 +98,117 @@ public class ReportsActivity extends AppCompatActivity {
         return true;
     }
 
+    @Override
+    protected void onActivityResult(final int requestCode, final int resultCode,
+                                    final Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == REQUEST_EXPORT_HISTORY) {
+            transferHistory(data.getData(), true);
+        } else if (requestCode == REQUEST_IMPORT_HISTORY) {
+            transferHistory(data.getData(), false);
+        }
+    }
+
+    /**
+     * Lets the user pick the file of the history archive.
+     *
+     * @param action      the document action.
+     * @param requestCode the request code of the result.
+     */
+    private void pickHistoryFile(final String action, final int requestCode) {
+        final Intent intent = new Intent(action);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(HISTORY_MIME_TYPE);
+        intent.putExtra(Intent.EXTRA_TITLE, HISTORY_FILE_NAME);
+        startActivityForResult(intent, requestCode);
+    }
+
+    /**
+     * Exports the history to a file or imports it from one, in the
+     * background. The charts are reloaded after an import.
+     *
+     * @param uri    the file.
+     * @param export true to export, false to import.
+     */
+    private void transferHistory(final Uri uri, final boolean export) {
+        final ContentResolver resolver = getContentResolver();
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(final Void... params) {
+                try {
+                    if (export) {
+                        exportHistory(resolver, uri);
+                    } else {
+                        importHistory(resolver, uri);
+                    }
+                    return true;
+                } catch (final IOException | SecurityException e) {
+                    Log.e("History > transfer failed: " + e.getLocalizedMessage());
+                    return false;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(final Boolean result) {
+                final int message;
+                if (export) {
+                    message = result ? R.string.toast_history_exported
+                            : R.string.toast_history_export_failed;
+                } else {
+                    message = result ? R.string.toast_history_imported
+                            : R.string.toast_history_import_failed;
+                }
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show();
+                if (result && !export && !isFinishing()) {
+                    recreate();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Exports the history to a file.
+     *
+     * @param resolver the content resolver.
+     * @param uri      the file.
+     * @throws IOException if the file can't be written.
+     */
+    private static void exportHistory(final ContentResolver resolver, final Uri uri)
+            throws IOException {
+        final OutputStream output = resolver.openOutputStream(uri);
+        if (output == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        try {
+            HistoryArchive.exportTo(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Imports the history from a file.
+     *
+     * @param resolver the content resolver.
+     * @param uri      the file.
+     * @throws IOException if the file can't be read or is not an archive.
+     */
+    private static void importHistory(final ContentResolver resolver, final Uri uri)
+            throws IOException {
+        final InputStream input = resolver.openInputStream(uri);
+        if (input == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        try {
+            HistoryArchive.importFrom(input);
+        } finally {
+            input.close();
+        }
+    }
+
     static class ContactsTabPageAdapter extends FragmentStatePagerAdapter {
 
         public ContactsTabPageAdapter(final FragmentManager fm) {
@@ -42,8 +42,8 @@ import com.sonymobile.androidapp.gridcomputing.notifications.NotificationStatus;
 import com.sonymobile.androidapp.gridcomputing.preferences.MiscPref;
 import com.sonymobile.androidapp.gridcomputing.preferences.RunningPref;
 import com.sonymobile.androidapp.gridcomputing.preferences.SettingsPref;
+import com.sonymobile.androidapp.gridcomputing.service.ConditionJobService;
 import com.sonymobile.androidapp.gridcomputing.service.ServiceManager;
-import com.sonymobile.androidapp.gridcomputing.utils.AlarmUtils;
 import com.sonymobile.androidapp.gridcomputing.utils.ApplicationData;
 import com.sonymobile.androidapp.gridcomputing.utils.FormatUtils;
 import com.sonymobile.androidapp.gridcomputing.utils.NetworkUtils;
@@ -161,7 +161,7 @@ public class SummaryActivity extends GameLoginActivity implements
         toggleShareButtons();
 
         turnOff();
-        AlarmUtils.createAlarm(AlarmUtils.AlarmType.REPEAT_1_MIN);
+        ConditionJobService.schedule(this);
 
         if (getIntent().getBooleanExtra("login_ggs", false)) {
             doLogin();
@@ -487,11 +487,11 @@ public class SummaryActivity extends GameLoginActivity implements
 
     @SuppressWarnings("unused")
     public void onEventMainThread(final ConditionMessage message) {
-        final boolean enabled = !message.getNotMetConditions().contains(ConditionType.ENABLED);
-        final boolean charger = !message.getNotMetConditions().contains(ConditionType.CHARGER);
-        final boolean battery = !message.getNotMetConditions().contains(ConditionType.BATTERY);
-        final boolean wifi = !message.getNotMetConditions().contains(ConditionType.WIFI);
-        final boolean paused = message.getNotMetConditions().contains(ConditionType.PAUSED);
+        final boolean enabled = !message.isNotMet(ConditionType.ENABLED);
+        final boolean charger = !message.isNotMet(ConditionType.CHARGER);
+        final boolean battery = !message.isNotMet(ConditionType.BATTERY);
+        final boolean wifi = !message.isNotMet(ConditionType.WIFI);
+        final boolean paused = message.isNotMet(ConditionType.PAUSED);
         ViewUtils.updateStatusBar(mStatusView, enabled, paused, battery, charger, wifi);
 
         if (!enabled && JobCheckpointsContract.get24HourAccumulatedTime() > 0) {
@@ -505,9 +505,9 @@ public class SummaryActivity extends GameLoginActivity implements
      * @param message the message fired when the conditions changes.
      */
     private void setupConditionsLayout(final ConditionMessage message) {
-        final boolean charger = !message.getNotMetConditions().contains(ConditionType.CHARGER);
-        final boolean battery = !message.getNotMetConditions().contains(ConditionType.BATTERY);
-        final boolean wifi = !message.getNotMetConditions().contains(ConditionType.WIFI);
+        final boolean charger = !message.isNotMet(ConditionType.CHARGER);
+        final boolean battery = !message.isNotMet(ConditionType.BATTERY);
+        final boolean wifi = !message.isNotMet(ConditionType.WIFI);
         final boolean allConditionsMet = charger && battery && wifi;
         if (allConditionsMet) {
             mConditionsLayout.setVisibility(View.INVISIBLE);
@@ -42,7 +42,8 @@ public final class CopyAssets implements Runnable {
 
 
     private static final String[] ASSETS_FILES = {
-            "fsm.js", "environment.js", "consts_client.js", "script_prepend.js", CLIENT_JS_FILE
+            "fsm.js", "environment.js", "consts_client.js", "script_prepend.js", "protocol.js",
+            CLIENT_JS_FILE
     };
 
     /**
@@ -0,0 +1,281 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.conditions;
+
+import android.os.BatteryManager;
+
+/**
+ * Immutable state of the device conditions at a point in time. A change
+ * creates a new snapshot, so a snapshot read by any thread is consistent.
+ */
+public final class ConditionSnapshot {
+
+    /**
+     * Battery temperature of a snapshot where it is not known.
+     */
+    public static final int UNKNOWN_TEMPERATURE = Integer.MIN_VALUE;
+
+    /**
+     * Snapshot before any condition is known.
+     */
+    public static final ConditionSnapshot EMPTY = new ConditionSnapshot(-1, 0f,
+            UNKNOWN_TEMPERATURE, false, false, false, false, false, 0L);
+
+    /**
+     * The charger plugged, one of the BatteryManager.BATTERY_PLUGGED
+     * constants, 0 on battery or -1 if unknown.
+     */
+    private final int mPlugged;
+    /**
+     * The battery level.
+     */
+    private final float mBatteryLevel;
+    /**
+     * The battery temperature, in tenths of degree Celsius.
+     */
+    private final int mBatteryTemperature;
+    /**
+     * If the device is in a wifi network.
+     */
+    private final boolean mWifiNetwork;
+    /**
+     * If the device is in an unmetered network.
+     */
+    private final boolean mUnmeteredNetwork;
+    /**
+     * If the assets were copied.
+     */
+    private final boolean mAssetsCopied;
+    /**
+     * If the execution is enabled by the user, cached from the settings.
+     */
+    private final boolean mExecutionEnabled;
+    /**
+     * If the execution is paused by the user, cached from the settings.
+     */
+    private final boolean mPaused;
+    /**
+     * Time the battery reached the plateau level, in elapsed realtime ms, or
+     * 0 if it is not in the plateau. Cached from the preferences.
+     */
+    private final long mBatteryPlateauTime;
+
+    /**
+     * The class constructor.
+     *
+     * @param plugged            the charger plugged.
+     * @param batteryLevel       the battery level.
+     * @param batteryTemperature the battery temperature.
+     * @param wifiNetwork        if the device is in a wifi network.
+     * @param unmeteredNetwork   if the device is in an unmetered network.
+     * @param assetsCopied       if the assets were copied.
+     * @param executionEnabled   if the execution is enabled.
+     * @param paused             if the execution is paused.
+     * @param batteryPlateauTime time the battery reached the plateau level.
+     */
+    private ConditionSnapshot(final int plugged, final float batteryLevel,
+                              final int batteryTemperature,
+                              final boolean wifiNetwork, final boolean unmeteredNetwork,
+                              final boolean assetsCopied, final boolean executionEnabled,
+                              final boolean paused, final long batteryPlateauTime) {
+        mPlugged = plugged;
+        mBatteryLevel = batteryLevel;
+        mBatteryTemperature = batteryTemperature;
+        mWifiNetwork = wifiNetwork;
+        mUnmeteredNetwork = unmeteredNetwork;
+        mAssetsCopied = assetsCopied;
+        mExecutionEnabled = executionEnabled;
+        mPaused = paused;
+        mBatteryPlateauTime = batteryPlateauTime;
+    }
+
+    /**
+     * Returns a snapshot with other power conditions.
+     *
+     * @param plugged            the charger plugged.
+     * @param batteryLevel       the battery level.
+     * @param batteryTemperature the battery temperature, in tenths of degree
+     *                           Celsius, or {@link #UNKNOWN_TEMPERATURE}.
+     * @return the new snapshot.
+     */
+    public ConditionSnapshot withPower(final int plugged, final float batteryLevel,
+                                       final int batteryTemperature) {
+        return new ConditionSnapshot(plugged, batteryLevel, batteryTemperature, mWifiNetwork,
+                mUnmeteredNetwork, mAssetsCopied, mExecutionEnabled, mPaused,
+                mBatteryPlateauTime);
+    }
+
+    /**
+     * Returns a snapshot with other network conditions.
+     *
+     * @param wifiNetwork      if the device is in a wifi network.
+     * @param unmeteredNetwork if the device is in an unmetered network.
+     * @return the new snapshot.
+     */
+    public ConditionSnapshot withNetwork(final boolean wifiNetwork,
+                                         final boolean unmeteredNetwork) {
+        return new ConditionSnapshot(mPlugged, mBatteryLevel, mBatteryTemperature,
+                wifiNetwork, unmeteredNetwork, mAssetsCopied, mExecutionEnabled,
+                mPaused, mBatteryPlateauTime);
+    }
+
+    /**
+     * Returns a snapshot with another assets condition.
+     *
+     * @param assetsCopied if the assets were copied.
+     * @return the new snapshot.
+     */
+    public ConditionSnapshot withAssetsCopied(final boolean assetsCopied) {
+        return new ConditionSnapshot(mPlugged, mBatteryLevel, mBatteryTemperature,
+                mWifiNetwork, mUnmeteredNetwork, assetsCopied, mExecutionEnabled,
+                mPaused, mBatteryPlateauTime);
+    }
+
+    /**
+     * Returns a snapshot with other user settings.
+     *
+     * @param executionEnabled if the execution is enabled.
+     * @param paused           if the execution is paused.
+     * @return the new snapshot.
+     */
+    public ConditionSnapshot withSettings(final boolean executionEnabled, final boolean paused) {
+        return new ConditionSnapshot(mPlugged, mBatteryLevel, mBatteryTemperature,
+                mWifiNetwork, mUnmeteredNetwork, mAssetsCopied, executionEnabled,
+                paused, mBatteryPlateauTime);
+    }
+
+    /**
+     * Returns a snapshot with another battery plateau time.
+     *
+     * @param batteryPlateauTime time the battery reached the plateau level.
+     * @return the new snapshot.
+     */
+    public ConditionSnapshot withBatteryPlateauTime(final long batteryPlateauTime) {
+        return new ConditionSnapshot(mPlugged, mBatteryLevel, mBatteryTemperature,
+                mWifiNetwork, mUnmeteredNetwork, mAssetsCopied, mExecutionEnabled,
+                mPaused, batteryPlateauTime);
+    }
+
+    /**
+     * Gets the charger plugged.
+     *
+     * @return one of the BatteryManager.BATTERY_PLUGGED constants, 0 on
+     * battery or -1 if unknown.
+     */
+    public int getPlugged() {
+        return mPlugged;
+    }
+
+    /**
+     * Gets the battery level.
+     *
+     * @return the battery level in percentage (0.00, 1.00).
+     */
+    public float getBatteryLevel() {
+        return mBatteryLevel;
+    }
+
+    /**
+     * Gets the battery temperature.
+     *
+     * @return the temperature in tenths of degree Celsius, or
+     * {@link #UNKNOWN_TEMPERATURE}.
+     */
+    public int getBatteryTemperature() {
+        return mBatteryTemperature;
+    }
+
+    /**
+     * Gets if the device is plugged to an AC charger.
+     *
+     * @return if the device is plugged to an AC charger.
+     */
+    public boolean isAcCharging() {
+        return mPlugged == BatteryManager.BATTERY_PLUGGED_AC;
+    }
+
+    /**
+     * Gets if the device is plugged to an USB charger.
+     *
+     * @return if the device is plugged to an USB charger.
+     */
+    public boolean isUSBCharging() {
+        return mPlugged == BatteryManager.BATTERY_PLUGGED_USB;
+    }
+
+    /**
+     * Gets if the device is charging via wireless charger.
+     *
+     * @return if the device is charging via wireless charger.
+     */
+    public boolean isWirelessCharging() {
+        return mPlugged == BatteryManager.BATTERY_PLUGGED_WIRELESS;
+    }
+
+    /**
+     * Gets if the device is in a wifi network.
+     *
+     * @return if the device is in a wifi network.
+     */
+    public boolean isWifiNetwork() {
+        return mWifiNetwork;
+    }
+
+    /**
+     * Gets if the device is in an unmetered network.
+     *
+     * @return if the device is in an unmetered network.
+     */
+    public boolean isUnmeteredNetwork() {
+        return mUnmeteredNetwork;
+    }
+
+    /**
+     * Gets if the assets were copied.
+     *
+     * @return if the assets were copied.
+     */
+    public boolean isAssetsCopied() {
+        return mAssetsCopied;
+    }
+
+    /**
+     * Gets if the execution is enabled by the user.
+     *
+     * @return if the execution is enabled.
+     */
+    public boolean isExecutionEnabled() {
+        return mExecutionEnabled;
+    }
+
+    /**
+     * Gets if the execution is paused by the user.
+     *
+     * @return if the execution is paused.
+     */
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * Gets the time the battery reached the plateau level.
+     *
+     * @return the time in elapsed realtime ms, or 0 if the battery is not in
+     * the plateau.
+     */
+    public long getBatteryPlateauTime() {
+        return mBatteryPlateauTime;
+    }
+
+    @Override
+    public String toString() {
+        return "plugged: " + mPlugged + " battery: " + mBatteryLevel
+                + " temperature: " + mBatteryTemperature + " wifi: " + mWifiNetwork
+                + " unmetered: " + mUnmeteredNetwork + " assets: " + mAssetsCopied
+                + " enabled: " + mExecutionEnabled + " paused: " + mPaused
+                + " plateau: " + mBatteryPlateauTime;
+    }
+}
@@ -5,6 +5,10 @@
 
 package com.sonymobile.androidapp.gridcomputing.conditions;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Enum to represent any condition that changes while the app is running.
  */
@@ -40,5 +44,48 @@ public enum ConditionType {
     /**
      * GTM disabled app condition.
      */
-    DISABLED_APP
+    DISABLED_APP;
+
+    /**
+     * The conditions, cached since values() copies them on every call.
+     */
+    private static final ConditionType[] VALUES = values();
+
+    /**
+     * Gets the bit of this condition in a set of conditions.
+     *
+     * @return the mask with only the bit of this condition set.
+     */
+    public int getMask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Checks if this condition is in a set of conditions.
+     *
+     * @param mask the set of conditions.
+     * @return true if the bit of this condition is set in the mask.
+     */
+    public boolean isIn(final int mask) {
+        return (mask & getMask()) != 0;
+    }
+
+    /**
+     * Converts a set of conditions to a list.
+     *
+     * @param mask the set of conditions.
+     * @return an unmodifiable list with the conditions in the mask, in declaration order.
+     */
+    public static List<ConditionType> toList(final int mask) {
+        if (mask == 0) {
+            return Collections.emptyList();
+        }
+        final List<ConditionType> conditions = new ArrayList<>(Integer.bitCount(mask));
+        for (ConditionType condition : VALUES) {
+            if (condition.isIn(mask)) {
+                conditions.add(condition);
+            }
+        }
+        return Collections.unmodifiableList(conditions);
+    }
 }
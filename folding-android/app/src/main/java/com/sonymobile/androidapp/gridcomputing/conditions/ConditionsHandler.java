@@ -9,12 +9,11 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.wifi.WifiManager;
-import android.os.AsyncTask;
 import android.os.BatteryManager;
-import android.os.Handler;
 import android.os.SystemClock;
 
 import com.sonymobile.androidapp.gridcomputing.BuildConfig;
@@ -23,15 +22,21 @@ import com.sonymobile.androidapp.gridcomputing.assets.CopyAssets;
 import com.sonymobile.androidapp.gridcomputing.log.Log;
 import com.sonymobile.androidapp.gridcomputing.messages.ConditionMessage;
 import com.sonymobile.androidapp.gridcomputing.preferences.MiscPref;
+import com.sonymobile.androidapp.gridcomputing.preferences.PrefUtils;
 import com.sonymobile.androidapp.gridcomputing.preferences.SettingsPref;
 import com.sonymobile.androidapp.gridcomputing.service.ComputeService;
+import com.sonymobile.androidapp.gridcomputing.service.ConditionJobService;
 import com.sonymobile.androidapp.gridcomputing.service.ServiceManager;
+import com.sonymobile.androidapp.gridcomputing.service.WarmStandby;
 import com.sonymobile.androidapp.gridcomputing.utils.ApplicationData;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Helper class which verifies all the conditions necessary to execute jobs.
@@ -67,71 +72,110 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      */
     private static final int COPY_ASSETS_MAX_TRIES = 3;
     /**
-     * Wait time to the callback Thread.
+     * Time without condition changes after which they are dispatched, in ms.
      */
-    private static final int CONDITION_CALLBACK_WAIT_TIME = 3500;
+    private static final long CONDITION_CALLBACK_WAIT_TIME = 3500L;
     /**
-     * Wait time to auto check the statuses.
+     * Longest time a condition change waits to be dispatched while newer
+     * changes keep postponing it, in ms.
      */
-    private static final long AUTO_CHECKER_DELAY = TimeUnit.MINUTES.toMillis(1);
+    private static final long CONDITION_CALLBACK_MAX_WAIT_TIME = 3 * CONDITION_CALLBACK_WAIT_TIME;
+    /**
+     * Conditions which the {@link ConditionJobService} waits for.
+     */
+    private static final int JOB_CONDITIONS_MASK =
+            ConditionType.CHARGER.getMask() | ConditionType.WIFI.getMask();
+    /**
+     * Conditions that depend on the device rather than on the user.
+     */
+    private static final int DEVICE_CONDITIONS_MASK = JOB_CONDITIONS_MASK
+            | ConditionType.BATTERY.getMask() | ConditionType.ASSETS.getMask();
     /**
      * This class' singleton instance.
      */
     private static ConditionsHandler sConditionsHandler;
     /**
-     * Counts the number of callbacks made to the ConditionsListener.
+     * Number of condition changes notified.
      */
-    private final AtomicInteger mConditionCallbackCount;
+    private final AtomicLong mReceivedEventCount = new AtomicLong();
     /**
-     * Execution context.
+     * Number of times the conditions were dispatched.
      */
-    private Context mContext;
+    private final AtomicLong mDispatchCount = new AtomicLong();
     /**
-     * Number of copy assets tries.
+     * Single thread updating the conditions and running the dispatches, in
+     * order, so a dispatch sees every update notified before it.
      */
-    private int mCopyAssetsAttempts;
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(runnable, "conditions");
+                }
+            });
     /**
-     * If the device is plugged to an AC charger.
+     * Guards the pending dispatch.
      */
-    private boolean mAcCharging;
+    private final Object mDispatchLock = new Object();
     /**
-     * If the device is plugged to an USB charger.
+     * The dispatch waiting for the debounce, null if none.
      */
-    private boolean mUSBCharging;
+    private ScheduledFuture<?> mPendingDispatch;
     /**
-     * If the device is charging via wireless charger.
+     * Number of dispatches scheduled, identifying the pending one.
      */
-    private boolean mWirelessCharging;
+    private int mDispatchGeneration;
     /**
-     * The battery level.
+     * Time the first change waiting for the pending dispatch was notified,
+     * in elapsed realtime ms.
      */
-    private float mBatteryLevel;
+    private long mFirstPendingEventTime;
     /**
-     * If the device is in a wifi network.
+     * Set of not met conditions last posted, -1 if none was posted. Only
+     * used on the executor.
      */
-    private boolean mWifiNetwork;
+    private int mPostedNotMetMask = -1;
     /**
-     * If the device is in an unmetered network.
+     * Hard stop flag last posted. Only used on the executor.
      */
-    private boolean mWifiUnmetered;
+    private boolean mPostedHardStop;
     /**
-     * If the assets were copied.
+     * Soft stop flag last posted. Only used on the executor.
      */
-    private boolean mAssetsCopy;
+    private boolean mPostedSoftStop;
     /**
-     * If the assets are still being copied.
+     * Reloads the preference-backed conditions when the user settings or
+     * the battery plateau time change. Strongly referenced because the
+     * preferences only keep a weak reference to their listeners.
      */
-    private boolean mAssetsCopyOnProgress;
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(final SharedPreferences preferences,
+                                                      final String key) {
+                    if (SettingsPref.EXECUTION_ENABLED_KEY.equals(key)
+                            || SettingsPref.PAUSE_TIME_KEY.equals(key)
+                            || MiscPref.LAST_BATTERY_PLATEAU_TIME.equals(key)) {
+                        updatePreferenceConditions(true);
+                    }
+                }
+            };
     /**
-     * Thread used to wait the timeout and call the ConditionsListener.
+     * Execution context.
      */
-    private Thread mConditionalCallbackThread;
-
+    private Context mContext;
+    /**
+     * The latest conditions. Only replaced on the executor, and read by any thread.
+     */
+    private volatile ConditionSnapshot mSnapshot = ConditionSnapshot.EMPTY;
+    /**
+     * Number of copy assets tries. Only used on the executor.
+     */
+    private int mCopyAssetsAttempts;
     /**
-     * Handler to run an auto update task to refresh all the conditions.
-     * This is useful because some devices will not fire power/wifi intent properly.
+     * If the assets are still being copied. Only used on the executor.
      */
-    private Handler mAutoCheckHandler = new Handler();
+    private boolean mAssetsCopyOnProgress;
 
     /**
      * Simple constructor.
@@ -139,9 +183,8 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
     private ConditionsHandler() {
         Log.d("ConditionsHandler creating new instance...");
         mContext = ApplicationData.getAppContext();
-        mConditionCallbackCount = new AtomicInteger();
-        loadInitialConditions();
         registerReceivers();
+        loadInitialConditions();
     }
 
     /**
@@ -169,12 +212,20 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
     public void shutDown() {
         Log.d("ConditionsHandler shutting down...");
         unregisterReceivers();
+        synchronized (mDispatchLock) {
+            if (mPendingDispatch != null) {
+                mPendingDispatch.cancel(false);
+                mPendingDispatch = null;
+            }
+        }
+        // Drops the delayed battery plateau check too, which would outlive the instance.
+        mExecutor.shutdownNow();
         ConditionsHandler.destroyInstance();
         mContext = null;
     }
 
     /**
-     * Copies the files from assets (if not previously copied).
+     * Copies the files from assets (if not previously copied). Runs on the executor.
      */
     private void copyAssets() {
         if (mContext != null) {
@@ -182,7 +233,7 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
 
             if (assetsSuccess) {
                 mAssetsCopyOnProgress = false;
-                setAssetsCopy(true);
+                publish(mSnapshot.withAssetsCopied(true));
             } else {
                 mCopyAssetsAttempts++;
                 mAssetsCopyOnProgress = true;
@@ -193,66 +244,114 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
     }
 
     /**
-     * Waits a timeout to avoid multiple calls at the same time to the listener
-     * and calls the conditionChanged method from the registered callback in a
-     * separated thread to avoid hogging any broadcast.
-     * @param dispatchImmediately the flag dispatch Immediately.
+     * Notifies that a condition changed. The notifications are debounced on
+     * the trailing edge: the conditions are dispatched once no notification
+     * arrived for {@link #CONDITION_CALLBACK_WAIT_TIME}, or at most
+     * {@link #CONDITION_CALLBACK_MAX_WAIT_TIME} after the first one, so a
+     * flood of battery broadcasts results in a single dispatch. The dispatch
+     * runs on the dispatcher thread to avoid hogging any broadcast.
+     * @param dispatchImmediately true to dispatch the pending notifications
+     *                            now, for instance when the user enables or
+     *                            disables the execution and the UI must be
+     *                            updated as soon as possible.
      */
     public void notifyConditionChanged(final boolean dispatchImmediately) {
-        // This is done in an external thread to avoid hogging a broadcast
-        // receiver.
-        mConditionCallbackCount.incrementAndGet();
-
-        //how this works:
-        //1) There is a dispatch period to avoid flood when some events changes too fast
-        // (eg. battery)
-        //2) In some cases we want to bypass the dispatch, for instance, when the user
-        //   enable/disable the execution because we want the UI to be updated as soon as possible
-        //3) The dispatch period is done using a thread, which simply sleeps for a fixed period
-        //4) After the period ends (or the thread is interrupted) it posts an event to notify that
-        //   any condition has changed
-        //5) If any event occurs while the thread sleeps, it will not be posted and the events
-        //   will only be posted after the sleep period
-        //6) If we want the events to be dispatched immediately then we simply interrupt the thread
-        //   which will cause the events to be posted immediately
-        if (mConditionalCallbackThread == null || mConditionCallbackCount.get() == 1
-                || dispatchImmediately) {
-            if (dispatchImmediately && mConditionalCallbackThread != null
-                    && mConditionalCallbackThread.isAlive()) {
-                mConditionalCallbackThread.interrupt();
+        mReceivedEventCount.incrementAndGet();
+        synchronized (mDispatchLock) {
+            final long now = SystemClock.elapsedRealtime();
+            if (mPendingDispatch == null) {
+                mFirstPendingEventTime = now;
             } else {
-                mConditionalCallbackThread = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (!dispatchImmediately) {
-                            try {
-                                Thread.sleep(CONDITION_CALLBACK_WAIT_TIME);
-                            } catch (final InterruptedException e) {
-                                Log.e(e.getLocalizedMessage());
-                            }
+                // A dispatch already running is not cancelled and this one follows it.
+                mPendingDispatch.cancel(false);
+            }
+            final long delay = dispatchImmediately ? 0L : Math.max(0L, Math.min(
+                    CONDITION_CALLBACK_WAIT_TIME,
+                    mFirstPendingEventTime + CONDITION_CALLBACK_MAX_WAIT_TIME - now));
+            final int generation = ++mDispatchGeneration;
+            mPendingDispatch = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mDispatchLock) {
+                        if (generation == mDispatchGeneration) {
+                            mPendingDispatch = null;
                         }
+                    }
+                    dispatchConditionChanged();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
 
-                        mConditionCallbackCount.set(0);
-                        final boolean hardStop = !checkEnabledCondition()
-                                || mBatteryLevel < MIN_BATTERY_FORCE_KILL && !BuildConfig.TEST_MODE;
-                        final List<ConditionType> notMetCondition = getNotMetConditions();
-                        final boolean softStop = notMetCondition.size() != 0;
-
-                        if (notMetCondition.size() == 0 && !ComputeService.isExecutingJobs()) {
-                            ServiceManager.startComputeService();
-                        }
+    /**
+     * Dispatches the conditions now, then runs a task on the dispatcher
+     * thread, once the dispatch is done.
+     *
+     * @param then the task.
+     */
+    public void verifyConditions(final Runnable then) {
+        notifyConditionChanged(true);
+        mExecutor.execute(then);
+    }
 
-                        Log.d("notifyConditionChanged softStop: "
-                                + softStop + " hardStop: " + hardStop);
-                        ApplicationData.getBus().postSticky(new ConditionMessage(notMetCondition,
-                                hardStop, softStop));
+    /**
+     * Checks the conditions and starts or parks the service accordingly. The
+     * conditions are posted to the bus only if they differ from the ones
+     * posted last, the sticky message still holds them otherwise. Runs on
+     * the dispatcher thread.
+     */
+    private void dispatchConditionChanged() {
+        final long dispatchCount = mDispatchCount.incrementAndGet();
+        final ConditionSnapshot snapshot = mSnapshot;
+        final boolean hardStop = !snapshot.isExecutionEnabled()
+                || snapshot.getBatteryLevel() < MIN_BATTERY_FORCE_KILL && !BuildConfig.TEST_MODE;
+        final int notMetMask = getNotMetMask(snapshot);
+        final boolean softStop = notMetMask != 0;
 
-                    }
-                });
-                mConditionalCallbackThread.start();
-            }
+        if (notMetMask == 0 && !ComputeService.isExecutingJobs()) {
+            ServiceManager.startComputeService();
+        } else if (!hardStop && !ComputeService.isExecutingJobs()) {
+            WarmStandby.getInstance().park(ApplicationData.getAppContext());
+        }
 
+        if ((notMetMask & JOB_CONDITIONS_MASK) != 0) {
+            // The app may be killed now that it doesn't run: wait for the
+            // charger and the network to come back. Checked on every dispatch,
+            // the job may have run since the conditions were posted.
+            ConditionJobService.schedule(ApplicationData.getAppContext());
+        }
+        if (notMetMask == mPostedNotMetMask && hardStop == mPostedHardStop
+                && softStop == mPostedSoftStop) {
+            return;
         }
+        mPostedNotMetMask = notMetMask;
+        mPostedHardStop = hardStop;
+        mPostedSoftStop = softStop;
+        final ConditionMessage message = new ConditionMessage(notMetMask, hardStop, softStop);
+        Log.d("notifyConditionChanged not met: " + message.getNotMetConditions()
+                + " softStop: " + softStop + " hardStop: " + hardStop
+                + " events: " + mReceivedEventCount.get() + " dispatches: " + dispatchCount);
+        ApplicationData.getBus().postSticky(message);
+    }
+
+    /**
+     * Returns the number of condition changes notified so far.
+     *
+     * @return the number of notifications received.
+     */
+    public long getReceivedEventCount() {
+        return mReceivedEventCount.get();
+    }
+
+    /**
+     * Returns the number of times the conditions were dispatched so far.
+     * Compared to {@link #getReceivedEventCount()}, it shows how many
+     * notifications the debounce coalesced.
+     *
+     * @return the number of dispatches.
+     */
+    public long getDispatchCount() {
+        return mDispatchCount.get();
     }
 
     /**
@@ -267,9 +366,13 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
             filter.addAction(Intent.ACTION_POWER_CONNECTED);
             filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
             filter.addAction(Intent.ACTION_BATTERY_CHANGED);
+            // The sticky battery intent returned is also delivered to onReceive.
             mContext.registerReceiver(this, filter);
+            PrefUtils.getSharedPreferences(SettingsPref.PREF_FILE)
+                    .registerOnSharedPreferenceChangeListener(mPreferenceListener);
+            PrefUtils.getSharedPreferences(MiscPref.PREF_FILE)
+                    .registerOnSharedPreferenceChangeListener(mPreferenceListener);
         }
-        setAutoChecker(false);
     }
 
     /**
@@ -282,61 +385,62 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
             } catch (final IllegalArgumentException e) {
                 Log.e(e.getMessage());
             }
+            PrefUtils.getSharedPreferences(SettingsPref.PREF_FILE)
+                    .unregisterOnSharedPreferenceChangeListener(mPreferenceListener);
+            PrefUtils.getSharedPreferences(MiscPref.PREF_FILE)
+                    .unregisterOnSharedPreferenceChangeListener(mPreferenceListener);
         }
-        setAutoChecker(true);
     }
 
     @Override
-    public synchronized void onReceive(final Context context, final Intent intent) {
+    public void onReceive(final Context context, final Intent intent) {
         final String action = intent.getAction();
-        boolean notifyChange = false;
         Log.d("ConditionChanged > action: " + action);
         switch (action) {
             case WifiManager.NETWORK_STATE_CHANGED_ACTION:
             case ConnectivityManager.CONNECTIVITY_ACTION:
-                notifyChange = true;
                 updateWifiCondition();
                 break;
             case Intent.ACTION_POWER_CONNECTED:
             case Intent.ACTION_POWER_DISCONNECTED:
-                notifyChange = true;
-                updatePowerCondition();
+                // These broadcasts have no extras, so the sticky battery intent is read.
+                updatePowerCondition(null);
                 //TODO send charger connected event
                 //GaTrackerUtils.getInstance().sendChargerConnected(action,
                 // (int) (mBatteryLevel * 100));
                 break;
             case Intent.ACTION_BATTERY_CHANGED:
-                final float currentLevel = readChargeLevel();
-                if (mBatteryLevel == currentLevel) {
-                    notifyChange = false;
-                } else {
-                    notifyChange = true;
-                    updatePowerCondition();
-                }
+                updatePowerCondition(intent);
                 break;
             default:
                 break;
         }
-        if (notifyChange) {
-            notifyConditionChanged(false);
-        }
-
     }
 
     @Override
-    public synchronized void onAssetCopySuccess() {
-        setAssetsCopy(true);
-        mAssetsCopyOnProgress = false;
-        notifyConditionChanged(false);
+    public void onAssetCopySuccess() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mAssetsCopyOnProgress = false;
+                publish(mSnapshot.withAssetsCopied(true));
+                notifyConditionChanged(false);
+            }
+        });
     }
 
     @Override
-    public synchronized void onAssetCopyError() {
-        setAssetsCopy(false);
-        mAssetsCopyOnProgress = false;
-        if (mCopyAssetsAttempts < COPY_ASSETS_MAX_TRIES) {
-            copyAssets();
-        }
+    public void onAssetCopyError() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mAssetsCopyOnProgress = false;
+                publish(mSnapshot.withAssetsCopied(false));
+                if (mCopyAssetsAttempts < COPY_ASSETS_MAX_TRIES) {
+                    copyAssets();
+                }
+            }
+        });
     }
 
     /**
@@ -344,31 +448,19 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * the assets file.
      */
     private void loadInitialConditions() {
-        final AsyncTask<Void, Void, Void> mTask = new AsyncTask<Void, Void, Void>() {
+        updatePreferenceConditions(false);
+        updateWifiCondition();
+        // Read before the first dispatch, the sticky broadcast is delivered later.
+        updatePowerCondition(null);
+        mExecutor.execute(new Runnable() {
             @Override
-            protected Void doInBackground(final Void... params) {
+            public void run() {
                 copyAssets();
-                updateAllConditions();
-                return null;
-            }
-
-            @Override
-            protected void onPostExecute(final Void result) {
                 if (!mAssetsCopyOnProgress) {
                     notifyConditionChanged(false);
                 }
             }
-        };
-
-        mTask.execute();
-    }
-
-    /**
-     * Loads all data necessary to verify the conditions.
-     */
-    private void updateAllConditions() {
-        updatePowerCondition();
-        updateWifiCondition();
+        });
     }
 
     /**
@@ -378,144 +470,183 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      *                      Intent.ACTION_BATTERY_CHANGED.
      * @return the battery level in percentage (0.00, 1.00).
      */
-    private float readChargeLevel(final Intent batteryIntent) {
+    private static float readChargeLevel(final Intent batteryIntent) {
         final int level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
         final int scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
         return level / (float) scale;
     }
 
-    /**
-     * Calculates the battery level.
-     *
-     * @return the battery level in percentage (0.00, 1.00).
-     */
-    private float readChargeLevel() {
-        final IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-        final Intent batteryIntent = mContext.registerReceiver(null, ifilter);
-        return readChargeLevel(batteryIntent);
-    }
-
     /**
      * Updates the power conditions: Plugged in the AC/USB Charger and the
-     * battery level.
+     * battery level, on the executor, notifying if they changed.
+     *
+     * @param batteryIntent the Intent.ACTION_BATTERY_CHANGED broadcast, or
+     *                      null to read the sticky one.
      */
-    private void updatePowerCondition() {
-        final AsyncTask<Void, Void, Void> mTask = new AsyncTask<Void, Void, Void>() {
+    private void updatePowerCondition(final Intent batteryIntent) {
+        mExecutor.execute(new Runnable() {
             @Override
-            protected Void doInBackground(final Void... params) {
-                if (mContext != null) {
-                    final IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-                    final Intent batteryStatus = mContext.registerReceiver(null, ifilter);
-                    int plugged = -1;
-                    if (batteryStatus != null) {
-                        plugged = batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
+            public void run() {
+                Intent batteryStatus = batteryIntent;
+                if (batteryStatus == null && mContext != null) {
+                    batteryStatus = mContext.registerReceiver(null,
+                            new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+                }
+                if (batteryStatus == null) {
+                    return;
+                }
+                final int plugged = batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
+                final float level = readChargeLevel(batteryStatus);
+                final int temperature = batteryStatus.getIntExtra(
+                        BatteryManager.EXTRA_TEMPERATURE, ConditionSnapshot.UNKNOWN_TEMPERATURE);
+                final ConditionSnapshot snapshot = mSnapshot;
+                if (plugged == snapshot.getPlugged() && level == snapshot.getBatteryLevel()) {
+                    if (temperature != snapshot.getBatteryTemperature()) {
+                        // Read by the thermal throttle, it is not a condition.
+                        publish(snapshot.withPower(plugged, level, temperature));
                     }
-                    final boolean acCharging = plugged == BatteryManager.BATTERY_PLUGGED_AC;
-                    final boolean usbCharging = plugged == BatteryManager.BATTERY_PLUGGED_USB;
-                    final boolean wirelessCharging =
-                            plugged == BatteryManager.BATTERY_PLUGGED_WIRELESS;
-
-                    setAcCharging(acCharging);
-                    setUSBCharging(usbCharging);
-                    setWirelessCharging(wirelessCharging);
-
-                    final float chargelevel = readChargeLevel(batteryStatus);
-                    setBatteryLevel(chargelevel);
+                    return;
+                }
+                final ConditionSnapshot powerSnapshot = snapshot.withPower(plugged, level,
+                        temperature);
+                final long plateauTime = updateBatteryPlateau(powerSnapshot);
+                publish(powerSnapshot.withBatteryPlateauTime(plateauTime));
+                notifyConditionChanged(false);
+                if (plateauTime != 0 && snapshot.getBatteryPlateauTime() == 0) {
+                    // The level may stay in the plateau without any broadcast
+                    // changing it, so the conditions are checked again once
+                    // it lasted long enough.
+                    mExecutor.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            notifyConditionChanged(false);
+                        }
+                    }, (long) MIN_TIME_PLATEAU, TimeUnit.MILLISECONDS);
                 }
-                return null;
             }
-        };
-
-        mTask.execute();
+        });
     }
 
     /**
      * Updates the Wifi conditions: connected to a wifi network and connected to
-     * an unmetered network.
+     * an unmetered network, on the executor, notifying if they changed.
      */
     private void updateWifiCondition() {
-        final AsyncTask<Void, Void, Void> mTask = new AsyncTask<Void, Void, Void>() {
+        mExecutor.execute(new Runnable() {
             @Override
-            protected Void doInBackground(final Void... params) {
-                if (mContext != null) {
-                    final ConnectivityManager connManager = (ConnectivityManager) mContext
-                            .getSystemService(Context.CONNECTIVITY_SERVICE);
+            public void run() {
+                if (mContext == null) {
+                    return;
+                }
+                final ConnectivityManager connManager = (ConnectivityManager) mContext
+                        .getSystemService(Context.CONNECTIVITY_SERVICE);
 
-                    final NetworkInfo activeNetwork = connManager.getActiveNetworkInfo();
+                final NetworkInfo activeNetwork = connManager.getActiveNetworkInfo();
 
-                    // We only want WIFI networks.
-                    final boolean inWifiNetwork = activeNetwork != null && activeNetwork
-                            .getType() == ConnectivityManager.TYPE_WIFI;
-                    setWifiNetwork(inWifiNetwork);
+                // We only want WIFI networks.
+                final boolean inWifiNetwork = activeNetwork != null && activeNetwork
+                        .getType() == ConnectivityManager.TYPE_WIFI;
 
-                    // We don't want metered networks.
-                    final boolean isMetered = connManager.isActiveNetworkMetered();
-                    setUnmeteredNetwork(!isMetered);
+                // We don't want metered networks.
+                final boolean unmetered = !connManager.isActiveNetworkMetered();
+
+                final ConditionSnapshot snapshot = mSnapshot;
+                if (inWifiNetwork == snapshot.isWifiNetwork()
+                        && unmetered == snapshot.isUnmeteredNetwork()) {
+                    return;
                 }
-                return null;
+                publish(snapshot.withNetwork(inWifiNetwork, unmetered));
+                notifyConditionChanged(false);
             }
-        };
-
-        mTask.execute();
+        });
     }
 
     /**
-     * Sets a flag indicating if the assets were copied successfully.
+     * Updates the conditions backed by preferences: the user settings and the
+     * battery plateau time, on the executor, notifying if they changed. They
+     * are cached in the snapshot so evaluating the conditions reads no
+     * preference.
      *
-     * @param assetsCondition true if the assets were copied, false otherwise.
+     * @param dispatchImmediately true to dispatch a change immediately, as
+     *                            it comes from the user.
      */
-    public void setAssetsCopy(final boolean assetsCondition) {
-        mAssetsCopy = assetsCondition;
+    private void updatePreferenceConditions(final boolean dispatchImmediately) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean enabled = SettingsPref.isExecutionEnabled();
+                final boolean paused = SettingsPref.isPaused();
+                final long plateauTime = MiscPref.getLastBatteryPlateauTime();
+                final ConditionSnapshot snapshot = mSnapshot;
+                if (enabled == snapshot.isExecutionEnabled() && paused == snapshot.isPaused()
+                        && plateauTime == snapshot.getBatteryPlateauTime()) {
+                    return;
+                }
+                publish(snapshot.withSettings(enabled, paused)
+                        .withBatteryPlateauTime(plateauTime));
+                notifyConditionChanged(dispatchImmediately);
+            }
+        });
     }
 
     /**
-     * Sets the battery level.
+     * Publishes new conditions. Runs on the executor.
      *
-     * @param batteryLevel the battery level to be set.
-     */
-    public void setBatteryLevel(final float batteryLevel) {
-        mBatteryLevel = batteryLevel;
-        if (batteryLevel < MIN_BATTERY_LEVEL_PLATEAU || batteryLevel >= MIN_BATTERY_LEVEL) {
-            MiscPref.setLastBatteryPlateauTime(0L);
-        } else if (MiscPref.getLastBatteryPlateauTime() == 0) {
-            MiscPref.setLastBatteryPlateauTime(SystemClock.elapsedRealtime());
-        }
+     * @param snapshot the new conditions.
+     */
+    private void publish(final ConditionSnapshot snapshot) {
+        mSnapshot = snapshot;
+        Log.d("Conditions > " + snapshot);
     }
 
     /**
-     * Gets if the device is in an unmetered network.
+     * Gets the latest conditions.
      *
-     * @return if the device is in an unmetered network.
+     * @return the conditions snapshot.
      */
-    public boolean isUnmeteredNetwork() {
-        return mWifiUnmetered;
+    public ConditionSnapshot getSnapshot() {
+        return mSnapshot;
     }
 
     /**
-     * Sets if the device is in an unmetered network.
+     * Updates the time at which the battery reached the plateau level, which
+     * is reset while the charger condition is not met.
      *
-     * @param unmetered if the device is in an unmetered network.
-     */
-    public void setUnmeteredNetwork(final boolean unmetered) {
-        mWifiUnmetered = unmetered;
+     * @param snapshot the conditions with the new power state.
+     * @return the new battery plateau time.
+     */
+    private static long updateBatteryPlateau(final ConditionSnapshot snapshot) {
+        final float batteryLevel = snapshot.getBatteryLevel();
+        final long lastTime = snapshot.getBatteryPlateauTime();
+        long time = lastTime;
+        if (!checkChargerCondition(snapshot) || batteryLevel < MIN_BATTERY_LEVEL_PLATEAU
+                || batteryLevel >= MIN_BATTERY_LEVEL) {
+            time = 0L;
+        } else if (time == 0) {
+            time = SystemClock.elapsedRealtime();
+        }
+        if (time != lastTime) {
+            MiscPref.setLastBatteryPlateauTime(time);
+        }
+        return time;
     }
 
     /**
-     * Gets if the device is in a wifi network.
+     * Gets if the device is in an unmetered network.
      *
-     * @return if the device is in a wifi network.
+     * @return if the device is in an unmetered network.
      */
-    public boolean isWifiNetwork() {
-        return mWifiNetwork;
+    public boolean isUnmeteredNetwork() {
+        return mSnapshot.isUnmeteredNetwork();
     }
 
     /**
-     * Sets if the device is in a wifi network.
+     * Gets if the device is in a wifi network.
      *
-     * @param wifiNetwork if the device is in a wifi network.
+     * @return if the device is in a wifi network.
      */
-    public void setWifiNetwork(final boolean wifiNetwork) {
-        mWifiNetwork = wifiNetwork;
+    public boolean isWifiNetwork() {
+        return mSnapshot.isWifiNetwork();
     }
 
     /**
@@ -524,16 +655,7 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * @return if the device is plugged to an AC charger.
      */
     public boolean isAcCharging() {
-        return mAcCharging;
-    }
-
-    /**
-     * Sets if the device is plugged to an AC charger.
-     *
-     * @param acCharging if the device is plugged to an AC charger.
-     */
-    public void setAcCharging(final boolean acCharging) {
-        mAcCharging = acCharging;
+        return mSnapshot.isAcCharging();
     }
 
     /**
@@ -542,16 +664,7 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * @return if the device is plugged to an USB charger.
      */
     public boolean isUSBCharging() {
-        return mUSBCharging;
-    }
-
-    /**
-     * Sets if the device is plugged to an USB charger.
-     *
-     * @param usbCharging if the device is plugged to an USB charger.
-     */
-    public void setUSBCharging(final boolean usbCharging) {
-        mUSBCharging = usbCharging;
+        return mSnapshot.isUSBCharging();
     }
 
     /**
@@ -560,16 +673,7 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * @return if the device is charging via wireless charger.
      */
     public boolean isWirelessCharging() {
-        return mWirelessCharging;
-    }
-
-    /**
-     * Sets if the device is charging via wireless charger.
-     *
-     * @param wirelessCharging if the device is charging via wireless charger.
-     */
-    public void setWirelessCharging(final boolean wirelessCharging) {
-        mWirelessCharging = wirelessCharging;
+        return mSnapshot.isWirelessCharging();
     }
 
     /**
@@ -598,38 +702,30 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * >= RunningSettings.MIN_BATTERY_LEVEL_EXEC_THERESHOLD .
      */
     public boolean checkBatteryCondition() {
+        return checkBatteryCondition(mSnapshot);
+    }
+
+    /**
+     * Checks the battery condition of a snapshot.
+     *
+     * @param snapshot the conditions.
+     * @return true if the battery condition is met.
+     */
+    private static boolean checkBatteryCondition(final ConditionSnapshot snapshot) {
+        final float batteryLevel = snapshot.getBatteryLevel();
         boolean result;
         if (ComputeService.isExecutingJobs()) {
-            result = mBatteryLevel > MIN_BATTERY_LEVEL_EXEC_THRESHOLD;
-        } else if (mBatteryLevel >= MIN_BATTERY_LEVEL_PLATEAU && mBatteryLevel < MIN_BATTERY_LEVEL) {
-            final long lastTime = MiscPref.getLastBatteryPlateauTime();
+            result = batteryLevel > MIN_BATTERY_LEVEL_EXEC_THRESHOLD;
+        } else if (batteryLevel >= MIN_BATTERY_LEVEL_PLATEAU && batteryLevel < MIN_BATTERY_LEVEL) {
+            final long lastTime = snapshot.getBatteryPlateauTime();
             final long currentTime = SystemClock.elapsedRealtime();
             result = lastTime > 0 && (currentTime - lastTime) >= MIN_TIME_PLATEAU;
         } else {
-            result = mBatteryLevel >= MIN_BATTERY_LEVEL;
+            result = batteryLevel >= MIN_BATTERY_LEVEL;
         }
         return result;
     }
 
-    /**
-     * Set a handler to run an auto checker task.
-     * @param stop true if the checker should stop, false otherwise.
-     */
-    private void setAutoChecker(final boolean stop) {
-        if (stop) {
-            mAutoCheckHandler.removeCallbacksAndMessages(null);
-        } else {
-            mAutoCheckHandler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    updateAllConditions();
-                    setAutoChecker(false);
-                    notifyConditionChanged(false);
-                }
-            }, AUTO_CHECKER_DELAY);
-        }
-    }
-
     /**
      * Checks all the power condition.
      *
@@ -637,7 +733,17 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * in the AC charger.
      */
     public boolean checkChargerCondition() {
-        return isAcCharging() || isWirelessCharging();
+        return checkChargerCondition(mSnapshot);
+    }
+
+    /**
+     * Checks the power condition of a snapshot.
+     *
+     * @param snapshot the conditions.
+     * @return true if the device is plugged in the AC or wireless charger.
+     */
+    private static boolean checkChargerCondition(final ConditionSnapshot snapshot) {
+        return snapshot.isAcCharging() || snapshot.isWirelessCharging();
     }
 
     /**
@@ -646,7 +752,7 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * @return true if the assets were copied successfully.
      */
     public boolean checkAssetsCondition() {
-        return mAssetsCopy;
+        return mSnapshot.isAssetsCopied();
     }
 
     /**
@@ -655,7 +761,17 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * @return true if the device is connected to a wifi and unmetered network.
      */
     public boolean checkUnmeteredWifiCondition() {
-        return mWifiUnmetered && mWifiNetwork;
+        return checkUnmeteredWifiCondition(mSnapshot);
+    }
+
+    /**
+     * Checks the wifi condition of a snapshot.
+     *
+     * @param snapshot the conditions.
+     * @return true if the device is connected to a wifi and unmetered network.
+     */
+    private static boolean checkUnmeteredWifiCondition(final ConditionSnapshot snapshot) {
+        return snapshot.isUnmeteredNetwork() && snapshot.isWifiNetwork();
     }
 
     /**
@@ -665,7 +781,17 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * otherwise.
      */
     public boolean checkAllConditions() {
-        return getNotMetConditions().size() == 0;
+        return getNotMetMask(mSnapshot) == 0;
+    }
+
+    /**
+     * Checks if a condition that depends on the device rather than on the
+     * user, such as the battery or the assets, is not met.
+     *
+     * @return true if a device condition is not met.
+     */
+    public boolean isDeviceConditionNotMet() {
+        return (getNotMetMask(mSnapshot) & DEVICE_CONDITIONS_MASK) != 0;
     }
 
     /**
@@ -674,36 +800,37 @@ public final class ConditionsHandler extends BroadcastReceiver implements AssetC
      * @return a list with not met conditions.
      */
     public List<ConditionType> getNotMetConditions() {
-        final boolean assetsCondition = checkAssetsCondition();
-        final boolean enabledCondition = checkEnabledCondition();
-        final boolean wifiCondition = checkUnmeteredWifiCondition();
-        final boolean chargerCondition = BuildConfig.TEST_MODE || checkChargerCondition();
-        final boolean batteryCondition = BuildConfig.TEST_MODE || checkBatteryCondition();
-        final boolean pausedCondition = !isPaused();
-
-        final List<ConditionType> notSatisfiedConditions = new ArrayList<>();
-        if (!assetsCondition) {
-            notSatisfiedConditions.add(ConditionType.ASSETS);
+        return ConditionType.toList(getNotMetMask(mSnapshot));
+    }
+
+    /**
+     * Get all conditions of a snapshot that are not met. Reads nothing but
+     * the snapshot, and has no side effects.
+     *
+     * @param snapshot the conditions.
+     * @return the set of not met conditions, one bit per
+     * {@link ConditionType#getMask()}.
+     */
+    private static int getNotMetMask(final ConditionSnapshot snapshot) {
+        int notMetMask = 0;
+        if (!snapshot.isAssetsCopied()) {
+            notMetMask |= ConditionType.ASSETS.getMask();
         }
-        if (!pausedCondition) {
-            notSatisfiedConditions.add(ConditionType.PAUSED);
+        if (snapshot.isPaused()) {
+            notMetMask |= ConditionType.PAUSED.getMask();
         }
-        if (!enabledCondition) {
-            notSatisfiedConditions.add(ConditionType.ENABLED);
+        if (!snapshot.isExecutionEnabled()) {
+            notMetMask |= ConditionType.ENABLED.getMask();
         }
-        if (!wifiCondition) {
-            notSatisfiedConditions.add(ConditionType.WIFI);
+        if (!checkUnmeteredWifiCondition(snapshot)) {
+            notMetMask |= ConditionType.WIFI.getMask();
         }
-        if (!chargerCondition) {
-            MiscPref.setLastBatteryPlateauTime(0);
-            notSatisfiedConditions.add(ConditionType.CHARGER);
+        if (!BuildConfig.TEST_MODE && !checkChargerCondition(snapshot)) {
+            notMetMask |= ConditionType.CHARGER.getMask();
         }
-        if (!batteryCondition) {
-            notSatisfiedConditions.add(ConditionType.BATTERY);
+        if (!BuildConfig.TEST_MODE && !checkBatteryCondition(snapshot)) {
+            notMetMask |= ConditionType.BATTERY.getMask();
         }
-
-        Log.d("Checking > Conditions not met: " + notSatisfiedConditions);
-
-        return notSatisfiedConditions;
+        return notMetMask;
     }
 }
@@ -0,0 +1,430 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.utils.ApplicationData;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the checkpoints in memory and writes them to the database in a
+ * single transaction every {@link #FLUSH_INTERVAL}, instead of one
+ * transaction per checkpoint. The writes run on the
+ * {@link DatabaseExecutor} writer thread.
+ * <p>
+ * Each checkpoint is also appended to a journal file, without syncing it,
+ * so a killed process loses at most the checkpoint being written. The
+ * journal is replayed when the buffer is created and truncated after each
+ * flush; replaying checkpoints already stored is ignored by the database.
+ * <p>
+ * The buffer also keeps the sums of the last 24 hours in a
+ * {@link RollingWindow}, loaded from the database when it is created, so
+ * they are read without querying the database.
+ * <p>
+ * The journal and the window are loaded on the writer thread, so creating
+ * the buffer never blocks. Checkpoints added meanwhile are held until the
+ * load completes.
+ */
+public final class CheckpointBuffer {
+
+    /**
+     * Longest time a checkpoint stays in memory.
+     */
+    public static final long FLUSH_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Name of the journal file.
+     */
+    private static final String JOURNAL_NAME = "checkpoints.journal";
+
+    /**
+     * Separator of the journal fields.
+     */
+    private static final String SEPARATOR = ",";
+
+    /**
+     * Number of fields of a journal line.
+     */
+    private static final int JOURNAL_FIELDS = 5;
+
+    /**
+     * Number of fields of a journal line without the job, written before the
+     * checkpoints had a job. The job is the last field, so a line truncated
+     * just before it is still read.
+     */
+    private static final int JOURNAL_FIELDS_NO_JOB = 4;
+
+    /**
+     * Number of one minute slots of the 24 hour window.
+     */
+    private static final int WINDOW_SLOTS = (int) TimeUnit.DAYS.toMinutes(1);
+
+    /**
+     * This class' singleton instance.
+     */
+    private static CheckpointBuffer sInstance;
+
+    /**
+     * The journal file.
+     */
+    private final File mJournalFile;
+
+    /**
+     * The checkpoints not written to the database yet.
+     */
+    private final List<Checkpoint> mCheckpoints = new ArrayList<>();
+
+    /**
+     * The sums of the last 24 hours.
+     */
+    private final RollingWindow mWindow = new RollingWindow(WINDOW_SLOTS,
+            TimeUnit.MINUTES.toMillis(1));
+
+    /**
+     * The checkpoints added before the load completed.
+     */
+    private final List<Checkpoint> mPendingCheckpoints = new ArrayList<>();
+
+    /**
+     * The journal stream, null if the journal can't be written.
+     */
+    private OutputStream mJournal;
+
+    /**
+     * True once the journal and the window are loaded.
+     */
+    private boolean mLoaded;
+
+    /**
+     * Private constructor.
+     *
+     * @param journalFile the journal file.
+     */
+    private CheckpointBuffer(final File journalFile) {
+        mJournalFile = journalFile;
+        DatabaseExecutor.getInstance().write("load_checkpoints", new Callable<Void>() {
+            @Override
+            public Void call() {
+                load();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gets the singleton instance.
+     *
+     * @return the singleton instance of this class.
+     */
+    public static synchronized CheckpointBuffer getInstance() {
+        if (sInstance == null) {
+            sInstance = new CheckpointBuffer(new File(ApplicationData.getAppContext()
+                    .getFilesDir(), JOURNAL_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Adds a checkpoint, at the current time, flushing the buffer when the
+     * oldest checkpoint is older than {@link #FLUSH_INTERVAL}.
+     *
+     * @param worker         the worker id.
+     * @param jobId          the {@link JobLedger} job id or {@link JobLedger#NO_JOB}.
+     * @param checkpointTime the checkpoint time.
+     * @param cpuTime        the CPU time used by the worker during the checkpoint.
+     */
+    public synchronized void add(final int worker, final long jobId, final long checkpointTime,
+                                 final long cpuTime) {
+        final Checkpoint checkpoint = new Checkpoint(System.currentTimeMillis(), worker, jobId,
+                checkpointTime, cpuTime);
+        if (mLoaded) {
+            add(checkpoint);
+        } else {
+            mPendingCheckpoints.add(checkpoint);
+        }
+    }
+
+    /**
+     * Adds a checkpoint once the buffer is loaded. Must be called holding
+     * the buffer lock.
+     *
+     * @param checkpoint the checkpoint.
+     */
+    private void add(final Checkpoint checkpoint) {
+        mCheckpoints.add(checkpoint);
+        mWindow.add(checkpoint.mTime, checkpoint.mCheckpointTime, checkpoint.mCpuTime);
+        writeJournal(checkpoint);
+        if (checkpoint.mTime - mCheckpoints.get(0).mTime >= FLUSH_INTERVAL) {
+            flush();
+        }
+    }
+
+    /**
+     * Loads the checkpoints left in the journal, stores them and loads the
+     * window from the database, then adds the checkpoints held meanwhile.
+     * Runs on the writer thread, before any flush.
+     */
+    private void load() {
+        final List<Checkpoint> recovered = readJournal();
+        synchronized (this) {
+            mCheckpoints.addAll(recovered);
+            openJournal(true);
+        }
+        writeCheckpoints();
+        JobCheckpointsContract.loadWindow(mWindow, System.currentTimeMillis());
+        synchronized (this) {
+            // Checkpoints that failed to flush are not in the database yet.
+            for (Checkpoint checkpoint : mCheckpoints) {
+                mWindow.add(checkpoint.mTime, checkpoint.mCheckpointTime, checkpoint.mCpuTime);
+            }
+            mLoaded = true;
+            for (Checkpoint checkpoint : mPendingCheckpoints) {
+                add(checkpoint);
+            }
+            mPendingCheckpoints.clear();
+        }
+    }
+
+    /**
+     * Queues the write of the buffered checkpoints to the database, in one
+     * transaction on the {@link DatabaseExecutor} writer thread.
+     *
+     * @return the result of the write.
+     */
+    public Future<Void> flush() {
+        return DatabaseExecutor.getInstance().write("flush_checkpoints", new Callable<Void>() {
+            @Override
+            public Void call() {
+                writeCheckpoints();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Writes the buffered checkpoints to the database. The buffer is not
+     * locked during the transaction, so checkpoints can be added meanwhile.
+     */
+    private void writeCheckpoints() {
+        final List<Checkpoint> checkpoints;
+        synchronized (this) {
+            if (mCheckpoints.isEmpty()) {
+                return;
+            }
+            checkpoints = new ArrayList<>(mCheckpoints);
+        }
+        final SQLiteDatabase db = JobDBHelper.getInstance().getDatabase();
+        db.beginTransaction();
+        try {
+            for (Checkpoint checkpoint : checkpoints) {
+                JobCheckpointsContract.addCheckpoint(checkpoint.mTime, checkpoint.mWorker,
+                        checkpoint.mJobId, checkpoint.mCheckpointTime, checkpoint.mCpuTime);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            // Kept in memory and in the journal for the next flush.
+            Log.e("Checkpoint flush failed: " + e.getMessage());
+            return;
+        } finally {
+            db.endTransaction();
+        }
+        Log.d("Flushed " + checkpoints.size() + " checkpoints");
+        synchronized (this) {
+            // Flushes run one at a time and checkpoints are only appended,
+            // so the written checkpoints are the first ones.
+            mCheckpoints.subList(0, checkpoints.size()).clear();
+            openJournal(false);
+            for (Checkpoint checkpoint : mCheckpoints) {
+                writeJournal(checkpoint);
+            }
+        }
+    }
+
+    /**
+     * Adds a checkpoint stored without the buffer, such as an imported one,
+     * to the sums of the last 24 hours. Until the buffer is loaded it is
+     * ignored, the load reads it from the database.
+     *
+     * @param time           time of the checkpoint, in UTC epoch ms.
+     * @param checkpointTime the checkpoint time.
+     * @param cpuTime        the CPU time used during the checkpoint.
+     */
+    synchronized void addStored(final long time, final long checkpointTime,
+                                final long cpuTime) {
+        if (mLoaded) {
+            mWindow.add(time, checkpointTime, cpuTime);
+        }
+    }
+
+    /**
+     * Returns the sum of the checkpoint times of the last 24 hours.
+     *
+     * @return the checkpoint time.
+     */
+    public long get24HourTime() {
+        return mWindow.getTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the sum of the CPU times of the last 24 hours.
+     *
+     * @return the CPU time.
+     */
+    public long get24HourCpuTime() {
+        return mWindow.getCpuTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Reads the checkpoints left in the journal by a previous process. A
+     * line truncated by a kill is skipped.
+     *
+     * @return the checkpoints.
+     */
+    private List<Checkpoint> readJournal() {
+        final List<Checkpoint> checkpoints = new ArrayList<>();
+        if (!mJournalFile.exists()) {
+            return checkpoints;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(mJournalFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(SEPARATOR);
+                if (fields.length != JOURNAL_FIELDS && fields.length != JOURNAL_FIELDS_NO_JOB) {
+                    continue;
+                }
+                try {
+                    checkpoints.add(new Checkpoint(Long.parseLong(fields[0]),
+                            Integer.parseInt(fields[1]), fields.length == JOURNAL_FIELDS
+                            ? Long.parseLong(fields[4]) : JobLedger.NO_JOB,
+                            Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                } catch (final NumberFormatException e) {
+                    Log.e("Skipping journal line: " + line);
+                }
+            }
+            Log.d("Recovered " + checkpoints.size() + " checkpoints");
+        } catch (final IOException e) {
+            Log.e("Can't read the checkpoint journal: " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(e.getMessage());
+                }
+            }
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Opens the journal.
+     *
+     * @param append false to truncate the journal.
+     */
+    private void openJournal(final boolean append) {
+        closeJournal();
+        try {
+            mJournal = new FileOutputStream(mJournalFile, append);
+        } catch (final IOException e) {
+            Log.e("Can't open the checkpoint journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the journal.
+     */
+    private void closeJournal() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (final IOException e) {
+                Log.e(e.getMessage());
+            }
+            mJournal = null;
+        }
+    }
+
+    /**
+     * Appends a checkpoint to the journal, in a single write.
+     *
+     * @param checkpoint the checkpoint.
+     */
+    private void writeJournal(final Checkpoint checkpoint) {
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            mJournal.write(String.format(Locale.US, "%d,%d,%d,%d,%d%n", checkpoint.mTime,
+                    checkpoint.mWorker, checkpoint.mCheckpointTime, checkpoint.mCpuTime,
+                    checkpoint.mJobId).getBytes("UTF-8"));
+        } catch (final IOException e) {
+            Log.e("Can't write the checkpoint journal: " + e.getMessage());
+            closeJournal();
+        }
+    }
+
+    /**
+     * A checkpoint of a worker.
+     */
+    private static final class Checkpoint {
+        /**
+         * Time of the checkpoint, in UTC epoch ms.
+         */
+        private final long mTime;
+        /**
+         * The worker id.
+         */
+        private final int mWorker;
+        /**
+         * The job id.
+         */
+        private final long mJobId;
+        /**
+         * The checkpoint time.
+         */
+        private final long mCheckpointTime;
+        /**
+         * The CPU time used during the checkpoint.
+         */
+        private final long mCpuTime;
+
+        /**
+         * The class constructor.
+         *
+         * @param time           time of the checkpoint, in UTC epoch ms.
+         * @param worker         the worker id.
+         * @param jobId          the job id.
+         * @param checkpointTime the checkpoint time.
+         * @param cpuTime        the CPU time used during the checkpoint.
+         */
+        Checkpoint(final long time, final int worker, final long jobId,
+                   final long checkpointTime, final long cpuTime) {
+            mTime = time;
+            mWorker = worker;
+            mJobId = jobId;
+            mCheckpointTime = checkpointTime;
+            mCpuTime = cpuTime;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.database;
+
+import android.content.res.Resources;
+
+import com.sonymobile.androidapp.gridcomputing.R;
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tiered retention of the checkpoint history. The checkpoints of each
+ * minute are kept for the raw retention and the hourly rollups for the
+ * hourly retention; the daily, weekly, monthly and yearly rollups are kept
+ * forever, so the database stops growing once the tiers are full.
+ * <p>
+ * The compaction deletes in chunks of {@link #CHUNK_SIZE} rows, each in its
+ * own short transaction queued on the {@link DatabaseExecutor} writer, so
+ * the checkpoint flushes run between chunks and it can stop after any chunk.
+ */
+public final class CheckpointRetention {
+
+    /**
+     * Number of rows deleted per transaction.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Time the checkpoints are kept, in ms.
+     */
+    private final long mRawRetention;
+
+    /**
+     * Time the hourly rollups are kept, in ms.
+     */
+    private final long mHourlyRetention;
+
+    /**
+     * The class constructor.
+     *
+     * @param rawRetention    time the checkpoints are kept, in ms. At least a
+     *                        day, for the 24 hour sums.
+     * @param hourlyRetention time the hourly rollups are kept, in ms.
+     */
+    public CheckpointRetention(final long rawRetention, final long hourlyRetention) {
+        if (rawRetention < TimeUnit.DAYS.toMillis(1) || hourlyRetention < rawRetention) {
+            throw new IllegalArgumentException("Invalid retention: " + rawRetention + " "
+                    + hourlyRetention);
+        }
+        mRawRetention = rawRetention;
+        mHourlyRetention = hourlyRetention;
+    }
+
+    /**
+     * Reads the policy from the {@code checkpoint_raw_retention_days} and
+     * {@code checkpoint_hourly_retention_days} integer resources.
+     *
+     * @param resources the resources.
+     * @return the policy.
+     */
+    public static CheckpointRetention fromResources(final Resources resources) {
+        final int rawDays = resources.getInteger(R.integer.checkpoint_raw_retention_days);
+        final int hourlyDays = resources.getInteger(R.integer.checkpoint_hourly_retention_days);
+        return new CheckpointRetention(TimeUnit.DAYS.toMillis(rawDays),
+                TimeUnit.DAYS.toMillis(hourlyDays));
+    }
+
+    /**
+     * Deletes the history older than the policy.
+     *
+     * @param cancelled set to stop the compaction after the current chunk.
+     * @return true if the compaction finished, false if it was cancelled.
+     */
+    public boolean compact(final AtomicBoolean cancelled) {
+        final long now = System.currentTimeMillis();
+        int checkpoints = 0;
+        int rollups = 0;
+        int deleted;
+        final DatabaseExecutor executor = DatabaseExecutor.getInstance();
+        final Callable<Integer> deleteCheckpoints = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return JobCheckpointsContract.deleteOlderThan(now - mRawRetention, CHUNK_SIZE);
+            }
+        };
+        final Callable<Integer> deleteRollups = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return JobRollupContract.deleteOlderThan(JobRollupContract.PERIOD_HOUR,
+                        now - mHourlyRetention, CHUNK_SIZE);
+            }
+        };
+        do {
+            if (cancelled.get()) {
+                return false;
+            }
+            deleted = DatabaseExecutor.await(executor.write("compact_checkpoints",
+                    deleteCheckpoints));
+            checkpoints += deleted;
+        } while (deleted == CHUNK_SIZE);
+        do {
+            if (cancelled.get()) {
+                return false;
+            }
+            deleted = DatabaseExecutor.await(executor.write("compact_rollups", deleteRollups));
+            rollups += deleted;
+        } while (deleted == CHUNK_SIZE);
+        Log.d("Compaction > deleted " + checkpoints + " checkpoints and " + rollups
+                + " hourly rollups");
+        return true;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.database;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the database accesses. All writes run in order on a single writer
+ * thread, so they never wait for each other's locks, and the reads run on a
+ * small pool of threads that use the write-ahead log readers concurrently
+ * with the writer.
+ * <p>
+ * Every task has a name, used to keep how long the tasks of that name
+ * waited in the queue and how long they ran, to measure contention.
+ */
+public final class DatabaseExecutor {
+
+    /**
+     * Number of reader threads.
+     */
+    private static final int READER_THREADS = 2;
+
+    /**
+     * This class' singleton instance.
+     */
+    private static DatabaseExecutor sInstance;
+
+    /**
+     * The writer thread executor.
+     */
+    private final ThreadPoolExecutor mWriter;
+
+    /**
+     * The reader threads executor.
+     */
+    private final ThreadPoolExecutor mReaders;
+
+    /**
+     * Handler used to deliver the callbacks on the main thread.
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Timing of the tasks, by name.
+     */
+    private final Map<String, QueryStats> mStats = new HashMap<>();
+
+    /**
+     * The writer thread.
+     */
+    private volatile Thread mWriterThread;
+
+    /**
+     * Private constructor.
+     */
+    private DatabaseExecutor() {
+        mWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "db-writer");
+                        mWriterThread = thread;
+                        return thread;
+                    }
+                });
+        mReaders = new ThreadPoolExecutor(READER_THREADS, READER_THREADS, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int mCount;
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(runnable, "db-reader-" + mCount++);
+                    }
+                });
+    }
+
+    /**
+     * Gets the singleton instance.
+     *
+     * @return the singleton instance of this class.
+     */
+    public static synchronized DatabaseExecutor getInstance() {
+        if (sInstance == null) {
+            sInstance = new DatabaseExecutor();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues a write. A write queued from the writer thread runs at once.
+     *
+     * @param name the task name.
+     * @param task the task.
+     * @param <T>  the result type.
+     * @return the task result.
+     */
+    public <T> Future<T> write(final String name, final Callable<T> task) {
+        final FutureTask<T> future = new FutureTask<>(timed(name, task));
+        if (Thread.currentThread() == mWriterThread) {
+            future.run();
+        } else {
+            mWriter.execute(future);
+        }
+        return future;
+    }
+
+    /**
+     * Queues a read.
+     *
+     * @param name the task name.
+     * @param task the task.
+     * @param <T>  the result type.
+     * @return the task result.
+     */
+    public <T> Future<T> read(final String name, final Callable<T> task) {
+        return mReaders.submit(timed(name, task));
+    }
+
+    /**
+     * Queues a read and delivers its result on the main thread.
+     *
+     * @param name     the task name.
+     * @param task     the task.
+     * @param callback receives the result.
+     * @param <T>      the result type.
+     */
+    public <T> void read(final String name, final Callable<T> task,
+                         final Callback<T> callback) {
+        final Callable<T> timedTask = timed(name, task);
+        mReaders.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final T result = timedTask.call();
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onResult(result);
+                        }
+                    });
+                } catch (final Exception e) {
+                    Log.e("Database read " + name + " failed: " + e.getMessage());
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onError(e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for a task result.
+     *
+     * @param future the task result.
+     * @param <T>    the result type.
+     * @return the result.
+     * @throws IllegalStateException if the task failed or the wait was interrupted.
+     */
+    public static <T> T await(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of writes waiting for the writer thread.
+     *
+     * @return the write queue depth.
+     */
+    public int getWriteQueueDepth() {
+        return mWriter.getQueue().size();
+    }
+
+    /**
+     * Returns the number of reads waiting for a reader thread.
+     *
+     * @return the read queue depth.
+     */
+    public int getReadQueueDepth() {
+        return mReaders.getQueue().size();
+    }
+
+    /**
+     * Returns the timing of the tasks run so far.
+     *
+     * @return a copy of the timing of the tasks, by name.
+     */
+    public Map<String, QueryStats> getStats() {
+        final Map<String, QueryStats> stats = new HashMap<>();
+        synchronized (mStats) {
+            for (Map.Entry<String, QueryStats> entry : mStats.entrySet()) {
+                stats.put(entry.getKey(), new QueryStats(entry.getValue()));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Logs the queue depths and the timing of the tasks.
+     */
+    public void logStats() {
+        Log.d("Database > write queue: " + getWriteQueueDepth() + " read queue: "
+                + getReadQueueDepth());
+        for (Map.Entry<String, QueryStats> entry : getStats().entrySet()) {
+            Log.d("Database > " + entry.getKey() + " " + entry.getValue());
+        }
+    }
+
+    /**
+     * Wraps a task to record its timing.
+     *
+     * @param name the task name.
+     * @param task the task.
+     * @param <T>  the result type.
+     * @return the wrapped task.
+     */
+    private <T> Callable<T> timed(final String name, final Callable<T> task) {
+        final long queued = System.nanoTime();
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final long start = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    final long end = System.nanoTime();
+                    synchronized (mStats) {
+                        QueryStats stats = mStats.get(name);
+                        if (stats == null) {
+                            stats = new QueryStats();
+                            mStats.put(name, stats);
+                        }
+                        stats.record(start - queued, end - start);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Receives the result of a read on the main thread.
+     *
+     * @param <T> the result type.
+     */
+    public interface Callback<T> {
+        /**
+         * Called with the result of the read.
+         *
+         * @param result the result.
+         */
+        void onResult(T result);
+
+        /**
+         * Called when the read failed.
+         *
+         * @param e the error.
+         */
+        void onError(Exception e);
+    }
+
+    /**
+     * Timing of the tasks of a name.
+     */
+    public static final class QueryStats {
+        /**
+         * Number of tasks run.
+         */
+        private int mCount;
+        /**
+         * Total time in the queue, in ns.
+         */
+        private long mWaitTime;
+        /**
+         * Total run time, in ns.
+         */
+        private long mRunTime;
+        /**
+         * Longest run time, in ns.
+         */
+        private long mMaxRunTime;
+
+        /**
+         * Creates empty stats.
+         */
+        QueryStats() {
+        }
+
+        /**
+         * Copies stats.
+         *
+         * @param stats the stats to copy.
+         */
+        QueryStats(final QueryStats stats) {
+            mCount = stats.mCount;
+            mWaitTime = stats.mWaitTime;
+            mRunTime = stats.mRunTime;
+            mMaxRunTime = stats.mMaxRunTime;
+        }
+
+        /**
+         * Records a task.
+         *
+         * @param waitTime the time in the queue, in ns.
+         * @param runTime  the run time, in ns.
+         */
+        void record(final long waitTime, final long runTime) {
+            mCount++;
+            mWaitTime += waitTime;
+            mRunTime += runTime;
+            mMaxRunTime = Math.max(mMaxRunTime, runTime);
+        }
+
+        /**
+         * Returns the number of tasks run.
+         *
+         * @return the task count.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns the mean time the tasks waited in the queue.
+         *
+         * @return the mean wait time, in ns.
+         */
+        public long getMeanWaitTime() {
+            return mCount == 0 ? 0L : mWaitTime / mCount;
+        }
+
+        /**
+         * Returns the mean run time of the tasks.
+         *
+         * @return the mean run time, in ns.
+         */
+        public long getMeanRunTime() {
+            return mCount == 0 ? 0L : mRunTime / mCount;
+        }
+
+        /**
+         * Returns the longest run time of the tasks.
+         *
+         * @return the longest run time, in ns.
+         */
+        public long getMaxRunTime() {
+            return mMaxRunTime;
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + mCount + " wait: " + getMeanWaitTime() / 1000 + " us run: "
+                    + getMeanRunTime() / 1000 + " us max: " + mMaxRunTime / 1000 + " us";
+        }
+    }
+}
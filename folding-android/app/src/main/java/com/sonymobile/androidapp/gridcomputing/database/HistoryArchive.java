@@ -0,0 +1,695 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.preferences.MiscPref;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the contribution history to a stream and merges an exported
+ * history into the database, so it can be moved to another device.
+ * <p>
+ * An archive starts with {@link #MAGIC}, {@link #VERSION} and the UUID of
+ * the installation that exported it, followed by two sections, each ended
+ * by a zero:
+ * <ul>
+ * <li>the checkpoints, oldest first: the time since the previous
+ * checkpoint plus one, the worker, the duration, the CPU time and the
+ * change of the local time offset;</li>
+ * <li>the part of the rollups not covered by the exported checkpoints,
+ * which is the history the retention compacted: the period plus one, the
+ * change of the bucket start in local epoch hours, the duration and the
+ * CPU time.</li>
+ * </ul>
+ * Numbers are varints like in the control protocol, the changes zigzag
+ * encoded, so a checkpoint a minute after the previous one takes about 10
+ * bytes.
+ * <p>
+ * The import merges the checkpoints in chunks of {@link #CHUNK_SIZE}, each
+ * in its own transaction on the {@link DatabaseExecutor} writer, so it
+ * holds a chunk in memory at most. Checkpoints already stored are ignored
+ * and the others update the rollups through the trigger. The compacted
+ * rollups are added in chunks too, once per installation, since adding them
+ * twice would count them twice: the number of rollups stored is recorded
+ * after each chunk, so an interrupted import resumes after them.
+ */
+public final class HistoryArchive {
+
+    /**
+     * Archive format version.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Bytes starting an archive.
+     */
+    private static final byte[] MAGIC = {'G', 'C', 'H', 'A'};
+
+    /**
+     * Number of checkpoints imported per transaction.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Longest UUID accepted, in bytes.
+     */
+    private static final int MAX_UUID_LENGTH = 64;
+
+    /**
+     * One hour in ms.
+     */
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * One day in ms.
+     */
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Encoding of the UUID.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Private constructor.
+     */
+    private HistoryArchive() {
+    }
+
+    /**
+     * Exports the history. The export runs on the {@link DatabaseExecutor}
+     * writer, after the buffered checkpoints are flushed, so no write
+     * changes the history while it is read. The stream is not closed.
+     *
+     * @param output the stream to write the archive to.
+     * @return the number of checkpoints and rollups exported.
+     * @throws IOException if the archive can't be written.
+     */
+    public static Counts exportTo(final OutputStream output) throws IOException {
+        CheckpointBuffer.getInstance().flush();
+        final String uuid = MiscPref.getUUID();
+        return await(DatabaseExecutor.getInstance().write("export_history",
+                new Callable<Counts>() {
+                    @Override
+                    public Counts call() throws IOException {
+                        return export(new Encoder(output), uuid);
+                    }
+                }));
+    }
+
+    /**
+     * Merges an archive into the history. The stream is read on the calling
+     * thread, which must not be the main thread, and is not closed.
+     *
+     * @param input the stream to read the archive from.
+     * @return the number of checkpoints and rollups imported.
+     * @throws IOException if the archive can't be read or is not valid.
+     */
+    public static Counts importFrom(final InputStream input) throws IOException {
+        final Decoder decoder = new Decoder(input);
+        for (byte b : MAGIC) {
+            if (decoder.readByte() != b) {
+                throw new IOException("Not a history archive");
+            }
+        }
+        final int version = decoder.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported history archive version: " + version);
+        }
+        final String uuid = decoder.readString();
+        final Counts counts = new Counts();
+        counts.mCheckpoints = importCheckpoints(decoder);
+
+        if (uuid.equals(MiscPref.getUUID()) || MiscPref.isHistoryImported(uuid)) {
+            Log.d("History > rollups of " + uuid + " already imported");
+            importRollups(decoder, uuid, Integer.MAX_VALUE);
+        } else {
+            counts.mRollups = importRollups(decoder, uuid, MiscPref.getImportedRollups(uuid));
+            MiscPref.setHistoryImported(uuid);
+        }
+        Log.d("History > imported " + counts);
+        return counts;
+    }
+
+    /**
+     * Writes an archive. Runs on the {@link DatabaseExecutor} writer.
+     *
+     * @param encoder the archive encoder.
+     * @param uuid    the UUID of this installation.
+     * @return the number of checkpoints and rollups exported.
+     * @throws IOException if the archive can't be written.
+     */
+    private static Counts export(final Encoder encoder, final String uuid) throws IOException {
+        final long start = System.nanoTime();
+        final Counts counts = new Counts();
+        for (byte b : MAGIC) {
+            encoder.writeByte(b);
+        }
+        encoder.writeByte(VERSION);
+        encoder.writeString(uuid);
+
+        // The checkpoint sums by local hour, subtracted from the rollups.
+        final Map<Long, long[]> hours = new HashMap<>();
+        Cursor cursor = JobCheckpointsContract.queryHistory();
+        try {
+            long time = 0;
+            long tzOffset = 0;
+            while (cursor.moveToNext()) {
+                final long checkpointTime = cursor.getLong(0);
+                final long duration = cursor.getLong(2);
+                final long cpuTime = cursor.getLong(3);
+                final long checkpointTzOffset = cursor.getLong(4);
+                encoder.writeVarint(checkpointTime - time + 1);
+                encoder.writeVarint(cursor.getLong(1));
+                encoder.writeVarint(duration);
+                encoder.writeVarint(cpuTime);
+                encoder.writeZigzag(checkpointTzOffset - tzOffset);
+                time = checkpointTime;
+                tzOffset = checkpointTzOffset;
+                add(hours, floorDiv(checkpointTime + checkpointTzOffset, HOUR_MILLIS),
+                        duration, cpuTime);
+                counts.mCheckpoints++;
+            }
+        } finally {
+            cursor.close();
+        }
+        encoder.writeVarint(0);
+
+        final Map<Long, long[]> covered = new HashMap<>();
+        final Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        for (Map.Entry<Long, long[]> entry : hours.entrySet()) {
+            for (int period = 0; period < JobRollupContract.PERIOD_COUNT; period++) {
+                final long bucket = JobRollupContract.getBucketHour(period, entry.getKey(),
+                        calendar);
+                add(covered, bucket * JobRollupContract.PERIOD_COUNT + period,
+                        entry.getValue()[0], entry.getValue()[1]);
+            }
+        }
+        cursor = JobRollupContract.queryHistory();
+        try {
+            long hour = 0;
+            while (cursor.moveToNext()) {
+                final int period = cursor.getInt(0);
+                final long bucket = cursor.getLong(1);
+                long duration = cursor.getLong(2);
+                long cpuTime = cursor.getLong(3);
+                final long[] sums = covered.get(bucket * JobRollupContract.PERIOD_COUNT + period);
+                if (sums != null) {
+                    duration = Math.max(duration - sums[0], 0L);
+                    cpuTime = Math.max(cpuTime - sums[1], 0L);
+                }
+                if (duration == 0 && cpuTime == 0) {
+                    continue;
+                }
+                encoder.writeVarint(period + 1);
+                encoder.writeZigzag(bucket - hour);
+                encoder.writeVarint(duration);
+                encoder.writeVarint(cpuTime);
+                hour = bucket;
+                counts.mRollups++;
+            }
+        } finally {
+            cursor.close();
+        }
+        encoder.writeVarint(0);
+        encoder.flush();
+        Log.d("History > exported " + counts + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return counts;
+    }
+
+    /**
+     * Reads the checkpoints of an archive and stores them in chunks.
+     *
+     * @param decoder the archive decoder.
+     * @return the number of checkpoints added.
+     * @throws IOException if the archive can't be read.
+     */
+    private static int importCheckpoints(final Decoder decoder) throws IOException {
+        final CheckpointBuffer buffer = CheckpointBuffer.getInstance();
+        final long[] times = new long[CHUNK_SIZE];
+        final int[] workers = new int[CHUNK_SIZE];
+        final long[] durations = new long[CHUNK_SIZE];
+        final long[] cpuTimes = new long[CHUNK_SIZE];
+        final long[] tzOffsets = new long[CHUNK_SIZE];
+        int added = 0;
+        int size = 0;
+        long time = 0;
+        long tzOffset = 0;
+        long delta;
+        do {
+            delta = decoder.readVarint();
+            if (delta != 0) {
+                time += delta - 1;
+                times[size] = time;
+                workers[size] = (int) decoder.readVarint();
+                durations[size] = decoder.readVarint();
+                cpuTimes[size] = decoder.readVarint();
+                tzOffset += decoder.readZigzag();
+                tzOffsets[size] = tzOffset;
+                size++;
+            }
+            if (size == CHUNK_SIZE || (delta == 0 && size > 0)) {
+                // The arrays are refilled once the chunk is stored.
+                final int count = size;
+                added += await(DatabaseExecutor.getInstance().write("import_checkpoints",
+                        new Callable<Integer>() {
+                            @Override
+                            public Integer call() {
+                                return addCheckpoints(buffer, count, times, workers,
+                                        durations, cpuTimes, tzOffsets);
+                            }
+                        }));
+                size = 0;
+            }
+        } while (delta != 0);
+        return added;
+    }
+
+    /**
+     * Reads the rollups of an archive and stores them in chunks, recording
+     * how many were stored after each chunk.
+     *
+     * @param decoder the archive decoder.
+     * @param uuid    the UUID of the archived installation.
+     * @param skip    the number of rollups already stored.
+     * @return the number of rollups added.
+     * @throws IOException if the archive can't be read.
+     */
+    private static int importRollups(final Decoder decoder, final String uuid, final int skip)
+            throws IOException {
+        final int[] periods = new int[CHUNK_SIZE];
+        final long[] hours = new long[CHUNK_SIZE];
+        final long[] durations = new long[CHUNK_SIZE];
+        final long[] cpuTimes = new long[CHUNK_SIZE];
+        int read = 0;
+        int added = 0;
+        int size = 0;
+        long hour = 0;
+        long period;
+        do {
+            period = decoder.readVarint();
+            if (period != 0) {
+                hour += decoder.readZigzag();
+                final long duration = decoder.readVarint();
+                final long cpuTime = decoder.readVarint();
+                if (read++ >= skip) {
+                    periods[size] = (int) period - 1;
+                    hours[size] = hour;
+                    durations[size] = duration;
+                    cpuTimes[size] = cpuTime;
+                    size++;
+                }
+            }
+            if (size == CHUNK_SIZE || (period == 0 && size > 0)) {
+                // The arrays are refilled once the chunk is stored.
+                final int count = size;
+                final int stored = read;
+                await(DatabaseExecutor.getInstance().write("import_rollups",
+                        new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                addRollups(count, periods, hours, durations, cpuTimes);
+                                MiscPref.setImportedRollups(uuid, stored);
+                                return null;
+                            }
+                        }));
+                added += count;
+                size = 0;
+            }
+        } while (period != 0);
+        return added;
+    }
+
+    /**
+     * Stores imported checkpoints in one transaction. Runs on the
+     * {@link DatabaseExecutor} writer.
+     *
+     * @param buffer    the checkpoint buffer, to count the recent checkpoints.
+     * @param count     the number of checkpoints.
+     * @param times     the times of the checkpoints.
+     * @param workers   the workers of the checkpoints.
+     * @param durations the durations of the checkpoints.
+     * @param cpuTimes  the CPU times of the checkpoints.
+     * @param tzOffsets the local time offsets of the checkpoints.
+     * @return the number of checkpoints added.
+     */
+    private static int addCheckpoints(final CheckpointBuffer buffer, final int count,
+                                      final long[] times, final int[] workers,
+                                      final long[] durations, final long[] cpuTimes,
+                                      final long[] tzOffsets) {
+        final long now = System.currentTimeMillis();
+        final SQLiteDatabase db = JobDBHelper.getInstance().getDatabase();
+        int added = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                if (JobCheckpointsContract.importCheckpoint(times[i], workers[i], durations[i],
+                        cpuTimes[i], tzOffsets[i])) {
+                    added++;
+                    if (times[i] > now - DAY_MILLIS && times[i] <= now) {
+                        buffer.addStored(times[i], durations[i], cpuTimes[i]);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return added;
+    }
+
+    /**
+     * Adds imported rollups in one transaction. Runs on the
+     * {@link DatabaseExecutor} writer.
+     *
+     * @param count     the number of rollups.
+     * @param periods   the periods of the rollups.
+     * @param hours     the bucket starts of the rollups, in local epoch hours.
+     * @param durations the durations of the rollups.
+     * @param cpuTimes  the CPU times of the rollups.
+     */
+    private static void addRollups(final int count, final int[] periods, final long[] hours,
+                                   final long[] durations, final long[] cpuTimes) {
+        final SQLiteDatabase db = JobDBHelper.getInstance().getDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                JobRollupContract.addRollup(periods[i], hours[i], durations[i], cpuTimes[i]);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Adds sums to an entry of a map.
+     *
+     * @param sums     the map.
+     * @param key      the key.
+     * @param duration the duration to add.
+     * @param cpuTime  the CPU time to add.
+     */
+    private static void add(final Map<Long, long[]> sums, final long key, final long duration,
+                            final long cpuTime) {
+        long[] sum = sums.get(key);
+        if (sum == null) {
+            sum = new long[2];
+            sums.put(key, sum);
+        }
+        sum[0] += duration;
+        sum[1] += cpuTime;
+    }
+
+    /**
+     * Divides rounding towards negative infinity.
+     *
+     * @param value   the dividend.
+     * @param divisor the divisor, positive.
+     * @return the quotient.
+     */
+    private static long floorDiv(final long value, final long divisor) {
+        return value >= 0 ? value / divisor : (value - divisor + 1) / divisor;
+    }
+
+    /**
+     * Waits for an archive task, unwrapping its I/O errors.
+     *
+     * @param future the task result.
+     * @param <T>    the result type.
+     * @return the result.
+     * @throws IOException if the task failed to read or write.
+     */
+    private static <T> T await(final Future<T> future) throws IOException {
+        try {
+            return DatabaseExecutor.await(future);
+        } catch (final IllegalStateException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Number of checkpoints and rollups exported or imported.
+     */
+    public static final class Counts {
+        /**
+         * Number of checkpoints.
+         */
+        private int mCheckpoints;
+        /**
+         * Number of rollups.
+         */
+        private int mRollups;
+
+        /**
+         * Returns the number of checkpoints.
+         *
+         * @return the checkpoint count.
+         */
+        public int getCheckpoints() {
+            return mCheckpoints;
+        }
+
+        /**
+         * Returns the number of rollups.
+         *
+         * @return the rollup count.
+         */
+        public int getRollups() {
+            return mRollups;
+        }
+
+        @Override
+        public String toString() {
+            return mCheckpoints + " checkpoints and " + mRollups + " rollups";
+        }
+    }
+
+    /**
+     * Writes the archive numbers to a stream through a buffer.
+     */
+    private static final class Encoder {
+        /**
+         * Size of the buffer.
+         */
+        private static final int BUFFER_SIZE = 8192;
+        /**
+         * Longest varint, in bytes.
+         */
+        private static final int MAX_VARINT_LENGTH = 10;
+        /**
+         * The stream.
+         */
+        private final OutputStream mOutput;
+        /**
+         * The buffer.
+         */
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        /**
+         * Number of bytes in the buffer.
+         */
+        private int mSize;
+
+        /**
+         * The class constructor.
+         *
+         * @param output the stream.
+         */
+        Encoder(final OutputStream output) {
+            mOutput = output;
+        }
+
+        /**
+         * Writes a byte.
+         *
+         * @param value the byte.
+         * @throws IOException if the stream can't be written.
+         */
+        void writeByte(final int value) throws IOException {
+            if (mSize == mBuffer.length) {
+                flush();
+            }
+            mBuffer[mSize++] = (byte) value;
+        }
+
+        /**
+         * Writes an unsigned varint.
+         *
+         * @param value the value.
+         * @throws IOException if the stream can't be written.
+         */
+        void writeVarint(final long value) throws IOException {
+            if (mSize > mBuffer.length - MAX_VARINT_LENGTH) {
+                flush();
+            }
+            long v = value;
+            while ((v & ~0x7FL) != 0) {
+                mBuffer[mSize++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            mBuffer[mSize++] = (byte) v;
+        }
+
+        /**
+         * Writes a zigzag encoded signed varint.
+         *
+         * @param value the value.
+         * @throws IOException if the stream can't be written.
+         */
+        void writeZigzag(final long value) throws IOException {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Writes a string as its varint byte length and UTF-8 bytes.
+         *
+         * @param value the string.
+         * @throws IOException if the stream can't be written.
+         */
+        void writeString(final String value) throws IOException {
+            final byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(bytes.length);
+            for (byte b : bytes) {
+                writeByte(b);
+            }
+        }
+
+        /**
+         * Writes the buffer to the stream and flushes it.
+         *
+         * @throws IOException if the stream can't be written.
+         */
+        void flush() throws IOException {
+            mOutput.write(mBuffer, 0, mSize);
+            mSize = 0;
+            mOutput.flush();
+        }
+    }
+
+    /**
+     * Reads the archive numbers from a stream through a buffer.
+     */
+    private static final class Decoder {
+        /**
+         * Size of the buffer.
+         */
+        private static final int BUFFER_SIZE = 8192;
+        /**
+         * The stream.
+         */
+        private final InputStream mInput;
+        /**
+         * The buffer.
+         */
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        /**
+         * Read position in the buffer.
+         */
+        private int mPosition;
+        /**
+         * Number of bytes in the buffer.
+         */
+        private int mSize;
+
+        /**
+         * The class constructor.
+         *
+         * @param input the stream.
+         */
+        Decoder(final InputStream input) {
+            mInput = input;
+        }
+
+        /**
+         * Reads a byte.
+         *
+         * @return the byte, from 0 to 255.
+         * @throws IOException if the stream ended or can't be read.
+         */
+        int readByte() throws IOException {
+            if (mPosition == mSize) {
+                mSize = mInput.read(mBuffer);
+                mPosition = 0;
+                if (mSize <= 0) {
+                    mSize = 0;
+                    throw new EOFException("Truncated history archive");
+                }
+            }
+            return mBuffer[mPosition++] & 0xFF;
+        }
+
+        /**
+         * Reads an unsigned varint.
+         *
+         * @return the value.
+         * @throws IOException if the stream ended or the varint is malformed.
+         */
+        long readVarint() throws IOException {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (shift > 63) {
+                    throw new IOException("Malformed varint");
+                }
+                b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        /**
+         * Reads a zigzag encoded signed varint.
+         *
+         * @return the value.
+         * @throws IOException if the stream ended or the varint is malformed.
+         */
+        long readZigzag() throws IOException {
+            final long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads a string written by {@link Encoder#writeString(String)}.
+         *
+         * @return the string.
+         * @throws IOException if the stream ended or the string is too long.
+         */
+        String readString() throws IOException {
+            final long length = readVarint();
+            if (length > MAX_UUID_LENGTH) {
+                throw new IOException("Invalid history archive UUID");
+            }
+            final byte[] bytes = new byte[(int) length];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) readByte();
+            }
+            return new String(bytes, UTF_8);
+        }
+    }
+}
@@ -7,17 +7,15 @@ package com.sonymobile.androidapp.gridcomputing.database;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
-import android.text.TextUtils;
-import android.util.Pair;
-import android.util.SparseArray;
 
-import com.sonymobile.androidapp.gridcomputing.fragments.ReportChartFragment;
 import com.sonymobile.androidapp.gridcomputing.log.Log;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Contract class that defines the job checkpoints table.
@@ -46,52 +44,185 @@ public final class JobCheckpointsContract {
     private static final String COMMA_SEP = ",";
 
     /**
-     * SQL statement to create the job_checkpoint table.
+     * SQL statement to create the job_checkpoint table. The time is stored in
+     * UTC epoch milliseconds, with the offset of the local time at the
+     * checkpoint and the {@link JobLedgerContract} job it belongs to.
      */
     public static final String SQL_CREATE_ENTRIES =
             "CREATE TABLE " + JobCheckpointEntry.TABLE_NAME + " ("
-                    + JobCheckpointEntry._ID + DATE_TYPE
-                    + " PRIMARY KEY" + COMMA_SEP
-                    + JobCheckpointEntry.COLUMN_NAME_DURATION + INTEGER_TYPE + " )";
+                    + JobCheckpointEntry._ID + INTEGER_TYPE + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_DURATION + INTEGER_TYPE + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_WORKER + INTEGER_TYPE + " NOT NULL DEFAULT 0"
+                    + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + INTEGER_TYPE + " NOT NULL DEFAULT 0"
+                    + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_TZ_OFFSET + INTEGER_TYPE
+                    + " NOT NULL DEFAULT 0"
+                    + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_JOB_ID + INTEGER_TYPE
+                    + COMMA_SEP + " PRIMARY KEY (" + JobCheckpointEntry._ID + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_WORKER + "))";
 
     /**
-     * Time format used to store time in SQLite: 2015-05-26 18:40:53.497.
+     * SQL statements to upgrade the job_checkpoint table from version 1, where
+     * the time was the only primary key, keeping the existing checkpoints as
+     * checkpoints of the first worker.
      */
-    private static final String DAY_TIME_FORMAT = "%Y-%m-%d %H:%M:%f";
+    public static final String[] SQL_UPGRADE_ENTRIES_V2 = {
+            "ALTER TABLE " + JobCheckpointEntry.TABLE_NAME + " RENAME TO "
+                    + JobCheckpointEntry.TABLE_NAME + "_v1",
+            "CREATE TABLE " + JobCheckpointEntry.TABLE_NAME + " ("
+                    + JobCheckpointEntry._ID + DATE_TYPE + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_DURATION + INTEGER_TYPE + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_WORKER + INTEGER_TYPE + " NOT NULL DEFAULT 0"
+                    + COMMA_SEP + " PRIMARY KEY (" + JobCheckpointEntry._ID + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_WORKER + "))",
+            "INSERT INTO " + JobCheckpointEntry.TABLE_NAME + " ("
+                    + JobCheckpointEntry._ID + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_DURATION + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_WORKER + ") SELECT "
+                    + JobCheckpointEntry._ID + COMMA_SEP
+                    + JobCheckpointEntry.COLUMN_NAME_DURATION + ", 0 FROM "
+                    + JobCheckpointEntry.TABLE_NAME + "_v1",
+            "DROP TABLE " + JobCheckpointEntry.TABLE_NAME + "_v1",
+    };
+
+    /**
+     * SQL statements to upgrade the job_checkpoint table from version 2,
+     * adding the CPU time of the checkpoints.
+     */
+    public static final String[] SQL_UPGRADE_ENTRIES_V3 = {
+            "ALTER TABLE " + JobCheckpointEntry.TABLE_NAME + " ADD COLUMN "
+                    + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + INTEGER_TYPE
+                    + " NOT NULL DEFAULT 0",
+    };
+
+    /**
+     * SQL statements to upgrade the job_checkpoint table from version 5,
+     * adding the job of the checkpoints. The older tables are created with
+     * it by the version 5 migration.
+     */
+    public static final String[] SQL_UPGRADE_ENTRIES_V6 = {
+            "ALTER TABLE " + JobCheckpointEntry.TABLE_NAME + " ADD COLUMN "
+                    + JobCheckpointEntry.COLUMN_NAME_JOB_ID + INTEGER_TYPE,
+    };
+
+    /**
+     * SQL statement to create the index of the checkpoints by job.
+     */
+    public static final String SQL_CREATE_JOB_INDEX = "CREATE INDEX "
+            + JobCheckpointEntry.TABLE_NAME + "_job ON " + JobCheckpointEntry.TABLE_NAME + " ("
+            + JobCheckpointEntry.COLUMN_NAME_JOB_ID + ")";
+
+    /**
+     * Name of the version 4 table while it is migrated.
+     */
+    private static final String TABLE_NAME_V4 = JobCheckpointEntry.TABLE_NAME + "_v4";
+
+    /**
+     * SQL statement to rename the version 4 table before the migration.
+     */
+    private static final String SQL_RENAME_ENTRIES_V4 = "ALTER TABLE "
+            + JobCheckpointEntry.TABLE_NAME + " RENAME TO " + TABLE_NAME_V4;
+
+    /**
+     * SQLite expression of the UTC epoch ms of a version 4 local time key.
+     */
+    private static final String UTC_TIME_V4 = "CAST(round((julianday(" + JobCheckpointEntry._ID
+            + ", 'utc') - 2440587.5) * 86400000) AS INTEGER)";
+
+    /**
+     * SQLite expression of the offset of a version 4 local time key, in ms.
+     */
+    private static final String TZ_OFFSET_V4 = "CAST(round((julianday(" + JobCheckpointEntry._ID
+            + ") - julianday(" + JobCheckpointEntry._ID + ", 'utc')) * 86400000) AS INTEGER)";
 
     /**
-     * SQLite function to get the current time.
+     * SQL statement converting the version 4 checkpoints in a rowid range.
+     */
+    private static final String SQL_MIGRATE_ENTRIES_V4 = "INSERT OR REPLACE INTO "
+            + JobCheckpointEntry.TABLE_NAME + " (" + JobCheckpointEntry._ID + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_DURATION + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_WORKER + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_TZ_OFFSET + ") SELECT " + UTC_TIME_V4 + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_DURATION + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_WORKER + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + COMMA_SEP + TZ_OFFSET_V4 + " FROM "
+            + TABLE_NAME_V4 + " WHERE rowid > ? AND rowid <= ? AND julianday("
+            + JobCheckpointEntry._ID + ") IS NOT NULL";
+    /**
+     * SQL query counting the version 4 checkpoints with a time the migration
+     * to version 5 can't parse, and their total duration, to log what it drops.
      */
-    private static final String TIME_NOW_FUNCTION =
-            "strftime('" + DAY_TIME_FORMAT + "', 'now', 'localtime')";
+    private static final String SELECT_UNPARSEABLE_V4 = "SELECT count(*)" + COMMA_SEP
+            + "total(" + JobCheckpointEntry.COLUMN_NAME_DURATION + ") FROM " + TABLE_NAME_V4
+            + " WHERE julianday(" + JobCheckpointEntry._ID + ") IS NULL";
 
     /**
-     * SQLite function to get the current time minus 1 day.
+     * Number of checkpoints converted by each migration statement.
      */
-    private static final String TIME_YESTERDAY_FUNCTION = "strftime('" + DAY_TIME_FORMAT
-            + "', 'now', '-1 day')";
+    private static final long MIGRATION_BATCH_SIZE = 1000L;
 
     /**
-     * Query used to insert a new row.
+     * One day in ms.
      */
-    private static final String INSERT_ROW_QUERY = "insert or replace into %1$s (%2$s, %3$s)"
-            + "values (%4$s, %5$d)";
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
 
     /**
-     * Query used to delete old rows.
+     * Query used to insert a new row. A checkpoint replayed from the
+     * {@link CheckpointBuffer} journal after it was stored is ignored.
      */
-    private static final String DELETE_ROWS_QUERY = "delete from %1$s where %2$s < %3$s";
+    private static final String INSERT_ROW_QUERY = "insert or ignore into "
+            + JobCheckpointEntry.TABLE_NAME + " (" + JobCheckpointEntry._ID + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_DURATION + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_WORKER + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_TZ_OFFSET + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_JOB_ID + ") values (?, ?, ?, ?, ?, ?)";
 
     /**
-     * Query used to retrieve the sum of checkpoints.
+     * Query used to insert an imported row, which belongs to no job.
      */
-    private static final String SELECT_SUM_QUERY = "select sum(%1$s) from %2$s where %3$s > %4$s";
+    private static final String IMPORT_ROW_QUERY = "insert or ignore into "
+            + JobCheckpointEntry.TABLE_NAME + " (" + JobCheckpointEntry._ID + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_DURATION + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_WORKER + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_TZ_OFFSET + ") values (?, ?, ?, ?, ?)";
 
     /**
-     * Used to parse date from sql to java.
+     * Query used to read every row, oldest first.
      */
-    private static final SimpleDateFormat SQL_DATE_FORMAT =
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.getDefault());
+    private static final String SELECT_HISTORY_QUERY = "select " + JobCheckpointEntry._ID
+            + COMMA_SEP + JobCheckpointEntry.COLUMN_NAME_WORKER + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_DURATION + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + COMMA_SEP
+            + JobCheckpointEntry.COLUMN_NAME_TZ_OFFSET + " from " + JobCheckpointEntry.TABLE_NAME
+            + " order by " + JobCheckpointEntry._ID;
+
+    /**
+     * Query used to delete the rows older than a time.
+     */
+    private static final String DELETE_ROWS_QUERY = "delete from "
+            + JobCheckpointEntry.TABLE_NAME + " where " + JobCheckpointEntry._ID + " < ?";
+
+    /**
+     * Query used to delete a chunk of the rows older than a time.
+     */
+    private static final String DELETE_CHUNK_QUERY = "delete from "
+            + JobCheckpointEntry.TABLE_NAME + " where rowid in (select rowid from "
+            + JobCheckpointEntry.TABLE_NAME + " where " + JobCheckpointEntry._ID
+            + " < ? limit ?)";
+
+    /**
+     * Query used to retrieve the sums of the checkpoints newer than a time, by minute.
+     */
+    private static final String SELECT_MINUTES_QUERY = "select min(" + JobCheckpointEntry._ID
+            + "), sum(" + JobCheckpointEntry.COLUMN_NAME_DURATION + "), sum("
+            + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + ") from " + JobCheckpointEntry.TABLE_NAME
+            + " where " + JobCheckpointEntry._ID + " > ? group by " + JobCheckpointEntry._ID
+            + " / 60000";
 
     /**
      * Private constructor.
@@ -105,134 +236,225 @@ public final class JobCheckpointsContract {
      * @param checkpointTime the checkpoint time to save.
      */
     public static void addCheckpoint(final long checkpointTime) {
-        final Object[] params = {JobCheckpointEntry.TABLE_NAME,
-                JobCheckpointEntry._ID, JobCheckpointEntry.COLUMN_NAME_DURATION,
-                TIME_NOW_FUNCTION,
-                checkpointTime};
-        final String formattedQuery = String.format(Locale.US, INSERT_ROW_QUERY, params);
-        Log.d(">>> addCheckpoint: " + formattedQuery);
-        synchronized (JobCheckpointsContract.class) {
-            final SQLiteDatabase db = JobDBHelper.getInstance().getReadableDatabase();
-            db.execSQL(formattedQuery);
-            db.close();
+        addCheckpoint(0, checkpointTime, 0L);
+    }
+
+    /**
+     * Ads a new row to the Database with the current time and the checkpoint time
+     * of a worker, outside of any job, flushing the {@link CheckpointBuffer} at once.
+     *
+     * @param worker         the worker id.
+     * @param checkpointTime the checkpoint time to save.
+     * @param cpuTime        the CPU time used by the worker during the checkpoint.
+     */
+    public static void addCheckpoint(final int worker, final long checkpointTime,
+                                     final long cpuTime) {
+        final CheckpointBuffer buffer = CheckpointBuffer.getInstance();
+        buffer.add(worker, JobLedger.NO_JOB, checkpointTime, cpuTime);
+        DatabaseExecutor.await(buffer.flush());
+    }
+
+    /**
+     * Ads a new row to the Database with the checkpoint time of a worker at a
+     * given time.
+     *
+     * @param time           the time of the checkpoint, in UTC epoch ms.
+     * @param worker         the worker id.
+     * @param jobId          the job id or {@link JobLedger#NO_JOB}.
+     * @param checkpointTime the checkpoint time to save.
+     * @param cpuTime        the CPU time used by the worker during the checkpoint.
+     */
+    static void addCheckpoint(final long time, final int worker, final long jobId,
+                              final long checkpointTime, final long cpuTime) {
+        Log.d(">>> addCheckpoint: " + worker + " " + jobId + " " + checkpointTime + " "
+                + cpuTime);
+        final SQLiteStatement statement = JobDBHelper.getInstance().getStatement(INSERT_ROW_QUERY);
+        synchronized (statement) {
+            statement.bindLong(1, time);
+            statement.bindLong(2, checkpointTime);
+            statement.bindLong(3, worker);
+            statement.bindLong(4, cpuTime);
+            statement.bindLong(5, TimeZone.getDefault().getOffset(time));
+            if (jobId == JobLedger.NO_JOB) {
+                statement.bindNull(6);
+            } else {
+                statement.bindLong(6, jobId);
+            }
+            statement.executeInsert();
         }
     }
 
+    /**
+     * Ads an imported checkpoint, unless it is already stored. Runs on the
+     * {@link DatabaseExecutor} writer.
+     *
+     * @param time           the time of the checkpoint, in UTC epoch ms.
+     * @param worker         the worker id.
+     * @param checkpointTime the checkpoint time.
+     * @param cpuTime        the CPU time used by the worker during the checkpoint.
+     * @param tzOffset       the offset of the local time at the checkpoint, in ms.
+     * @return true if the checkpoint was added.
+     */
+    static boolean importCheckpoint(final long time, final int worker, final long checkpointTime,
+                                    final long cpuTime, final long tzOffset) {
+        final SQLiteStatement statement = JobDBHelper.getInstance().getStatement(IMPORT_ROW_QUERY);
+        synchronized (statement) {
+            statement.bindLong(1, time);
+            statement.bindLong(2, checkpointTime);
+            statement.bindLong(3, worker);
+            statement.bindLong(4, cpuTime);
+            statement.bindLong(5, tzOffset);
+            return statement.executeInsert() != -1;
+        }
+    }
+
+    /**
+     * Queries every checkpoint, oldest first. The columns are the time, the
+     * worker, the duration, the CPU time and the offset of the local time.
+     * Runs on the {@link DatabaseExecutor} writer.
+     *
+     * @return the cursor, to be closed by the caller.
+     */
+    static Cursor queryHistory() {
+        return JobDBHelper.getInstance().getDatabase().rawQuery(SELECT_HISTORY_QUERY, null);
+    }
+
     /**
      * Removes entries in table older than 24 hours (1 day).
      */
     public static void clear24HourAccumulatedTime() {
-        final Object[] params = {JobCheckpointEntry.TABLE_NAME,
-                JobCheckpointEntry._ID, TIME_YESTERDAY_FUNCTION};
-        final String formattedQuery = String.format(Locale.US, DELETE_ROWS_QUERY, params);
-        synchronized (JobCheckpointsContract.class) {
-            final SQLiteDatabase db = JobDBHelper.getInstance().getReadableDatabase();
-            db.execSQL(formattedQuery);
-            db.close();
+        DatabaseExecutor.await(DatabaseExecutor.getInstance().write("clear_checkpoints",
+                new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        final SQLiteStatement statement = JobDBHelper.getInstance()
+                                .getStatement(DELETE_ROWS_QUERY);
+                        synchronized (statement) {
+                            statement.bindLong(1, System.currentTimeMillis() - DAY_MILLIS);
+                            statement.executeUpdateDelete();
+                        }
+                        return null;
+                    }
+                }));
+    }
+
+    /**
+     * Removes up to a number of checkpoints older than a time. Their sums
+     * are kept in the rollups. Runs on the {@link DatabaseExecutor} writer.
+     *
+     * @param time  the time, in UTC epoch ms.
+     * @param limit the maximum number of checkpoints to remove.
+     * @return the number of checkpoints removed.
+     */
+    static int deleteOlderThan(final long time, final int limit) {
+        final SQLiteStatement statement = JobDBHelper.getInstance()
+                .getStatement(DELETE_CHUNK_QUERY);
+        synchronized (statement) {
+            statement.bindLong(1, time);
+            statement.bindLong(2, limit);
+            return statement.executeUpdateDelete();
         }
     }
 
     /**
-     * Gets the sum of checkpoints from past 24 hours (1 day).
+     * Gets the sum of checkpoints from past 24 hours (1 day), including the
+     * checkpoints still in the {@link CheckpointBuffer}.
      *
      * @return the sum of checkpoint from the past 24 hours.
      */
     public static long get24HourAccumulatedTime() {
-        final Object[] params = {JobCheckpointEntry.COLUMN_NAME_DURATION,
-                JobCheckpointEntry.TABLE_NAME, JobCheckpointEntry._ID,
-                TIME_YESTERDAY_FUNCTION};
-        final String formattedQuery = String.format(Locale.US, SELECT_SUM_QUERY, params);
-        long returnValue = 0L;
-        synchronized (JobCheckpointsContract.class) {
-            final SQLiteDatabase db = JobDBHelper.getInstance().getReadableDatabase();
-            Cursor c = db.rawQuery(formattedQuery, new String[]{});
-
-
-            if (c.moveToFirst()) {
-                returnValue = c.getLong(0);
+        return CheckpointBuffer.getInstance().get24HourTime();
+    }
+
+    /**
+     * Gets the sum of the CPU time of the checkpoints from past 24 hours (1 day),
+     * including the checkpoints still in the {@link CheckpointBuffer}.
+     *
+     * @return the CPU time used in the past 24 hours.
+     */
+    public static long get24HourAccumulatedCpuTime() {
+        return CheckpointBuffer.getInstance().get24HourCpuTime();
+    }
+
+    /**
+     * Adds the checkpoints from past 24 hours (1 day) to a window, summed by
+     * minute. Runs on a {@link DatabaseExecutor} reader.
+     *
+     * @param window the window.
+     * @param now    the current time, in UTC epoch ms.
+     */
+    static void loadWindow(final RollingWindow window, final long now) {
+        final SQLiteDatabase db = JobDBHelper.getInstance().getDatabase();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(SELECT_MINUTES_QUERY,
+                    new String[]{String.valueOf(now - DAY_MILLIS)});
+            while (cursor.moveToNext()) {
+                window.add(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
             }
-            c.close();
-            db.close();
         }
-        return returnValue;
     }
 
     /**
-     * Gets an hourly report based on a data type.
+     * Migrates the version 4 table, keyed by the local time as text, to
+     * UTC epoch ms keys. The old table is converted in rowid ranges, so a
+     * statement never holds more than {@link #MIGRATION_BATCH_SIZE}
+     * checkpoints, and is dropped once every checkpoint was copied. The
+     * offsets are those of the current time zone at each checkpoint time.
+     * <p>
+     * Everything runs in the single upgrade transaction, so the batches bound
+     * the work of each statement but not the size of the transaction: the
+     * whole table is either migrated or left untouched. Checkpoints whose key
+     * is not a valid time have no epoch key and are not copied, they are
+     * counted in the log.
      *
-     * @param dataType the data type to ger the reports.
-     * @return the sparse array which the keys are the days of the month for weekly
-     * or monthly report and years for all time reports.
-     */
-    public static SparseArray<Pair<Date, Double>> getHourlyReport(
-            final ReportChartFragment.DataType dataType) {
-        final SparseArray<Pair<Date, Double>> sparseArray = new SparseArray<>();
-
-        String dateSelectQuery = "";
-        String groupBy = "";
-        String periodQuery = "";
-        String orderBy = "";
-
-        //using strftime('%Y-%m-%d', ...) to start counting since the begining of day
-        if (dataType == ReportChartFragment.DataType.WEEK) {
-            groupBy = "day_of_month";
-            dateSelectQuery = "strftime('%d', _id) day_of_month";
-
-            periodQuery = "strftime('%Y-%m-%d', 'now', 'localtime', '-6 days')";
-        } else if (dataType == ReportChartFragment.DataType.MONTH) {
-            groupBy = "strftime('%d', _id), strftime('%m', _id)";
-            dateSelectQuery = "strftime('%s', _id) / 86400 days_since_1970";
-            orderBy = "_id";
-
-            periodQuery =
-                "strftime('%Y-%m-%d', 'now', 'localtime', 'weekday 0', '-7 days', '-28 days')";
-        } else if (dataType == ReportChartFragment.DataType.ALL_TIME) {
-            groupBy = "year";
-            dateSelectQuery = "strftime('%Y', _id) year";
-
-            periodQuery = "date(0)";
+     * @param db the database, in the upgrade transaction.
+     */
+    static void migrateToEpochKeys(final SQLiteDatabase db) {
+        db.execSQL(SQL_RENAME_ENTRIES_V4);
+        db.execSQL(SQL_CREATE_ENTRIES);
+        final SQLiteStatement maxRowId = db.compileStatement("SELECT max(rowid) FROM "
+                + TABLE_NAME_V4);
+        final SQLiteStatement migrate = db.compileStatement(SQL_MIGRATE_ENTRIES_V4);
+        try {
+            final long last = maxRowId.simpleQueryForLong();
+            for (long first = 0; first < last; first += MIGRATION_BATCH_SIZE) {
+                migrate.bindLong(1, first);
+                migrate.bindLong(2, first + MIGRATION_BATCH_SIZE);
+                migrate.executeInsert();
+            }
+            Log.d("Migrated " + last + " checkpoints");
+            logUnparseableCheckpoints(db);
+        } finally {
+            maxRowId.close();
+            migrate.close();
         }
+        db.execSQL("DROP TABLE " + TABLE_NAME_V4);
+    }
 
-        final String formattedQuery = "SELECT "
-                + (TextUtils.isEmpty(dateSelectQuery) ? "" : dateSelectQuery + ", ")
-                + " _id, sum (" + JobCheckpointEntry.COLUMN_NAME_DURATION
-                + ") / 3600000.0" // converting to hours
-                + " FROM " + JobCheckpointEntry.TABLE_NAME
-                + (TextUtils.isEmpty(periodQuery) ? "" : " WHERE " + JobCheckpointEntry._ID
-                + " BETWEEN " + periodQuery + " AND datetime('now', 'localtime') ")
-                + (TextUtils.isEmpty(groupBy) ? "" : " group by " + groupBy)
-                + (TextUtils.isEmpty(orderBy) ? "" : " order by " + orderBy);
-
-        Log.d(">>> query: " + formattedQuery);
-
-        synchronized (JobCheckpointsContract.class) {
-            SQLiteDatabase db = null;
-            Cursor cursor = null;
-            try {
-                db = JobDBHelper.getInstance().getReadableDatabase();
-                cursor = db.rawQuery(formattedQuery, new String[]{});
-                while (cursor.moveToNext()) {
-                    //get the values as String to avoid error when the SQL lib tries to parse the data
-                    final String key = cursor.getString(0);
-                    final String date = cursor.getString(1);
-                    final String value = cursor.getString(2);
-                    sparseArray.append(Integer.parseInt(key),
-                                       new Pair<>(SQL_DATE_FORMAT.parse(date),
-                                                  Double.valueOf(value)));
-                }
-            } catch (Exception e) {
-                Log.e(e.getMessage());
-            } finally {
-                if (cursor != null) {
-                    cursor.close();
-                }
-                if (db != null) {
-                    db.close();
-                }
+    /**
+     * Logs the version 4 checkpoints that can't be migrated because their key
+     * is not a valid time.
+     *
+     * @param db the database, in the upgrade transaction.
+     */
+    private static void logUnparseableCheckpoints(final SQLiteDatabase db) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(SELECT_UNPARSEABLE_V4, null);
+            if (cursor.moveToFirst() && cursor.getLong(0) > 0) {
+                Log.e("Dropped " + cursor.getLong(0) + " checkpoints with an invalid time, "
+                        + cursor.getLong(1) + " ms in total");
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
             }
         }
-
-        return sparseArray;
     }
 
     /**
@@ -248,5 +470,25 @@ public final class JobCheckpointsContract {
          * Column name to store the checkpoint duration.
          */
         public static final String COLUMN_NAME_DURATION = "checkpoint_duration";
+
+        /**
+         * Column name to store the worker that executed the checkpoint.
+         */
+        public static final String COLUMN_NAME_WORKER = "worker";
+
+        /**
+         * Column name to store the CPU time used during the checkpoint.
+         */
+        public static final String COLUMN_NAME_CPU_TIME = "cpu_time";
+
+        /**
+         * Column name to store the offset of the local time at the checkpoint, in ms.
+         */
+        public static final String COLUMN_NAME_TZ_OFFSET = "tz_offset";
+
+        /**
+         * Column name to store the job the checkpoint belongs to.
+         */
+        public static final String COLUMN_NAME_JOB_ID = "job_id";
     }
 }
@@ -7,19 +7,25 @@ package com.sonymobile.androidapp.gridcomputing.database;
 
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import com.sonymobile.androidapp.gridcomputing.utils.ApplicationData;
 
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * Helper class to store Job related data.
+ * Helper class to store Job related data. The database is opened once, in
+ * write-ahead logging mode so reads run concurrently with the writer, and
+ * kept open for the lifetime of the process. The accesses run on the
+ * {@link DatabaseExecutor} threads.
  */
 public final class JobDBHelper extends SQLiteOpenHelper {
 
     /**
      * DataBase version. Must increment the version when the database changes.
      */
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 6;
 
     /**
      * Database name.
@@ -31,6 +37,11 @@ public final class JobDBHelper extends SQLiteOpenHelper {
      */
     private static JobDBHelper sInstance;
 
+    /**
+     * Statements compiled once and reused, by SQL.
+     */
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+
     /**
      * Private constructor.
      */
@@ -43,29 +54,117 @@ public final class JobDBHelper extends SQLiteOpenHelper {
      *
      * @return a singleton instance of this DB.
      */
-    public static JobDBHelper getInstance() {
+    public static synchronized JobDBHelper getInstance() {
         if (sInstance == null) {
             sInstance = new JobDBHelper();
         }
         return sInstance;
     }
 
+    /**
+     * Returns the shared database connection. It must not be closed by the callers.
+     *
+     * @return the database.
+     */
+    public SQLiteDatabase getDatabase() {
+        // The helper keeps returning the same instance while it is open.
+        return getWritableDatabase();
+    }
+
+    /**
+     * Returns a statement compiled once for the shared database. A statement
+     * holds its bindings, so callers must synchronize on it while binding and
+     * executing.
+     *
+     * @param sql the statement SQL.
+     * @return the compiled statement.
+     */
+    public synchronized SQLiteStatement getStatement(final String sql) {
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = getDatabase().compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+        super.close();
+    }
+
+    @Override
+    public void onConfigure(final SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.enableWriteAheadLogging();
+    }
+
     @Override
     public void onCreate(final SQLiteDatabase db) {
         db.execSQL(JobCheckpointsContract.SQL_CREATE_ENTRIES);
+        db.execSQL(JobRollupContract.SQL_CREATE_ENTRIES);
+        db.execSQL(JobRollupContract.SQL_CREATE_TRIGGER);
+        db.execSQL(JobCheckpointsContract.SQL_CREATE_JOB_INDEX);
+        db.execSQL(JobLedgerContract.SQL_CREATE_ENTRIES);
+        db.execSQL(JobLedgerContract.SQL_CREATE_PROJECT_INDEX);
     }
 
     @Override
     public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
+        if (oldVersion < 2) {
+            execSQL(db, JobCheckpointsContract.SQL_UPGRADE_ENTRIES_V2);
+        }
+        if (oldVersion < 3) {
+            execSQL(db, JobCheckpointsContract.SQL_UPGRADE_ENTRIES_V3);
+        }
+        if (oldVersion < 5) {
+            // The old trigger reads local time keys.
+            db.execSQL(JobRollupContract.SQL_DELETE_TRIGGER);
+            JobCheckpointsContract.migrateToEpochKeys(db);
+        }
+        // The rollups are built from the migrated checkpoints.
+        if (oldVersion < 4) {
+            db.execSQL(JobRollupContract.SQL_CREATE_ENTRIES);
+            JobRollupContract.rebuild(db);
+        }
+        if (oldVersion < 5) {
+            db.execSQL(JobRollupContract.SQL_CREATE_TRIGGER);
+        }
+        if (oldVersion == 5) {
+            // Older tables were created with the job column by the migration.
+            execSQL(db, JobCheckpointsContract.SQL_UPGRADE_ENTRIES_V6);
+        }
+        if (oldVersion < 6) {
+            db.execSQL(JobCheckpointsContract.SQL_CREATE_JOB_INDEX);
+            db.execSQL(JobLedgerContract.SQL_CREATE_ENTRIES);
+            db.execSQL(JobLedgerContract.SQL_CREATE_PROJECT_INDEX);
+        }
+    }
+
+    @Override
+    public void onDowngrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
+        // This database is only a cache for online data, so its downgrade policy is
         // to simply to discard the data and start over
         db.execSQL(JobCheckpointsContract.SQL_DELETE_ENTRIES);
+        db.execSQL(JobRollupContract.SQL_DELETE_ENTRIES);
+        db.execSQL(JobLedgerContract.SQL_DELETE_ENTRIES);
         onCreate(db);
     }
 
-    @Override
-    public void onDowngrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+    /**
+     * Executes a list of statements.
+     *
+     * @param db         the database.
+     * @param statements the statements.
+     */
+    private static void execSQL(final SQLiteDatabase db, final String[] statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
     }
 
 }
@@ -0,0 +1,232 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.database;
+
+import android.util.SparseArray;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the job each worker is executing and records the jobs in the
+ * {@link JobLedgerContract} table. The job ids are assigned in memory, so
+ * the checkpoints reference their job without waiting for the database,
+ * and the writes are queued on the {@link DatabaseExecutor} writer in the
+ * order of the events. The highest stored id is read on the writer thread
+ * when the ledger is created, and only the first job waits for it.
+ */
+public final class JobLedger {
+
+    /**
+     * Job id of the checkpoints that don't belong to a job.
+     */
+    public static final long NO_JOB = 0L;
+
+    /**
+     * This class' singleton instance.
+     */
+    private static JobLedger sInstance;
+
+    /**
+     * The id of the job each worker is executing.
+     */
+    private final SparseArray<Long> mJobs = new SparseArray<>();
+
+    /**
+     * The highest job id stored when the ledger was created.
+     */
+    private final Future<Long> mMaxJobId;
+
+    /**
+     * The last job id assigned, only valid once {@link #mMaxJobId} was read.
+     */
+    private long mLastJobId;
+
+    /**
+     * True once {@link #mMaxJobId} was read.
+     */
+    private boolean mMaxJobIdRead;
+
+    /**
+     * Private constructor.
+     */
+    private JobLedger() {
+        // The buffer flushes the recovered checkpoints before their jobs are closed.
+        CheckpointBuffer.getInstance();
+        mMaxJobId = DatabaseExecutor.getInstance().write(
+                "close_interrupted_jobs", new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        final int closed = JobLedgerContract.closeInterruptedJobs();
+                        if (closed > 0) {
+                            Log.d("Closed " + closed + " interrupted jobs");
+                        }
+                        return JobLedgerContract.getMaxJobId();
+                    }
+                });
+    }
+
+    /**
+     * Gets the singleton instance.
+     *
+     * @return the singleton instance of this class.
+     */
+    public static synchronized JobLedger getInstance() {
+        if (sInstance == null) {
+            sInstance = new JobLedger();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts a job on a worker, closing the job it was executing, if any.
+     * The first job waits for the highest stored id, so this must not be
+     * called from the {@link DatabaseExecutor} writer thread.
+     *
+     * @param worker the worker id.
+     * @return the job id.
+     */
+    public synchronized long startJob(final int worker) {
+        closeJob(worker, null, JobLedgerContract.STOP_REASON_INTERRUPTED);
+        if (!mMaxJobIdRead) {
+            mLastJobId = DatabaseExecutor.await(mMaxJobId);
+            mMaxJobIdRead = true;
+        }
+        final long jobId = ++mLastJobId;
+        final long startTime = System.currentTimeMillis();
+        mJobs.put(worker, jobId);
+        write("insert_job", new Runnable() {
+            @Override
+            public void run() {
+                JobLedgerContract.insertJob(jobId, worker, startTime);
+            }
+        });
+        Log.d("Job ledger > worker " + worker + " started job " + jobId);
+        return jobId;
+    }
+
+    /**
+     * Returns the job a worker is executing.
+     *
+     * @param worker the worker id.
+     * @return the job id or {@link #NO_JOB}.
+     */
+    public synchronized long getJobId(final int worker) {
+        return mJobs.get(worker, NO_JOB);
+    }
+
+    /**
+     * Sets the research details of the job of a worker.
+     *
+     * @param worker  the worker id.
+     * @param project the project id.
+     * @param stream  the stream id.
+     * @param title   the research title.
+     */
+    public synchronized void setResearchDetails(final int worker, final String project,
+                                                final String stream, final String title) {
+        final long jobId = getJobId(worker);
+        if (jobId == NO_JOB) {
+            return;
+        }
+        write("update_job_details", new Runnable() {
+            @Override
+            public void run() {
+                JobLedgerContract.setResearchDetails(jobId, project, stream, title);
+            }
+        });
+    }
+
+    /**
+     * Adds bytes transferred by the job of a worker.
+     *
+     * @param worker          the worker id.
+     * @param bytesDownloaded the bytes downloaded.
+     * @param bytesUploaded   the bytes uploaded.
+     */
+    public synchronized void addTransfer(final int worker, final long bytesDownloaded,
+                                         final long bytesUploaded) {
+        final long jobId = getJobId(worker);
+        if (jobId == NO_JOB) {
+            return;
+        }
+        write("add_job_transfer", new Runnable() {
+            @Override
+            public void run() {
+                JobLedgerContract.addTransfer(jobId, bytesDownloaded, bytesUploaded);
+            }
+        });
+    }
+
+    /**
+     * Closes the job of a worker that exited.
+     *
+     * @param worker     the worker id.
+     * @param exitCode   the exit code of the job.
+     * @param stopReason why the job stopped.
+     */
+    public synchronized void finishJob(final int worker, final long exitCode,
+                                       final String stopReason) {
+        closeJob(worker, exitCode, stopReason);
+    }
+
+    /**
+     * Closes the job of a worker whose client stopped, if it is still open.
+     *
+     * @param worker     the worker id.
+     * @param stopReason why the client stopped.
+     */
+    public synchronized void stopJob(final int worker, final String stopReason) {
+        closeJob(worker, null, stopReason);
+    }
+
+    /**
+     * Closes the job of a worker, after its checkpoints are flushed.
+     *
+     * @param worker     the worker id.
+     * @param exitCode   the exit code of the job, null if it didn't exit.
+     * @param stopReason why the job stopped.
+     */
+    private void closeJob(final int worker, final Long exitCode, final String stopReason) {
+        final long jobId = getJobId(worker);
+        if (jobId == NO_JOB) {
+            return;
+        }
+        mJobs.remove(worker);
+        final long endTime = System.currentTimeMillis();
+        // Queued before the close, so the sums include every checkpoint.
+        CheckpointBuffer.getInstance().flush();
+        write("close_job", new Runnable() {
+            @Override
+            public void run() {
+                JobLedgerContract.closeJob(jobId, endTime, exitCode, stopReason);
+            }
+        });
+        Log.d("Job ledger > worker " + worker + " closed job " + jobId + ": " + stopReason);
+    }
+
+    /**
+     * Queues a write, logging its failure.
+     *
+     * @param name the task name.
+     * @param task the task.
+     */
+    private static void write(final String name, final Runnable task) {
+        DatabaseExecutor.getInstance().write(name, new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    task.run();
+                } catch (final RuntimeException e) {
+                    Log.e("Job ledger " + name + " failed: " + e.getMessage());
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.database;
+
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+import com.sonymobile.androidapp.gridcomputing.database.JobCheckpointsContract.JobCheckpointEntry;
+
+import java.util.Locale;
+
+/**
+ * Contract class that defines the job ledger table. Each row is one
+ * execution of a job by a worker, from the moment the client starts
+ * executing it until the job ends or the client stops, with the project
+ * and stream reported by the job. The checkpoints of the execution
+ * reference its row, and their sums are stored in the row when it is
+ * closed, so the per project totals read the ledger only.
+ */
+public final class JobLedgerContract {
+
+    /**
+     * Stop reason of a job that finished.
+     */
+    public static final String STOP_REASON_FINISHED = "FINISHED";
+
+    /**
+     * Stop reason of a job that failed.
+     */
+    public static final String STOP_REASON_FAILED = "FAILED";
+
+    /**
+     * Stop reason of a job left open by a killed process.
+     */
+    public static final String STOP_REASON_INTERRUPTED = "INTERRUPTED";
+
+    /**
+     * SQL statement to create the job_ledger table.
+     */
+    public static final String SQL_CREATE_ENTRIES =
+            "CREATE TABLE " + JobLedgerEntry.TABLE_NAME + " ("
+                    + JobLedgerEntry._ID + " INTEGER PRIMARY KEY, "
+                    + JobLedgerEntry.COLUMN_NAME_WORKER + " INTEGER NOT NULL DEFAULT 0, "
+                    + JobLedgerEntry.COLUMN_NAME_PROJECT + " TEXT, "
+                    + JobLedgerEntry.COLUMN_NAME_STREAM + " TEXT, "
+                    + JobLedgerEntry.COLUMN_NAME_TITLE + " TEXT, "
+                    + JobLedgerEntry.COLUMN_NAME_START_TIME + " INTEGER NOT NULL, "
+                    + JobLedgerEntry.COLUMN_NAME_END_TIME + " INTEGER, "
+                    + JobLedgerEntry.COLUMN_NAME_RUN_TIME + " INTEGER NOT NULL DEFAULT 0, "
+                    + JobLedgerEntry.COLUMN_NAME_CPU_TIME + " INTEGER NOT NULL DEFAULT 0, "
+                    + JobLedgerEntry.COLUMN_NAME_EXIT_CODE + " INTEGER, "
+                    + JobLedgerEntry.COLUMN_NAME_STOP_REASON + " TEXT, "
+                    + JobLedgerEntry.COLUMN_NAME_BYTES_DOWNLOADED
+                    + " INTEGER NOT NULL DEFAULT 0, "
+                    + JobLedgerEntry.COLUMN_NAME_BYTES_UPLOADED + " INTEGER NOT NULL DEFAULT 0)";
+
+    /**
+     * SQL statement to create the index of the ledger by project.
+     */
+    public static final String SQL_CREATE_PROJECT_INDEX = "CREATE INDEX "
+            + JobLedgerEntry.TABLE_NAME + "_project ON " + JobLedgerEntry.TABLE_NAME + " ("
+            + JobLedgerEntry.COLUMN_NAME_PROJECT + ")";
+
+    /**
+     * SQL drop table statement.
+     */
+    public static final String SQL_DELETE_ENTRIES =
+            "DROP TABLE IF EXISTS " + JobLedgerEntry.TABLE_NAME;
+
+    /**
+     * SQL expression of the sum of a checkpoint column of the ledger row.
+     */
+    private static final String CHECKPOINT_SUM = "(SELECT coalesce(sum(%s), 0) FROM "
+            + JobCheckpointEntry.TABLE_NAME + " WHERE " + JobCheckpointEntry.COLUMN_NAME_JOB_ID
+            + " = " + JobLedgerEntry.TABLE_NAME + "." + JobLedgerEntry._ID + ")";
+
+    /**
+     * SQL assignments of the checkpoint sums of the ledger row.
+     */
+    private static final String SET_CHECKPOINT_SUMS = JobLedgerEntry.COLUMN_NAME_RUN_TIME
+            + " = " + String.format(Locale.US, CHECKPOINT_SUM,
+            JobCheckpointEntry.COLUMN_NAME_DURATION) + ", "
+            + JobLedgerEntry.COLUMN_NAME_CPU_TIME + " = " + String.format(Locale.US,
+            CHECKPOINT_SUM, JobCheckpointEntry.COLUMN_NAME_CPU_TIME);
+
+    /**
+     * Query used to get the highest job id.
+     */
+    private static final String SELECT_MAX_ID_QUERY = "SELECT coalesce(max("
+            + JobLedgerEntry._ID + "), 0) FROM " + JobLedgerEntry.TABLE_NAME;
+
+    /**
+     * Query used to insert a new job.
+     */
+    private static final String INSERT_JOB_QUERY = "INSERT INTO " + JobLedgerEntry.TABLE_NAME
+            + " (" + JobLedgerEntry._ID + ", " + JobLedgerEntry.COLUMN_NAME_WORKER + ", "
+            + JobLedgerEntry.COLUMN_NAME_START_TIME + ") VALUES (?, ?, ?)";
+
+    /**
+     * Query used to set the research details of a job.
+     */
+    private static final String UPDATE_DETAILS_QUERY = "UPDATE " + JobLedgerEntry.TABLE_NAME
+            + " SET " + JobLedgerEntry.COLUMN_NAME_PROJECT + " = ?, "
+            + JobLedgerEntry.COLUMN_NAME_STREAM + " = ?, "
+            + JobLedgerEntry.COLUMN_NAME_TITLE + " = ? WHERE " + JobLedgerEntry._ID + " = ?";
+
+    /**
+     * Query used to add transferred bytes to a job.
+     */
+    private static final String ADD_TRANSFER_QUERY = "UPDATE " + JobLedgerEntry.TABLE_NAME
+            + " SET " + JobLedgerEntry.COLUMN_NAME_BYTES_DOWNLOADED + " = "
+            + JobLedgerEntry.COLUMN_NAME_BYTES_DOWNLOADED + " + ?, "
+            + JobLedgerEntry.COLUMN_NAME_BYTES_UPLOADED + " = "
+            + JobLedgerEntry.COLUMN_NAME_BYTES_UPLOADED + " + ? WHERE "
+            + JobLedgerEntry._ID + " = ?";
+
+    /**
+     * Query used to close a job.
+     */
+    private static final String CLOSE_JOB_QUERY = "UPDATE " + JobLedgerEntry.TABLE_NAME
+            + " SET " + JobLedgerEntry.COLUMN_NAME_END_TIME + " = ?, "
+            + JobLedgerEntry.COLUMN_NAME_EXIT_CODE + " = ?, "
+            + JobLedgerEntry.COLUMN_NAME_STOP_REASON + " = ?, " + SET_CHECKPOINT_SUMS
+            + " WHERE " + JobLedgerEntry._ID + " = ?";
+
+    /**
+     * Query used to close the jobs left open by a killed process, at their
+     * last checkpoint.
+     */
+    private static final String CLOSE_INTERRUPTED_JOBS_QUERY = "UPDATE "
+            + JobLedgerEntry.TABLE_NAME + " SET " + JobLedgerEntry.COLUMN_NAME_END_TIME
+            + " = coalesce((SELECT max(" + JobCheckpointEntry._ID + ") FROM "
+            + JobCheckpointEntry.TABLE_NAME + " WHERE " + JobCheckpointEntry.COLUMN_NAME_JOB_ID
+            + " = " + JobLedgerEntry.TABLE_NAME + "." + JobLedgerEntry._ID + "), "
+            + JobLedgerEntry.COLUMN_NAME_START_TIME + "), "
+            + JobLedgerEntry.COLUMN_NAME_STOP_REASON + " = '" + STOP_REASON_INTERRUPTED + "', "
+            + SET_CHECKPOINT_SUMS + " WHERE " + JobLedgerEntry.COLUMN_NAME_END_TIME + " IS NULL";
+
+    /**
+     * Private constructor.
+     */
+    private JobLedgerContract() {
+    }
+
+    /**
+     * Gets the highest job id. Runs on the {@link DatabaseExecutor} writer,
+     * in the task closing the interrupted jobs, so the ledger creation
+     * doesn't block on a read.
+     *
+     * @return the highest job id or 0 if there are no jobs.
+     */
+    static long getMaxJobId() {
+        final SQLiteStatement statement = JobDBHelper.getInstance()
+                .getStatement(SELECT_MAX_ID_QUERY);
+        synchronized (statement) {
+            return statement.simpleQueryForLong();
+        }
+    }
+
+    /**
+     * Inserts a job. Runs on the {@link DatabaseExecutor} writer.
+     *
+     * @param jobId     the job id.
+     * @param worker    the worker id.
+     * @param startTime the time the job started, in UTC epoch ms.
+     */
+    static void insertJob(final long jobId, final int worker, final long startTime) {
+        final SQLiteStatement statement = JobDBHelper.getInstance()
+                .getStatement(INSERT_JOB_QUERY);
+        synchronized (statement) {
+            statement.bindLong(1, jobId);
+            statement.bindLong(2, worker);
+            statement.bindLong(3, startTime);
+            statement.executeInsert();
+        }
+    }
+
+    /**
+     * Sets the research details of a job. Runs on the {@link DatabaseExecutor} writer.
+     *
+     * @param jobId   the job id.
+     * @param project the project id.
+     * @param stream  the stream id.
+     * @param title   the research title.
+     */
+    static void setResearchDetails(final long jobId, final String project, final String stream,
+                                   final String title) {
+        final SQLiteStatement statement = JobDBHelper.getInstance()
+                .getStatement(UPDATE_DETAILS_QUERY);
+        synchronized (statement) {
+            bindStringOrNull(statement, 1, project);
+            bindStringOrNull(statement, 2, stream);
+            bindStringOrNull(statement, 3, title);
+            statement.bindLong(4, jobId);
+            statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Adds transferred bytes to a job. Runs on the {@link DatabaseExecutor} writer.
+     *
+     * @param jobId           the job id.
+     * @param bytesDownloaded the bytes downloaded.
+     * @param bytesUploaded   the bytes uploaded.
+     */
+    static void addTransfer(final long jobId, final long bytesDownloaded,
+                            final long bytesUploaded) {
+        final SQLiteStatement statement = JobDBHelper.getInstance()
+                .getStatement(ADD_TRANSFER_QUERY);
+        synchronized (statement) {
+            statement.bindLong(1, bytesDownloaded);
+            statement.bindLong(2, bytesUploaded);
+            statement.bindLong(3, jobId);
+            statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Closes a job, storing the sums of its checkpoints. The checkpoints of
+     * the job must be flushed first. Runs on the {@link DatabaseExecutor} writer.
+     *
+     * @param jobId      the job id.
+     * @param endTime    the time the job ended, in UTC epoch ms.
+     * @param exitCode   the exit code of the job, null if it didn't exit.
+     * @param stopReason why the job stopped.
+     */
+    static void closeJob(final long jobId, final long endTime, final Long exitCode,
+                         final String stopReason) {
+        final SQLiteStatement statement = JobDBHelper.getInstance()
+                .getStatement(CLOSE_JOB_QUERY);
+        synchronized (statement) {
+            statement.bindLong(1, endTime);
+            if (exitCode == null) {
+                statement.bindNull(2);
+            } else {
+                statement.bindLong(2, exitCode);
+            }
+            bindStringOrNull(statement, 3, stopReason);
+            statement.bindLong(4, jobId);
+            statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Closes the jobs left open by a killed process. Runs on the
+     * {@link DatabaseExecutor} writer.
+     *
+     * @return the number of jobs closed.
+     */
+    static int closeInterruptedJobs() {
+        final SQLiteStatement statement = JobDBHelper.getInstance()
+                .getStatement(CLOSE_INTERRUPTED_JOBS_QUERY);
+        synchronized (statement) {
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Binds a string or null.
+     *
+     * @param statement the statement.
+     * @param index     the index of the argument.
+     * @param value     the value, may be null.
+     */
+    private static void bindStringOrNull(final SQLiteStatement statement, final int index,
+                                         final String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * BaseColumns class to define the job_ledger table.
+     */
+    public abstract static class JobLedgerEntry implements BaseColumns {
+        /**
+         * The table name.
+         */
+        public static final String TABLE_NAME = "job_ledger";
+
+        /**
+         * Column name to store the worker that executed the job.
+         */
+        public static final String COLUMN_NAME_WORKER = "worker";
+
+        /**
+         * Column name to store the project (research target) id.
+         */
+        public static final String COLUMN_NAME_PROJECT = "project";
+
+        /**
+         * Column name to store the stream id of the job.
+         */
+        public static final String COLUMN_NAME_STREAM = "stream";
+
+        /**
+         * Column name to store the research title.
+         */
+        public static final String COLUMN_NAME_TITLE = "title";
+
+        /**
+         * Column name to store the time the job started, in UTC epoch ms.
+         */
+        public static final String COLUMN_NAME_START_TIME = "start_time";
+
+        /**
+         * Column name to store the time the job ended, in UTC epoch ms.
+         */
+        public static final String COLUMN_NAME_END_TIME = "end_time";
+
+        /**
+         * Column name to store the sum of the checkpoint times of the job.
+         */
+        public static final String COLUMN_NAME_RUN_TIME = "run_time";
+
+        /**
+         * Column name to store the sum of the CPU times of the job.
+         */
+        public static final String COLUMN_NAME_CPU_TIME = "cpu_time";
+
+        /**
+         * Column name to store the exit code of the job.
+         */
+        public static final String COLUMN_NAME_EXIT_CODE = "exit_code";
+
+        /**
+         * Column name to store why the job stopped.
+         */
+        public static final String COLUMN_NAME_STOP_REASON = "stop_reason";
+
+        /**
+         * Column name to store the bytes downloaded by the job.
+         */
+        public static final String COLUMN_NAME_BYTES_DOWNLOADED = "bytes_downloaded";
+
+        /**
+         * Column name to store the bytes uploaded by the job.
+         */
+        public static final String COLUMN_NAME_BYTES_UPLOADED = "bytes_uploaded";
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.sonymobile.androidapp.gridcomputing.database.JobCheckpointsContract.JobCheckpointEntry;
+import com.sonymobile.androidapp.gridcomputing.fragments.ReportChartFragment;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Contract class that defines the job checkpoint rollup table. It keeps the
+ * sum of the checkpoints per hour, day, ISO week, month and year, so the
+ * reports read a few rows instead of every checkpoint. The rollups are
+ * updated by a trigger in the same transaction as each checkpoint insert,
+ * and are kept when old checkpoints are deleted. The buckets are in the
+ * local time of each checkpoint, so a later time zone change doesn't move
+ * the contributions already made.
+ */
+public final class JobRollupContract {
+
+    /**
+     * Rollup of the checkpoints of an hour.
+     */
+    public static final int PERIOD_HOUR = 0;
+    /**
+     * Rollup of the checkpoints of a day.
+     */
+    public static final int PERIOD_DAY = 1;
+    /**
+     * Rollup of the checkpoints of an ISO week, starting on monday.
+     */
+    public static final int PERIOD_WEEK = 2;
+    /**
+     * Rollup of the checkpoints of a month.
+     */
+    public static final int PERIOD_MONTH = 3;
+    /**
+     * Rollup of the checkpoints of a year.
+     */
+    public static final int PERIOD_YEAR = 4;
+    /**
+     * Number of periods.
+     */
+    static final int PERIOD_COUNT = PERIOD_YEAR + 1;
+
+    /**
+     * strftime arguments giving the start of the bucket of each period, in
+     * the order of the period constants.
+     */
+    private static final String[] BUCKET_FORMATS = {
+            "'%Y-%m-%d %H:00:00', %s",
+            "'%Y-%m-%d 00:00:00', %s",
+            "'%Y-%m-%d 00:00:00', %s, 'weekday 0', '-6 days'",
+            "'%Y-%m-01 00:00:00', %s",
+            "'%Y-01-01 00:00:00', %s",
+    };
+
+    /**
+     * SQL drop table statement.
+     */
+    public static final String SQL_DELETE_ENTRIES =
+            "DROP TABLE IF EXISTS " + JobRollupEntry.TABLE_NAME;
+
+    /**
+     * SQL drop trigger statement.
+     */
+    public static final String SQL_DELETE_TRIGGER =
+            "DROP TRIGGER IF EXISTS " + JobRollupEntry.TRIGGER_NAME;
+
+    /**
+     * SQL statement to create the rollup table.
+     */
+    public static final String SQL_CREATE_ENTRIES =
+            "CREATE TABLE " + JobRollupEntry.TABLE_NAME + " ("
+                    + JobRollupEntry.COLUMN_NAME_PERIOD + " INTEGER NOT NULL, "
+                    + JobRollupEntry.COLUMN_NAME_BUCKET + " TEXT NOT NULL, "
+                    + JobRollupEntry.COLUMN_NAME_DURATION + " INTEGER NOT NULL DEFAULT 0, "
+                    + JobRollupEntry.COLUMN_NAME_CPU_TIME + " INTEGER NOT NULL DEFAULT 0, "
+                    + "PRIMARY KEY (" + JobRollupEntry.COLUMN_NAME_PERIOD + ", "
+                    + JobRollupEntry.COLUMN_NAME_BUCKET + "))";
+
+    /**
+     * SQL statement to create the trigger adding each new checkpoint to the rollups.
+     */
+    public static final String SQL_CREATE_TRIGGER = getCreateTriggerStatement();
+
+    /**
+     * Hours per ms.
+     */
+    private static final double MILLIS_PER_HOUR = 3600000.0;
+
+    /**
+     * Used to format the bucket start.
+     */
+    private static final SimpleDateFormat BUCKET_DATE_FORMAT =
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+    /**
+     * Query used to delete a chunk of the rollups of a period older than a bucket.
+     */
+    private static final String DELETE_CHUNK_QUERY = "DELETE FROM "
+            + JobRollupEntry.TABLE_NAME + " WHERE rowid IN (SELECT rowid FROM "
+            + JobRollupEntry.TABLE_NAME + " WHERE " + JobRollupEntry.COLUMN_NAME_PERIOD
+            + " = ? AND " + JobRollupEntry.COLUMN_NAME_BUCKET + " < ? LIMIT ?)";
+
+    /**
+     * Query used to read the rollups of every period, with the bucket start
+     * in local epoch hours.
+     */
+    private static final String SELECT_HISTORY_QUERY = "SELECT "
+            + JobRollupEntry.COLUMN_NAME_PERIOD + ", strftime('%s', "
+            + JobRollupEntry.COLUMN_NAME_BUCKET + ") / 3600, "
+            + JobRollupEntry.COLUMN_NAME_DURATION + ", " + JobRollupEntry.COLUMN_NAME_CPU_TIME
+            + " FROM " + JobRollupEntry.TABLE_NAME + " ORDER BY "
+            + JobRollupEntry.COLUMN_NAME_PERIOD + ", " + JobRollupEntry.COLUMN_NAME_BUCKET;
+
+    /**
+     * SQL expression of the bucket starting at a local epoch hour parameter.
+     */
+    private static final String BUCKET_FROM_HOUR = "strftime('%Y-%m-%d %H:%M:%S', ? * 3600, "
+            + "'unixepoch')";
+
+    /**
+     * Query used to create a rollup, if it doesn't exist yet.
+     */
+    private static final String INSERT_ROLLUP_QUERY = "INSERT OR IGNORE INTO "
+            + JobRollupEntry.TABLE_NAME + " (" + JobRollupEntry.COLUMN_NAME_PERIOD + ", "
+            + JobRollupEntry.COLUMN_NAME_BUCKET + ") VALUES (?, " + BUCKET_FROM_HOUR + ")";
+
+    /**
+     * Query used to add sums to a rollup.
+     */
+    private static final String ADD_ROLLUP_QUERY = "UPDATE " + JobRollupEntry.TABLE_NAME
+            + " SET " + JobRollupEntry.COLUMN_NAME_DURATION + " = "
+            + JobRollupEntry.COLUMN_NAME_DURATION + " + ?, "
+            + JobRollupEntry.COLUMN_NAME_CPU_TIME + " = "
+            + JobRollupEntry.COLUMN_NAME_CPU_TIME + " + ? WHERE "
+            + JobRollupEntry.COLUMN_NAME_PERIOD + " = ? AND "
+            + JobRollupEntry.COLUMN_NAME_BUCKET + " = " + BUCKET_FROM_HOUR;
+
+    /**
+     * Hours per day.
+     */
+    private static final long HOURS_PER_DAY = 24L;
+
+    /**
+     * One hour in ms.
+     */
+    private static final long HOUR_MILLIS = 3600000L;
+
+    /**
+     * Private constructor.
+     */
+    private JobRollupContract() {
+    }
+
+    /**
+     * Returns the SQL expression of the bucket of a period.
+     *
+     * @param period the period.
+     * @param time   the SQL expression of the checkpoint time.
+     * @return the bucket expression.
+     */
+    private static String getBucket(final int period, final String time) {
+        return "strftime(" + String.format(Locale.US, BUCKET_FORMATS[period], time) + ")";
+    }
+
+    /**
+     * Returns the SQL time value of the local time of a checkpoint.
+     *
+     * @param prefix the prefix of the checkpoint columns.
+     * @return the time value and its modifier.
+     */
+    private static String getLocalTime(final String prefix) {
+        return "(" + prefix + JobCheckpointEntry._ID + " + " + prefix
+                + JobCheckpointEntry.COLUMN_NAME_TZ_OFFSET + ") / 1000, 'unixepoch'";
+    }
+
+    /**
+     * Builds the statement creating the rollup trigger.
+     *
+     * @return the statement.
+     */
+    private static String getCreateTriggerStatement() {
+        final String time = getLocalTime("NEW.");
+        final StringBuilder buckets = new StringBuilder();
+        final StringBuilder where = new StringBuilder();
+        for (int period = 0; period < BUCKET_FORMATS.length; period++) {
+            final String bucket = getBucket(period, time);
+            buckets.append(period == 0 ? "" : ", ")
+                    .append('(').append(period).append(", ").append(bucket).append(')');
+            where.append(period == 0 ? "" : " OR ")
+                    .append('(').append(JobRollupEntry.COLUMN_NAME_PERIOD).append(" = ")
+                    .append(period).append(" AND ").append(JobRollupEntry.COLUMN_NAME_BUCKET)
+                    .append(" = ").append(bucket).append(')');
+        }
+        return "CREATE TRIGGER " + JobRollupEntry.TRIGGER_NAME + " AFTER INSERT ON "
+                + JobCheckpointEntry.TABLE_NAME + " BEGIN "
+                + "INSERT OR IGNORE INTO " + JobRollupEntry.TABLE_NAME + " ("
+                + JobRollupEntry.COLUMN_NAME_PERIOD + ", " + JobRollupEntry.COLUMN_NAME_BUCKET
+                + ") VALUES " + buckets + "; "
+                + "UPDATE " + JobRollupEntry.TABLE_NAME + " SET "
+                + JobRollupEntry.COLUMN_NAME_DURATION + " = "
+                + JobRollupEntry.COLUMN_NAME_DURATION + " + NEW."
+                + JobCheckpointEntry.COLUMN_NAME_DURATION + ", "
+                + JobRollupEntry.COLUMN_NAME_CPU_TIME + " = "
+                + JobRollupEntry.COLUMN_NAME_CPU_TIME + " + NEW."
+                + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + " WHERE " + where + "; END";
+    }
+
+    /**
+     * Rebuilds the rollups from the existing checkpoints. Rollups of
+     * checkpoints already deleted are lost, so this is only run when the
+     * rollup table is created.
+     *
+     * @param db the database, in a transaction.
+     */
+    public static void rebuild(final SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + JobRollupEntry.TABLE_NAME);
+        for (int period = 0; period < BUCKET_FORMATS.length; period++) {
+            db.execSQL("INSERT INTO " + JobRollupEntry.TABLE_NAME + " ("
+                    + JobRollupEntry.COLUMN_NAME_PERIOD + ", "
+                    + JobRollupEntry.COLUMN_NAME_BUCKET + ", "
+                    + JobRollupEntry.COLUMN_NAME_DURATION + ", "
+                    + JobRollupEntry.COLUMN_NAME_CPU_TIME + ") SELECT " + period + ", "
+                    + getBucket(period, getLocalTime("")) + " b, sum("
+                    + JobCheckpointEntry.COLUMN_NAME_DURATION + "), sum("
+                    + JobCheckpointEntry.COLUMN_NAME_CPU_TIME + ") FROM "
+                    + JobCheckpointEntry.TABLE_NAME + " WHERE b IS NOT NULL GROUP BY b");
+        }
+    }
+
+    /**
+     * Removes up to a number of rollups of a period starting before a time.
+     * Runs on the {@link DatabaseExecutor} writer.
+     *
+     * @param period the period.
+     * @param time   the time, in UTC epoch ms.
+     * @param limit  the maximum number of rollups to remove.
+     * @return the number of rollups removed.
+     */
+    static int deleteOlderThan(final int period, final long time, final int limit) {
+        final String bucket;
+        synchronized (BUCKET_DATE_FORMAT) {
+            bucket = BUCKET_DATE_FORMAT.format(new Date(time));
+        }
+        final SQLiteStatement statement = JobDBHelper.getInstance()
+                .getStatement(DELETE_CHUNK_QUERY);
+        synchronized (statement) {
+            statement.bindLong(1, period);
+            statement.bindString(2, bucket);
+            statement.bindLong(3, limit);
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Returns the bucket of a period containing a local hour, computed like
+     * the trigger does.
+     *
+     * @param period   the period.
+     * @param hour     the local time, in epoch hours.
+     * @param calendar a gregorian calendar in UTC, used for months and years.
+     * @return the bucket start, in local epoch hours.
+     */
+    static long getBucketHour(final int period, final long hour, final Calendar calendar) {
+        final long day = hour >= 0 ? hour / HOURS_PER_DAY
+                : (hour - HOURS_PER_DAY + 1) / HOURS_PER_DAY;
+        switch (period) {
+            case PERIOD_HOUR:
+                return hour;
+            case PERIOD_DAY:
+                return day * HOURS_PER_DAY;
+            case PERIOD_WEEK:
+                final int sinceMonday = (ReportSeries.getDayOfWeek(day) - Calendar.MONDAY
+                        + ReportSeries.DAYS_PER_WEEK) % ReportSeries.DAYS_PER_WEEK;
+                return (day - sinceMonday) * HOURS_PER_DAY;
+            default:
+                calendar.setTimeInMillis(day * HOURS_PER_DAY * HOUR_MILLIS);
+                calendar.set(Calendar.DAY_OF_MONTH, 1);
+                if (period == PERIOD_YEAR) {
+                    calendar.set(Calendar.MONTH, Calendar.JANUARY);
+                }
+                return calendar.getTimeInMillis() / HOUR_MILLIS;
+        }
+    }
+
+    /**
+     * Queries the rollups of every period, ordered by period and bucket. The
+     * columns are the period, the bucket start in local epoch hours, the
+     * duration and the CPU time. Runs on the {@link DatabaseExecutor} writer.
+     *
+     * @return the cursor, to be closed by the caller.
+     */
+    static Cursor queryHistory() {
+        return JobDBHelper.getInstance().getDatabase().rawQuery(SELECT_HISTORY_QUERY, null);
+    }
+
+    /**
+     * Adds sums to a rollup, creating it if needed. Runs on the
+     * {@link DatabaseExecutor} writer.
+     *
+     * @param period   the period.
+     * @param hour     the bucket start, in local epoch hours.
+     * @param duration the duration to add.
+     * @param cpuTime  the CPU time to add.
+     */
+    static void addRollup(final int period, final long hour, final long duration,
+                          final long cpuTime) {
+        final JobDBHelper helper = JobDBHelper.getInstance();
+        final SQLiteStatement insert = helper.getStatement(INSERT_ROLLUP_QUERY);
+        synchronized (insert) {
+            insert.bindLong(1, period);
+            insert.bindLong(2, hour);
+            insert.executeInsert();
+        }
+        final SQLiteStatement update = helper.getStatement(ADD_ROLLUP_QUERY);
+        synchronized (update) {
+            update.bindLong(1, duration);
+            update.bindLong(2, cpuTime);
+            update.bindLong(3, period);
+            update.bindLong(4, hour);
+            update.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Fills a series with the report of a data type from the rollups. The
+     * columns are read as numbers, with no date parsing. Runs on a
+     * {@link DatabaseExecutor} reader.
+     *
+     * @param dataType the data type to get the report.
+     * @param series   the series to fill, cleared first. The keys are local
+     *                 epoch days for weekly or monthly reports and years for
+     *                 all time reports.
+     */
+    public static void getReport(final ReportChartFragment.DataType dataType,
+                                 final ReportSeries series) {
+        series.clear();
+
+        final int period;
+        final String key;
+        final String start;
+        //using the start of the day to count the whole first day
+        if (dataType == ReportChartFragment.DataType.WEEK) {
+            period = PERIOD_DAY;
+            key = "strftime('%s', " + JobRollupEntry.COLUMN_NAME_BUCKET + ") / 86400";
+            start = "strftime('%Y-%m-%d 00:00:00', 'now', 'localtime', '-6 days')";
+        } else if (dataType == ReportChartFragment.DataType.MONTH) {
+            period = PERIOD_DAY;
+            key = "strftime('%s', " + JobRollupEntry.COLUMN_NAME_BUCKET + ") / 86400";
+            start = "strftime('%Y-%m-%d 00:00:00', 'now', 'localtime', 'weekday 0', "
+                    + "'-7 days', '-28 days')";
+        } else {
+            period = PERIOD_YEAR;
+            key = "CAST(strftime('%Y', " + JobRollupEntry.COLUMN_NAME_BUCKET + ") AS INTEGER)";
+            start = "''";
+        }
+
+        final String query = "SELECT " + key + ", " + JobRollupEntry.COLUMN_NAME_DURATION
+                + " FROM " + JobRollupEntry.TABLE_NAME
+                + " WHERE " + JobRollupEntry.COLUMN_NAME_PERIOD + " = " + period + " AND "
+                + JobRollupEntry.COLUMN_NAME_BUCKET + " >= " + start
+                + " ORDER BY " + JobRollupEntry.COLUMN_NAME_BUCKET;
+
+        final SQLiteDatabase db = JobDBHelper.getInstance().getDatabase();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(query, null);
+            while (cursor.moveToNext()) {
+                series.add(cursor.getLong(0), (float) (cursor.getLong(1) / MILLIS_PER_HOUR));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Columns of the job_checkpoint_rollup table.
+     */
+    public abstract static class JobRollupEntry {
+        /**
+         * The table name.
+         */
+        public static final String TABLE_NAME = "job_checkpoint_rollup";
+
+        /**
+         * Name of the trigger updating the rollups.
+         */
+        public static final String TRIGGER_NAME = "job_checkpoint_rollup_insert";
+
+        /**
+         * Column name to store the period, one of the PERIOD constants.
+         */
+        public static final String COLUMN_NAME_PERIOD = "period";
+
+        /**
+         * Column name to store the local time the bucket starts.
+         */
+        public static final String COLUMN_NAME_BUCKET = "bucket";
+
+        /**
+         * Column name to store the sum of the checkpoint durations.
+         */
+        public static final String COLUMN_NAME_DURATION = "checkpoint_duration";
+
+        /**
+         * Column name to store the sum of the checkpoint CPU times.
+         */
+        public static final String COLUMN_NAME_CPU_TIME = "cpu_time";
+    }
+}
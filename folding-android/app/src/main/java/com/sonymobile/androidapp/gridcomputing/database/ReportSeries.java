@@ -0,0 +1,176 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.database;
+
+import java.util.Arrays;
+
+/**
+ * A report series held in primitive arrays: the bucket keys, sorted, and
+ * the contributed hours of each bucket. The keys are local epoch days for
+ * the daily buckets and years for the yearly buckets.
+ * <p>
+ * A series is meant to be reused: {@link #clear()} keeps the arrays, so
+ * reloading a report allocates nothing once the arrays are big enough. The
+ * grouping helpers work on local epoch days with plain arithmetic, so the
+ * charts need no {@link java.util.Calendar} or boxed values. A series is
+ * not thread safe.
+ */
+public final class ReportSeries {
+
+    /**
+     * Number of days of a week.
+     */
+    public static final int DAYS_PER_WEEK = 7;
+
+    /**
+     * Day of the week of the epoch day 0, a thursday, in
+     * {@link java.util.Calendar#DAY_OF_WEEK} numbering.
+     */
+    private static final int EPOCH_DAY_OF_WEEK = 5;
+
+    /**
+     * Initial capacity of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Bucket keys.
+     */
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+
+    /**
+     * Contributed hours of each bucket.
+     */
+    private float[] mValues = new float[INITIAL_CAPACITY];
+
+    /**
+     * Number of buckets.
+     */
+    private int mSize;
+
+    /**
+     * Removes all buckets, keeping the arrays.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Appends a bucket. The keys must be appended in ascending order.
+     *
+     * @param key   the bucket key.
+     * @param value the contributed hours.
+     */
+    public void add(final long key, final float value) {
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2);
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        mKeys[mSize] = key;
+        mValues[mSize] = value;
+        mSize++;
+    }
+
+    /**
+     * Returns the number of buckets.
+     *
+     * @return the size.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the key of a bucket.
+     *
+     * @param index the bucket index.
+     * @return the key.
+     */
+    public long getKey(final int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Returns the contributed hours of a bucket.
+     *
+     * @param index the bucket index.
+     * @return the hours.
+     */
+    public float getValue(final int index) {
+        return mValues[index];
+    }
+
+    /**
+     * Returns the sum of the contributed hours.
+     *
+     * @return the hours.
+     */
+    public float getTotal() {
+        float total = 0f;
+        for (int i = 0; i < mSize; i++) {
+            total += mValues[i];
+        }
+        return total;
+    }
+
+    /**
+     * Fills the hours of consecutive days, zero for the days without a bucket.
+     *
+     * @param firstDay the local epoch day of values[0].
+     * @param values   the array to fill, one entry per day.
+     */
+    public void fillDays(final long firstDay, final float[] values) {
+        Arrays.fill(values, 0f);
+        for (int i = 0; i < mSize; i++) {
+            final long day = mKeys[i] - firstDay;
+            if (day >= 0 && day < values.length) {
+                values[(int) day] = mValues[i];
+            }
+        }
+    }
+
+    /**
+     * Groups the daily buckets by week. Each week takes {@link #DAYS_PER_WEEK}
+     * entries of the array, indexed by the day of the week minus one, sunday
+     * first, and zero for the days without a bucket.
+     *
+     * @param firstDayOfWeek the day the weeks start on, in
+     *                       {@link java.util.Calendar#DAY_OF_WEEK} numbering.
+     * @param values         the array to fill; weeks that don't fit are dropped.
+     * @return the number of weeks filled.
+     */
+    public int fillWeeks(final int firstDayOfWeek, final float[] values) {
+        Arrays.fill(values, 0f);
+        int weeks = 0;
+        long weekStart = Long.MIN_VALUE;
+        for (int i = 0; i < mSize; i++) {
+            final long day = mKeys[i];
+            final int dayOfWeek = getDayOfWeek(day);
+            final long start = day - (dayOfWeek - firstDayOfWeek + DAYS_PER_WEEK) % DAYS_PER_WEEK;
+            if (start != weekStart) {
+                if ((weeks + 1) * DAYS_PER_WEEK > values.length) {
+                    break;
+                }
+                weekStart = start;
+                weeks++;
+            }
+            values[(weeks - 1) * DAYS_PER_WEEK + dayOfWeek - 1] = mValues[i];
+        }
+        return weeks;
+    }
+
+    /**
+     * Returns the day of the week of a local epoch day.
+     *
+     * @param day the local epoch day.
+     * @return the day of the week, in {@link java.util.Calendar#DAY_OF_WEEK}
+     * numbering, sunday is 1.
+     */
+    public static int getDayOfWeek(final long day) {
+        final int offset = (int) ((day + EPOCH_DAY_OF_WEEK - 1) % DAYS_PER_WEEK);
+        return (offset < 0 ? offset + DAYS_PER_WEEK : offset) + 1;
+    }
+}
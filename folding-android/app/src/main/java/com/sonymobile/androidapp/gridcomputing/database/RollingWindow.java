@@ -0,0 +1,131 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.database;
+
+/**
+ * Rolling sum of the checkpoint and CPU times over a fixed window, kept in a
+ * ring of time slots. Adding a checkpoint and reading the sums only clear
+ * the slots that left the window since the last call, so both are O(1)
+ * amortized and never touch the database.
+ */
+public final class RollingWindow {
+
+    /**
+     * Checkpoint time of each slot.
+     */
+    private final long[] mTimes;
+    /**
+     * CPU time of each slot.
+     */
+    private final long[] mCpuTimes;
+    /**
+     * Duration of a slot, in ms.
+     */
+    private final long mSlotDuration;
+    /**
+     * Newest slot number, in slot durations since the epoch.
+     */
+    private long mHead;
+    /**
+     * Sum of the checkpoint times in the window.
+     */
+    private long mTime;
+    /**
+     * Sum of the CPU times in the window.
+     */
+    private long mCpuTime;
+
+    /**
+     * The class constructor.
+     *
+     * @param slots        the number of slots.
+     * @param slotDuration the duration of a slot, in ms.
+     */
+    public RollingWindow(final int slots, final long slotDuration) {
+        mTimes = new long[slots];
+        mCpuTimes = new long[slots];
+        mSlotDuration = slotDuration;
+    }
+
+    /**
+     * Adds a checkpoint. Checkpoints older than the window are ignored.
+     *
+     * @param time           the time of the checkpoint, in UTC epoch ms.
+     * @param checkpointTime the checkpoint time.
+     * @param cpuTime        the CPU time used during the checkpoint.
+     */
+    public synchronized void add(final long time, final long checkpointTime,
+                                 final long cpuTime) {
+        final long slot = time / mSlotDuration;
+        advance(slot);
+        if (slot <= mHead - mTimes.length) {
+            return;
+        }
+        final int index = (int) (slot % mTimes.length);
+        mTimes[index] += checkpointTime;
+        mCpuTimes[index] += cpuTime;
+        mTime += checkpointTime;
+        mCpuTime += cpuTime;
+    }
+
+    /**
+     * Returns the sum of the checkpoint times in the window ending now.
+     *
+     * @param now the current time, in UTC epoch ms.
+     * @return the sum of the checkpoint times.
+     */
+    public synchronized long getTime(final long now) {
+        advance(now / mSlotDuration);
+        return mTime;
+    }
+
+    /**
+     * Returns the sum of the CPU times in the window ending now.
+     *
+     * @param now the current time, in UTC epoch ms.
+     * @return the sum of the CPU times.
+     */
+    public synchronized long getCpuTime(final long now) {
+        advance(now / mSlotDuration);
+        return mCpuTime;
+    }
+
+    /**
+     * Removes all checkpoints.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mTimes.length; i++) {
+            mTimes[i] = 0L;
+            mCpuTimes[i] = 0L;
+        }
+        mTime = 0L;
+        mCpuTime = 0L;
+    }
+
+    /**
+     * Moves the window to end at a slot, clearing the slots that left it. A
+     * slot before the current end, after a clock change, keeps the window.
+     *
+     * @param slot the new newest slot.
+     */
+    private void advance(final long slot) {
+        if (slot <= mHead) {
+            return;
+        }
+        if (slot - mHead >= mTimes.length) {
+            clear();
+        } else {
+            for (long i = mHead + 1; i <= slot; i++) {
+                final int index = (int) (i % mTimes.length);
+                mTime -= mTimes[index];
+                mCpuTime -= mCpuTimes[index];
+                mTimes[index] = 0L;
+                mCpuTimes[index] = 0L;
+            }
+        }
+        mHead = slot;
+    }
+}
@@ -9,13 +9,10 @@ package com.sonymobile.androidapp.gridcomputing.fragments;
 import android.content.res.Resources;
 import android.graphics.Color;
 import android.graphics.drawable.GradientDrawable;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
-import android.util.Pair;
-import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -33,7 +30,9 @@ import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.formatter.IAxisValueFormatter;
 import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
 import com.sonymobile.androidapp.gridcomputing.R;
-import com.sonymobile.androidapp.gridcomputing.database.JobCheckpointsContract;
+import com.sonymobile.androidapp.gridcomputing.database.DatabaseExecutor;
+import com.sonymobile.androidapp.gridcomputing.database.JobRollupContract;
+import com.sonymobile.androidapp.gridcomputing.database.ReportSeries;
 import com.sonymobile.androidapp.gridcomputing.log.Log;
 import com.sonymobile.androidapp.gridcomputing.utils.ApplicationData;
 
@@ -41,8 +40,10 @@ import java.text.DateFormatSymbols;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 public class ReportChartFragment extends Fragment {
 
@@ -51,6 +52,13 @@ public class ReportChartFragment extends Fragment {
                                                         0xFFFF9966, 0xFFDE5D83,
                                                         0xFFCD7F32};
 
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final ReportSeries mSeries = new ReportSeries();
+    private final float[] mWeekValues = new float[ReportSeries.DAYS_PER_WEEK];
+    private final float[] mMonthValues =
+            new float[ReportSeries.DAYS_PER_WEEK * CHART_COLORS.length];
+
     private DataType mDataType = DataType.WEEK;
     private TextView mContributedTimeTv;
     private LineChart mChart;
@@ -167,15 +175,16 @@ public class ReportChartFragment extends Fragment {
 
     private void setChartValues() {
         mChart.resetTracking();
-        new AsyncTask<Void, Void, LineData>() {
+        DatabaseExecutor.getInstance().read("report_" + mDataType, new Callable<LineData>() {
 
             @Override
-            protected LineData doInBackground(Void... params) {
+            public LineData call() {
                 return getData();
             }
+        }, new DatabaseExecutor.Callback<LineData>() {
 
             @Override
-            protected void onPostExecute(final LineData data) {
+            public void onResult(final LineData data) {
                 try {
                     mChart.setData(data);
                     mChart.invalidate();
@@ -189,42 +198,45 @@ public class ReportChartFragment extends Fragment {
                     Log.e("Could not update the chart: " + e.getMessage());
                 }
             }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+
+            @Override
+            public void onError(final Exception e) {
+                mProgressBar.setVisibility(View.INVISIBLE);
+            }
+        });
 
     }
 
     /**
-     * Creates a line data set to plot the chart.
+     * Creates a line data set to plot the chart from consecutive values.
      * @param setPosition this dataset position.
      * @param label The label of the data set.
-     * @param array The sparse array containing the data to plot.
+     * @param values The array containing the data to plot.
+     * @param offset The index of the first value of the data set.
+     * @param count The number of values of the data set.
      * @param startValue the value at which the x axis starts.
      * @return a dataset ready to plot.
      */
     private LineDataSet getData(final int setPosition, final String label,
-                                final SparseArray<Double> array,
+                                final float[] values, final int offset, final int count,
                                 final int startValue) {
-        final List<Entry> values = new ArrayList<>();
-
-        final int startIndex = startValue == 0 ? 0 : array.indexOfKey(startValue);
-
-
-        for (int i = startIndex; i < array.size(); i++) {
-            int key = array.keyAt(i);
-            int xValue = startValue == 0 ? key : values.size() + startValue;
-            values.add(new Entry(xValue, array.get(key).floatValue()));
-        }
-        for (int i = 0; i < startIndex; i++) {
-            try {
-                int key = array.keyAt(i);
-                int xValue = startValue == 0 ? key : values.size() + startValue;
-                values.add(new Entry(xValue, array.get(key).floatValue()));
-            } catch (Exception e) {
-                Log.e("Entry at index " + i + " does not exist");
-            }
+        final List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new Entry(startValue + i, values[offset + i]));
         }
+        return getData(setPosition, label, entries);
+    }
 
-        LineDataSet d = new LineDataSet(values, label);
+    /**
+     * Creates a line data set to plot the chart.
+     * @param setPosition this dataset position.
+     * @param label The label of the data set.
+     * @param entries The entries to plot.
+     * @return a dataset ready to plot.
+     */
+    private LineDataSet getData(final int setPosition, final String label,
+                                final List<Entry> entries) {
+        LineDataSet d = new LineDataSet(entries, label);
         d.setLineWidth(2.5f);
         d.setCircleRadius(4f);
         d.setDrawValues(false);
@@ -236,92 +248,36 @@ public class ReportChartFragment extends Fragment {
         return d;
     }
 
-    /**
-     * Groups the original values into a sparse array.
-     * The outer sparse array is indexed by the group field.
-     * The inner sparse array is indexed by the index field.
-     * If groupField and indexField are the same, then the outer sparse array contains only 1 entry
-     * index by 0 and the inner sparse array is indexed by indexField.
-     * @param original the original value returned from the SQL query.
-     * @param groupField the field used to group the outer sparse array.
-     * @param indexField the field used to group the inner sparse array.
-     * @return a bidimensional sparse array indexed by  groupField and indexField.
-     */
-    private SparseArray<SparseArray<Double>> groupValues(
-            final SparseArray<Pair<Date, Double>> original,
-            final int groupField,
-            final int indexField) {
-        final Calendar calendar = Calendar.getInstance();
-        final SparseArray<SparseArray<Double>> weeks = new SparseArray<>();
-
-        for (int i = 0; i < original.size(); i++) {
-            try {
-                final int key = original.keyAt(i);
-
-                calendar.setTime(original.get(key).first);
-                final double value = original.get(key).second;
-
-
-                final int indexValue = calendar.get(indexField);
-                final int groupValue = groupField == indexField ? 0 : calendar.get(groupField);
-
-                SparseArray<Double> currentWeek = weeks.get(groupValue);
-                if (currentWeek == null) {
-                    currentWeek = new SparseArray<>();
-                    weeks.put(groupValue, currentWeek);
-                }
-                currentWeek.put(indexValue, value);
-            } catch (Exception e) {
-                Log.e(e.getMessage());
-            }
-        }
-
-        // normalize the data
-        // if the index field is DAY_OF_WEEK, then we'll add the remaining days to fill
-        // the week from sunday until saturday
-        if (indexField == Calendar.DAY_OF_WEEK) {
-            for (int i = 0; i < weeks.size(); i++) {
-                final int key = weeks.keyAt(i);
-                SparseArray<Double> currentWeek = weeks.get(key);
-                for (int j = Calendar.SUNDAY; j <= Calendar.SATURDAY; j++) {
-                    if (currentWeek.get(j) == null) {
-                        currentWeek.put(j, 0.0);
-                    }
-                }
-            }
-        }
-
-        return weeks;
-    }
-
-    private LineData getData() {
+    // Synchronized as the reports reuse the series and may load on two reader threads.
+    private synchronized LineData getData() {
         ArrayList<ILineDataSet> dataSets = new ArrayList<>();
-        final SparseArray<Pair<Date, Double>> sparseArray = JobCheckpointsContract
-                .getHourlyReport(mDataType);
+        JobRollupContract.getReport(mDataType, mSeries);
+        if (mSeries.size() == 0) {
+            return new LineData(dataSets);
+        }
 
         if (mDataType == DataType.WEEK) {
-            final SparseArray<SparseArray<Double>> weeksDays = groupValues(sparseArray,
-                                                                           0,
-                                                                           Calendar.DAY_OF_WEEK);
-            if (weeksDays.size() > 0) {
-                final Calendar calendar = Calendar.getInstance();
-                calendar.add(Calendar.DATE, 1);
-                final int startValue = calendar.get(Calendar.DAY_OF_WEEK);
-                dataSets.add(getData(0, "", weeksDays.get(weeksDays.keyAt(0)), startValue));
-            }
+            // The last 7 days, ending today.
+            final long now = System.currentTimeMillis();
+            final long today = (now + TimeZone.getDefault().getOffset(now)) / DAY_MILLIS;
+            final long firstDay = today - ReportSeries.DAYS_PER_WEEK + 1;
+            mSeries.fillDays(firstDay, mWeekValues);
+            dataSets.add(getData(0, "", mWeekValues, 0, ReportSeries.DAYS_PER_WEEK,
+                                 ReportSeries.getDayOfWeek(firstDay)));
         } else if (mDataType == DataType.MONTH) {
-            final SparseArray<SparseArray<Double>> weeksInMonth =
-                    groupValues(sparseArray, Calendar.WEEK_OF_YEAR, Calendar.DAY_OF_WEEK);
-            for (int i = 0; i < weeksInMonth.size(); i++) {
+            final int weeks = mSeries.fillWeeks(Calendar.getInstance().getFirstDayOfWeek(),
+                                                mMonthValues);
+            for (int i = 0; i < weeks; i++) {
                 final String label = getString(R.string.chart_week_label, i + 1);
-                dataSets.add(getData(i, label, weeksInMonth.get(weeksInMonth.keyAt(i)), 0));
+                dataSets.add(getData(i, label, mMonthValues, i * ReportSeries.DAYS_PER_WEEK,
+                                     ReportSeries.DAYS_PER_WEEK, Calendar.SUNDAY));
             }
         } else if (mDataType == DataType.ALL_TIME) {
-            final SparseArray<SparseArray<Double>> years =
-                    groupValues(sparseArray, Calendar.YEAR, Calendar.YEAR);
-            if (years.size() > 0) {
-                dataSets.add(getData(0, "", years.get(years.keyAt(0)), 0));
+            final List<Entry> entries = new ArrayList<>(mSeries.size());
+            for (int i = 0; i < mSeries.size(); i++) {
+                entries.add(new Entry(mSeries.getKey(i), mSeries.getValue(i)));
             }
+            dataSets.add(getData(0, "", entries));
         }
 
         return new LineData(dataSets);
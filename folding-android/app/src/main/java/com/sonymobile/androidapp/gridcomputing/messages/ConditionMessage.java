@@ -13,29 +13,34 @@ import java.util.List;
  * Message sent using the Event bus to notify that the conditions has changed.
  */
 public class ConditionMessage {
+    /**
+     * Set of not met conditions, one bit per {@link ConditionType#getMask()}.
+     */
+    private final int mNotMetMask;
     /**
      * List of not met conditions.
      */
-    private List<ConditionType> mNotMetConditions;
+    private final List<ConditionType> mNotMetConditions;
     /**
      * true if the service must stop immediately.
      */
-    private boolean mHardStop;
+    private final boolean mHardStop;
     /**
      * true if the service must stop gracefully.
      */
-    private boolean mSoftStop;
+    private final boolean mSoftStop;
 
     /**
      * Default constructor.
      *
-     * @param notMetConditions list of not met conditions.
-     * @param hardStop         true if the service must stop immediately.
-     * @param softStop         true if the service must stop gracefully.
+     * @param notMetMask set of not met conditions.
+     * @param hardStop   true if the service must stop immediately.
+     * @param softStop   true if the service must stop gracefully.
      */
-    public ConditionMessage(final List<ConditionType> notMetConditions,
-                            final boolean hardStop, final boolean softStop) {
-        this.mNotMetConditions = notMetConditions;
+    public ConditionMessage(final int notMetMask, final boolean hardStop,
+                            final boolean softStop) {
+        this.mNotMetMask = notMetMask;
+        this.mNotMetConditions = ConditionType.toList(notMetMask);
         this.mHardStop = hardStop;
         this.mSoftStop = softStop;
     }
@@ -43,12 +48,31 @@ public class ConditionMessage {
     /**
      * Gets the list of not met conditions.
      *
-     * @return list of not met conditions.
+     * @return unmodifiable list of not met conditions.
      */
     public final List<ConditionType> getNotMetConditions() {
         return mNotMetConditions;
     }
 
+    /**
+     * Gets the set of not met conditions.
+     *
+     * @return the set of not met conditions, one bit per condition.
+     */
+    public final int getNotMetMask() {
+        return mNotMetMask;
+    }
+
+    /**
+     * Checks if a condition is not met.
+     *
+     * @param condition the condition.
+     * @return true if the condition is not met.
+     */
+    public final boolean isNotMet(final ConditionType condition) {
+        return condition.isIn(mNotMetMask);
+    }
+
     /**
      * Checks if the service must stop immediately.
      *
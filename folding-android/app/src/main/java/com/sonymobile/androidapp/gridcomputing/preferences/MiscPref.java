@@ -40,6 +40,23 @@ public final class MiscPref {
      * minimum plateau level.
      */
     public static final String LAST_BATTERY_PLATEAU_TIME = "LAST_BATTERY_PLATEAU_TIME_KEY";
+    /**
+     * Shared preferences key for the UUIDs of the installations whose history was imported.
+     */
+    public static final String IMPORTED_HISTORY_KEY = "IMPORTED_HISTORY_KEY";
+    /**
+     * Shared preferences key for the UUID of the installation whose rollups are being imported.
+     */
+    public static final String IMPORTING_HISTORY_KEY = "IMPORTING_HISTORY_KEY";
+    /**
+     * Shared preferences key for the number of rollups already imported from
+     * {@link #IMPORTING_HISTORY_KEY}.
+     */
+    public static final String IMPORTED_ROLLUPS_KEY = "IMPORTED_ROLLUPS_KEY";
+    /**
+     * Separator of the imported history UUIDs.
+     */
+    private static final String IMPORTED_HISTORY_SEPARATOR = ",";
 
     private MiscPref() { }
 
@@ -119,4 +136,57 @@ public final class MiscPref {
     public static void setLastBatteryPlateauTime(final long time) {
         PrefUtils.setLongValue(PREF_FILE, LAST_BATTERY_PLATEAU_TIME, time);
     }
+
+    /**
+     * Checks if the history of an installation was imported.
+     *
+     * @param uuid the UUID of the installation.
+     * @return true if the history was imported.
+     */
+    public static boolean isHistoryImported(final String uuid) {
+        final String imported = PrefUtils.getStringValue(PREF_FILE, IMPORTED_HISTORY_KEY, "");
+        for (String importedUuid : TextUtils.split(imported, IMPORTED_HISTORY_SEPARATOR)) {
+            if (importedUuid.equals(uuid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that the history of an installation was imported.
+     *
+     * @param uuid the UUID of the installation.
+     */
+    public static void setHistoryImported(final String uuid) {
+        final String imported = PrefUtils.getStringValue(PREF_FILE, IMPORTED_HISTORY_KEY, "");
+        PrefUtils.setStringValue(PREF_FILE, IMPORTED_HISTORY_KEY, TextUtils.isEmpty(imported)
+                ? uuid : imported + IMPORTED_HISTORY_SEPARATOR + uuid);
+        setImportedRollups("", 0);
+    }
+
+    /**
+     * Gets the number of rollups of an installation stored by an import that
+     * didn't complete.
+     *
+     * @param uuid the UUID of the installation.
+     * @return the number of rollups, 0 if none.
+     */
+    public static int getImportedRollups(final String uuid) {
+        if (!uuid.equals(PrefUtils.getStringValue(PREF_FILE, IMPORTING_HISTORY_KEY, ""))) {
+            return 0;
+        }
+        return PrefUtils.getIntValue(PREF_FILE, IMPORTED_ROLLUPS_KEY);
+    }
+
+    /**
+     * Records the number of rollups of an installation stored so far.
+     *
+     * @param uuid  the UUID of the installation.
+     * @param count the number of rollups.
+     */
+    public static void setImportedRollups(final String uuid, final int count) {
+        PrefUtils.setStringValue(PREF_FILE, IMPORTING_HISTORY_KEY, uuid);
+        PrefUtils.setIntValue(PREF_FILE, IMPORTED_ROLLUPS_KEY, count);
+    }
 }
@@ -17,6 +17,14 @@ public final class RunningPref {
      * Shared preferences key for the accumulated folding time.
      */
     public static final String ACCUMULATED_TIME_KEY = "ACCUMULATED_TIME_KEY";
+    /**
+     * Shared preferences key prefix for the accumulated folding time of each worker.
+     */
+    public static final String WORKER_ACCUMULATED_TIME_KEY = "WORKER_ACCUMULATED_TIME_KEY_";
+    /**
+     * Shared preferences key for the accumulated CPU time of the compute processes.
+     */
+    public static final String ACCUMULATED_CPU_TIME_KEY = "ACCUMULATED_CPU_TIME_KEY";
 
     /**
      * Constant for the minimum number of users using Folding@Home app.
@@ -72,6 +80,48 @@ public final class RunningPref {
         PrefUtils.setLongValue(PREF_FILE, ACCUMULATED_TIME_KEY, getAccumulatedTime() + time);
     }
 
+    /**
+     * Returns the CPU time used by the compute processes.
+     *
+     * @return the accumulated CPU time in ms.
+     */
+    public static long getAccumulatedCpuTime() {
+        return PrefUtils.getLongValue(PREF_FILE, ACCUMULATED_CPU_TIME_KEY, 0L);
+    }
+
+    /**
+     * Increments the CPU time used by the compute processes.
+     *
+     * @param time amount of CPU time to increment, in ms.
+     */
+    public static void incrementAccumulatedCpuTime(final long time) {
+        PrefUtils.setLongValue(PREF_FILE, ACCUMULATED_CPU_TIME_KEY,
+                getAccumulatedCpuTime() + time);
+    }
+
+    /**
+     * Returns the accumulated folding time of a single worker.
+     *
+     * @param worker the worker id.
+     * @return the worker accumulated folding time.
+     */
+    public static long getWorkerAccumulatedTime(final int worker) {
+        return PrefUtils.getLongValue(PREF_FILE, WORKER_ACCUMULATED_TIME_KEY + worker, 0L);
+    }
+
+    /**
+     * Increments the accumulated time of a single worker by the specified
+     * amount of time. The user accumulated folding time is incremented
+     * separately, once for all workers.
+     *
+     * @param worker the worker id.
+     * @param time   amount of time to increment on the accumulated time.
+     */
+    public static void incrementWorkerAccumulatedTime(final int worker, final long time) {
+        PrefUtils.setLongValue(PREF_FILE, WORKER_ACCUMULATED_TIME_KEY + worker,
+                getWorkerAccumulatedTime(worker) + time);
+    }
+
     /**
      * Gets the number of users contributing.
      *
@@ -8,11 +8,18 @@ package com.sonymobile.androidapp.gridcomputing.preferences;
 
 import com.sonymobile.androidapp.gridcomputing.service.ServiceManager;
 
+import java.util.concurrent.TimeUnit;
+
 public final class SettingsPref {
     public static final String PREF_FILE = "settings_pref";
     public static final String EXECUTION_ENABLED_KEY = "EXECUTION_ENABLED_KEY";
     public static final String PAUSE_TIME_KEY = "PAUSE_TIME_KEY";
     public static final String HAS_EXECUTED_KEY = "HAS_EXECUTED_KEY";
+    public static final String WORKER_POOL_ENABLED_KEY = "WORKER_POOL_ENABLED_KEY";
+    public static final String FREEZE_GRACE_PERIOD_KEY = "FREEZE_GRACE_PERIOD_KEY";
+    public static final String WARM_STANDBY_ENABLED_KEY = "WARM_STANDBY_ENABLED_KEY";
+    public static final String PROTOCOL_TRACE_ENABLED_KEY = "PROTOCOL_TRACE_ENABLED_KEY";
+    public static final long DEFAULT_FREEZE_GRACE_PERIOD = TimeUnit.MINUTES.toMillis(5);
 
     private SettingsPref() { }
 
@@ -73,4 +80,83 @@ public final class SettingsPref {
     public static boolean hasExecuted() {
         return PrefUtils.getBooleanValue(PREF_FILE, HAS_EXECUTED_KEY, false);
     }
+
+    /**
+     * Checks if the jobs should run on a pool of workers, one per available
+     * core, instead of a single worker.
+     *
+     * @return true if the worker pool is enabled.
+     */
+    public static boolean isWorkerPoolEnabled() {
+        return PrefUtils.getBooleanValue(PREF_FILE, WORKER_POOL_ENABLED_KEY, false);
+    }
+
+    /**
+     * Enables or disables the worker pool. Takes effect the next time the
+     * compute service starts.
+     *
+     * @param enabled true to enable the worker pool.
+     */
+    public static void setWorkerPoolEnabled(final boolean enabled) {
+        PrefUtils.setBooleanValue(PREF_FILE, WORKER_POOL_ENABLED_KEY, enabled);
+    }
+
+    /**
+     * Returns for how long (in milis) a soft stopped job stays frozen in
+     * memory before it is killed.
+     *
+     * @return the freeze grace period.
+     */
+    public static long getFreezeGracePeriod() {
+        return PrefUtils.getLongValue(PREF_FILE, FREEZE_GRACE_PERIOD_KEY,
+                DEFAULT_FREEZE_GRACE_PERIOD);
+    }
+
+    /**
+     * Sets for how long (in milis) a soft stopped job stays frozen in memory
+     * before it is killed.
+     *
+     * @param time the freeze grace period.
+     */
+    public static void setFreezeGracePeriod(final long time) {
+        PrefUtils.setLongValue(PREF_FILE, FREEZE_GRACE_PERIOD_KEY, time);
+    }
+
+    /**
+     * Checks if a client process should be kept parked at the key handshake
+     * while the conditions are not met, so jobs start faster.
+     *
+     * @return true if the warm standby is enabled.
+     */
+    public static boolean isWarmStandbyEnabled() {
+        return PrefUtils.getBooleanValue(PREF_FILE, WARM_STANDBY_ENABLED_KEY, false);
+    }
+
+    /**
+     * Enables or disables the warm standby.
+     *
+     * @param enabled true to enable the warm standby.
+     */
+    public static void setWarmStandbyEnabled(final boolean enabled) {
+        PrefUtils.setBooleanValue(PREF_FILE, WARM_STANDBY_ENABLED_KEY, enabled);
+    }
+
+    /**
+     * Checks if the bytes exchanged with the client process should be
+     * recorded to a trace file. Only used by debug builds.
+     *
+     * @return true if the protocol trace is enabled.
+     */
+    public static boolean isProtocolTraceEnabled() {
+        return PrefUtils.getBooleanValue(PREF_FILE, PROTOCOL_TRACE_ENABLED_KEY, false);
+    }
+
+    /**
+     * Enables or disables the protocol trace.
+     *
+     * @param enabled true to enable the protocol trace.
+     */
+    public static void setProtocolTraceEnabled(final boolean enabled) {
+        PrefUtils.setBooleanValue(PREF_FILE, PROTOCOL_TRACE_ENABLED_KEY, enabled);
+    }
 }
@@ -12,6 +12,7 @@ import android.content.Intent;
 
 import com.sonymobile.androidapp.gridcomputing.preferences.MiscPref;
 import com.sonymobile.androidapp.gridcomputing.preferences.SettingsPref;
+import com.sonymobile.androidapp.gridcomputing.service.ConditionJobService;
 import com.sonymobile.androidapp.gridcomputing.service.ServiceManager;
 import com.sonymobile.androidapp.gridcomputing.utils.AlarmUtils;
 
@@ -25,7 +26,7 @@ public class BootupReceiver extends BroadcastReceiver {
         if (intent.getAction().equalsIgnoreCase(Intent.ACTION_BOOT_COMPLETED)) {
             if (MiscPref.getWizardFinished()) {
                 ServiceManager.verifyConditionsAndStartService();
-                AlarmUtils.createAlarm(AlarmUtils.AlarmType.REPEAT_1_MIN);
+                ConditionJobService.schedule(context);
                 checkPausedApp();
             }
         }
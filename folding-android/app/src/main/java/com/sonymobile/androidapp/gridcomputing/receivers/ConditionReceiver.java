@@ -0,0 +1,27 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.receivers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.service.ConditionJobService;
+
+/**
+ * Wakes the app on the power and connectivity broadcasts to verify the
+ * conditions. Only enabled before Lollipop, where the
+ * {@link ConditionJobService} can't be scheduled.
+ */
+public final class ConditionReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        Log.d("ConditionReceiver > action: " + intent.getAction());
+        ConditionJobService.verifyConditions();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thread that drains the log output of the client.js, so a chatty job never
+ * blocks on a full pipe nor delays the control messages. Only the most recent
+ * lines are kept in memory, and lines longer than {@link #MAX_LINE_LENGTH} are
+ * truncated.
+ */
+public class ClientLogDrain extends Thread {
+
+    /**
+     * Longest line kept, in bytes.
+     */
+    public static final int MAX_LINE_LENGTH = 1024;
+
+    /**
+     * Encode.
+     */
+    private static final String CHARSET = "UTF-8";
+    /**
+     * Size of the read buffer.
+     */
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    /**
+     * The client log stream.
+     */
+    private final InputStream mInput;
+    /**
+     * Ring with the most recent lines.
+     */
+    private final String[] mRecentLines;
+    /**
+     * Next position to write in the ring.
+     */
+    private int mNextLine;
+    /**
+     * Number of lines in the ring.
+     */
+    private int mLineCount;
+
+    /**
+     * The class constructor.
+     *
+     * @param input    the client log stream.
+     * @param capacity how many recent lines to keep.
+     */
+    public ClientLogDrain(final InputStream input, final int capacity) {
+        super("client-log-drain");
+        mInput = input;
+        mRecentLines = new String[capacity];
+        setDaemon(true);
+    }
+
+    /**
+     * Returns the most recent lines, oldest first.
+     *
+     * @return a copy of the recent lines.
+     */
+    public synchronized List<String> getRecentLines() {
+        final List<String> lines = new ArrayList<>(mLineCount);
+        final int first = (mNextLine - mLineCount + mRecentLines.length) % mRecentLines.length;
+        for (int i = 0; i < mLineCount; i++) {
+            lines.add(mRecentLines[(first + i) % mRecentLines.length]);
+        }
+        return lines;
+    }
+
+    @Override
+    public void run() {
+        final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        final byte[] line = new byte[MAX_LINE_LENGTH];
+        int lineLength = 0;
+        try {
+            int count;
+            while ((count = mInput.read(buffer)) >= 0) {
+                for (int i = 0; i < count; i++) {
+                    final byte b = buffer[i];
+                    if (b == '\n') {
+                        addLine(line, lineLength);
+                        lineLength = 0;
+                    } else if (lineLength < line.length) {
+                        line[lineLength++] = b;
+                    }
+                }
+            }
+            if (lineLength > 0) {
+                addLine(line, lineLength);
+            }
+        } catch (final IOException e) {
+            Log.d("Client log closed: " + e.getLocalizedMessage());
+        } finally {
+            try {
+                mInput.close();
+            } catch (final IOException e) {
+                Log.e(e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Keeps a line in the ring.
+     *
+     * @param bytes  the line bytes.
+     * @param length the line length.
+     */
+    private void addLine(final byte[] bytes, final int length) {
+        try {
+            addLine(new String(bytes, 0, length, CHARSET));
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Keeps a line in the ring. The lines are not logged one by one, they
+     * are read with {@link #getRecentLines()} when needed.
+     *
+     * @param line the line.
+     */
+    public synchronized void addLine(final String line) {
+        mRecentLines[mNextLine] = line;
+        mNextLine = (mNextLine + 1) % mRecentLines.length;
+        if (mLineCount < mRecentLines.length) {
+            mLineCount++;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import com.sonymobile.androidapp.gridcomputing.database.CheckpointRetention;
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.utils.AlarmUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the {@link CheckpointRetention} compaction once a day while the
+ * device is idle and charging. Before Lollipop, where there is no job
+ * scheduler, a daily alarm runs it if the device is charging with the
+ * screen off.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CompactionJobService extends JobService {
+
+    /**
+     * Id of the compaction job.
+     */
+    private static final int JOB_ID = 147860;
+
+    /**
+     * Interval between compactions.
+     */
+    private static final long COMPACTION_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Set when the job must stop.
+     */
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+    /**
+     * Schedules the daily compaction, if it is not scheduled yet.
+     *
+     * @param context the context.
+     */
+    public static void schedule(final Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            if (!AlarmUtils.isAlarmSet(AlarmUtils.AlarmType.REPEAT_COMPACTION)) {
+                AlarmUtils.createAlarm(AlarmUtils.AlarmType.REPEAT_COMPACTION);
+            }
+            return;
+        }
+        final JobScheduler scheduler = (JobScheduler)
+                context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, CompactionJobService.class))
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(COMPACTION_INTERVAL)
+                .setPersisted(true)
+                .build());
+        Log.d("Compaction > job scheduled");
+    }
+
+    /**
+     * Runs the compaction from the fallback alarm, on a background thread,
+     * if the device is charging with the screen off.
+     *
+     * @param context the context.
+     * @param result  the pending result of the alarm broadcast.
+     */
+    @SuppressWarnings("deprecation")
+    public static void compactIfIdle(final Context context,
+                                     final BroadcastReceiver.PendingResult result) {
+        final Intent battery = context.getApplicationContext().registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        final boolean charging = battery != null
+                && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        final PowerManager power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (!charging || power.isScreenOn()) {
+            Log.d("Compaction > device busy, skipped");
+            result.finish();
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CheckpointRetention.fromResources(context.getResources())
+                            .compact(new AtomicBoolean());
+                } finally {
+                    result.finish();
+                }
+            }
+        }, "compaction").start();
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mCancelled.set(false);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // A failed compaction is retried, and always releases the job wake lock.
+                boolean finished = false;
+                try {
+                    finished = CheckpointRetention.fromResources(getResources())
+                            .compact(mCancelled);
+                } finally {
+                    jobFinished(params, !finished);
+                }
+            }
+        }, "compaction").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(final JobParameters params) {
+        // The device is no longer idle or charging: stop after the current chunk.
+        mCancelled.set(true);
+        return true;
+    }
+}
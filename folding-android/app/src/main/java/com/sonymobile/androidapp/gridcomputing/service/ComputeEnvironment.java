@@ -6,34 +6,112 @@
 package com.sonymobile.androidapp.gridcomputing.service;
 
 import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 
+import com.sonymobile.androidapp.gridcomputing.BuildConfig;
 import com.sonymobile.androidapp.gridcomputing.assets.CopyAssets;
+import com.sonymobile.androidapp.gridcomputing.database.JobLedger;
+import com.sonymobile.androidapp.gridcomputing.database.JobLedgerContract;
 import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.preferences.SettingsPref;
 import com.sonymobile.androidapp.gridcomputing.utils.JSONUtils;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.json.JSONObject;
 
 /**
  * Class responsible for executing the node.
  */
-public class ComputeEnvironment {
+public class ComputeEnvironment implements ControlChannel.Listener {
 
     /**
      * LD library path.
      */
     private static final String LD_LIBRARY_PATH = "LD_LIBRARY_PATH";
+    /**
+     * Environment variable with the directory where the client.js keeps the job state.
+     */
+    private static final String GCOMP_WORKDIR = "GCOMP_WORKDIR";
+    /**
+     * Directory, inside the exec dir, holding the state of the additional workers.
+     */
+    private static final String WORKERS_DIR = "workers";
+    /**
+     * Directory, inside the files dir, holding the protocol traces.
+     */
+    private static final String TRACES_DIR = "traces";
     /**
      * Encode.
      */
     private static final String CHARSET = "UTF-8";
+    /**
+     * Number of client log lines kept for diagnostics.
+     */
+    static final int RECENT_LOG_LINES = 64;
+    /**
+     * How long to wait for the process to exit once its output is closed.
+     */
+    private static final long EXIT_WAIT_TIME = 2000L;
+    /**
+     * Interval between checks of the process exit.
+     */
+    private static final long EXIT_POLL_INTERVAL = 100L;
+    /**
+     * True if the exit value of a signaled process is the raw signal number.
+     */
+    private static final boolean RAW_SIGNAL_EXIT_CODES =
+            Build.VERSION.SDK_INT < Build.VERSION_CODES.N;
+    /**
+     * Protocol features supported by the host.
+     */
+    private static final List<String> SUPPORTED_FEATURES = Collections.unmodifiableList(
+            Arrays.asList(ControlProtocol.FEATURE_FRAMING, ControlProtocol.FEATURE_FREEZE,
+                    ControlProtocol.FEATURE_HEARTBEAT));
+    /**
+     * Missed heartbeats after which the client is considered stuck.
+     */
+    private static final int MISSED_HEARTBEATS = 3;
+    /**
+     * Time given to a stuck client to handle the kill before it is destroyed.
+     */
+    private static final long HANG_KILL_GRACE_PERIOD = 30000L;
+    /**
+     * Time the freeze wake lock is held past the grace period, in case the
+     * timeout runnable doesn't release it.
+     */
+    private static final long GRACE_LOCK_MARGIN = 10000L;
+    /**
+     * The continue message encoded as a JSON line.
+     */
+    private static final byte[] JSON_CONTINUE =
+            encode(EnvironmentMessenger.getJsonResumeJobClient());
+    /**
+     * The freeze message encoded as a JSON line.
+     */
+    private static final byte[] JSON_FREEZE = encode(EnvironmentMessenger.getJsonFreezeClient());
+    /**
+     * The SIGTERM kill message encoded as a JSON line.
+     */
+    private static final byte[] JSON_KILL_TERM =
+            encode(EnvironmentMessenger.getJsonKillClient(false));
+    /**
+     * The SIGKILL kill message encoded as a JSON line.
+     */
+    private static final byte[] JSON_KILL_KILL =
+            encode(EnvironmentMessenger.getJsonKillClient(true));
 
     /**
      * Context.
@@ -43,6 +121,10 @@ public class ComputeEnvironment {
      * Job execution listener.
      */
     private final JobExecutionListener mJobExecutionListener;
+    /**
+     * The worker id, 0 for the first worker.
+     */
+    private final int mWorker;
     /**
      * Wake lock.
      */
@@ -50,7 +132,124 @@ public class ComputeEnvironment {
     /**
      * Process.
      */
-    private Process mExecProccess;
+    private volatile Process mExecProccess;
+    /**
+     * True when the client accepted the framed protocol.
+     */
+    private volatile boolean mFramed;
+    /**
+     * Protocol features accepted by the client.
+     */
+    private volatile List<String> mFeatures = Collections.emptyList();
+    /**
+     * True while the job is frozen.
+     */
+    private volatile boolean mFrozen;
+    /**
+     * True while the conditions let the job run.
+     */
+    private volatile boolean mActive = true;
+    /**
+     * True while the thermal throttle holds the job.
+     */
+    private volatile boolean mThrottled;
+    /**
+     * Time the thermal throttle froze the job, -1 while it is not frozen by it.
+     */
+    private long mThrottleStartTime = -1L;
+    /**
+     * Time the job was frozen by the thermal throttle not taken yet.
+     */
+    private long mThrottledTime;
+    /**
+     * Handler used to kill a job frozen for too long and to run the hang watchdog.
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Keeps the device awake during the freeze grace period. The handler
+     * runs on uptime, so without it the grace period wouldn't elapse while
+     * the device sleeps and a frozen job would keep its memory far longer.
+     */
+    private final PowerManager.WakeLock mGraceLock;
+    /**
+     * Kills the job when the freeze grace period ends.
+     */
+    private final Runnable mFreezeTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d("Freeze grace period over, killing worker " + mWorker);
+            stopJob(false);
+            if (mGraceLock.isHeld()) {
+                mGraceLock.release();
+            }
+        }
+    };
+    /**
+     * Checks that the client keeps sending heartbeats. The handler and the
+     * channel both run on uptime, so the time the device sleeps is ignored.
+     */
+    private final Runnable mWatchdogRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final ControlChannel channel = mChannel;
+            final Process process = mExecProccess;
+            if (channel == null || process == null) {
+                return;
+            }
+            final long silence = SystemClock.uptimeMillis() - channel.getLastMessageTime();
+            if (silence < ControlProtocol.HEARTBEAT_INTERVAL * MISSED_HEARTBEATS) {
+                mHandler.postDelayed(this, ControlProtocol.HEARTBEAT_INTERVAL);
+            } else if (!mHung) {
+                Log.e("Worker " + mWorker + " sent no heartbeat for " + silence + " ms, killing");
+                mHung = true;
+                sendState(ControlProtocol.getKillFrame(false), JSON_KILL_TERM);
+                mHandler.postDelayed(this, HANG_KILL_GRACE_PERIOD);
+            } else {
+                Log.e("Worker " + mWorker + " is stuck, destroying it");
+                process.destroy();
+            }
+        }
+    };
+    /**
+     * Drains the client log output.
+     */
+    private volatile ClientLogDrain mLogDrain;
+    /**
+     * Reads the client control messages.
+     */
+    private volatile ControlChannel mChannel;
+    /**
+     * Writes the messages sent to the client.
+     */
+    private volatile ControlWriter mWriter;
+    /**
+     * Samples the CPU time used by the client process tree.
+     */
+    private volatile ProcessCpuSampler mCpuSampler;
+    /**
+     * True when the watchdog found the client stuck.
+     */
+    private volatile boolean mHung;
+    /**
+     * Failure history of the client process.
+     */
+    private final ProcessSupervisor mSupervisor = new ProcessSupervisor();
+    /**
+     * The thread running the client process.
+     */
+    private volatile Thread mJobThread;
+    /**
+     * True when the host asked the client to stop, so its exit is not a failure.
+     */
+    private volatile boolean mStopRequested;
+    /**
+     * True when the client acknowledged the kill.
+     */
+    private volatile boolean mClientKilled;
+    /**
+     * Exit code of the last process.
+     */
+    private int mExitCode;
 
     /**
      * The class constructor.
@@ -60,34 +259,113 @@ public class ComputeEnvironment {
      */
     public ComputeEnvironment(final Context context,
                               final JobExecutionListener listener) {
+        this(context, listener, 0);
+    }
+
+    /**
+     * The class constructor.
+     *
+     * @param context  the context.
+     * @param listener the listener.
+     * @param worker   the worker id, 0 for the first worker.
+     */
+    public ComputeEnvironment(final Context context,
+                              final JobExecutionListener listener,
+                              final int worker) {
         mContext = context;
         mJobExecutionListener = listener;
+        mWorker = worker;
         mActiveLock = ((PowerManager) context
                 .getSystemService(Context.POWER_SERVICE)).newWakeLock(
-                PowerManager.PARTIAL_WAKE_LOCK, "compute-running");
+                PowerManager.PARTIAL_WAKE_LOCK,
+                worker == 0 ? "compute-running" : "compute-running-" + worker);
+        mGraceLock = ((PowerManager) context
+                .getSystemService(Context.POWER_SERVICE)).newWakeLock(
+                PowerManager.PARTIAL_WAKE_LOCK, "compute-frozen-" + worker);
+        mGraceLock.setReferenceCounted(false);
+    }
+
+    /**
+     * Returns the worker id.
+     *
+     * @return the worker id, 0 for the first worker.
+     */
+    public int getWorker() {
+        return mWorker;
+    }
+
+    /**
+     * Checks if the client process is running.
+     *
+     * @return true if the process is running.
+     */
+    public boolean isRunning() {
+        return mExecProccess != null;
+    }
+
+    /**
+     * Returns the CPU time used by the client process and its job since the
+     * previous call.
+     *
+     * @return the CPU time in ms.
+     */
+    public long takeCpuTimeDelta() {
+        final ProcessCpuSampler sampler = mCpuSampler;
+        return sampler == null ? 0L : sampler.takeCpuTimeDelta();
+    }
+
+    /**
+     * Returns how many times the client process was restarted after a failure.
+     *
+     * @return the restart count.
+     */
+    public int getRestartCount() {
+        return mSupervisor.getRestartCount();
     }
 
     /**
-     * Starts the process.
+     * Returns the mean run time of the client process between failures.
      *
+     * @return the mean time between failures in ms or -1 if it never failed.
+     */
+    public long getMeanTimeBetweenFailures() {
+        return mSupervisor.getMeanTimeBetweenFailures();
+    }
+
+    /**
+     * Starts the client process of a worker.
+     *
+     * @param context the context.
+     * @param worker  the worker id, 0 for the first worker.
      * @return the process.
      * @throws IOException the io exception.
      */
-    private Process startProcess() throws IOException {
+    static Process startProcess(final Context context, final int worker) throws IOException {
         ProcessBuilder processBuilder;
-        final File dir = mContext.getDir(CopyAssets.EXEC_DIR, Context.MODE_PRIVATE);
-        final String gcompExecDir = mContext.getApplicationInfo().nativeLibraryDir;
+        final File dir = context.getDir(CopyAssets.EXEC_DIR, Context.MODE_PRIVATE);
+        final String gcompExecDir = context.getApplicationInfo().nativeLibraryDir;
         final String gcompExecFile = gcompExecDir + "/" + CopyAssets.GCOMP;
         processBuilder = new ProcessBuilder(gcompExecFile, CopyAssets.CLIENT_JS_FILE);
 
         processBuilder.directory(dir);
-        processBuilder.redirectErrorStream(true);
-
+        // The client.js writes its logs to stderr, keeping stdout for the
+        // control messages only.
+        processBuilder.redirectErrorStream(false);
 
         final String ldLibrary = processBuilder.environment().get(LD_LIBRARY_PATH);
         processBuilder.environment()
                 .put(LD_LIBRARY_PATH, ldLibrary + ":" + gcompExecDir);
 
+        // The first worker keeps its state in the exec dir, as before the
+        // worker pool, so a paused job survives enabling the pool.
+        if (worker > 0) {
+            final File workDir = new File(dir, WORKERS_DIR + File.separator + worker);
+            if (!workDir.isDirectory() && !workDir.mkdirs()) {
+                throw new IOException("Can't create worker dir " + workDir);
+            }
+            processBuilder.environment().put(GCOMP_WORKDIR, workDir.getAbsolutePath());
+        }
+
         return processBuilder.start();
     }
 
@@ -95,8 +373,8 @@ public class ComputeEnvironment {
      * Executes the job.
      */
     public final void runJob() {
-        final Thread jobThread = new RunJobThread();
-        jobThread.start();
+        mJobThread = new RunJobThread();
+        mJobThread.start();
     }
 
     /**
@@ -105,27 +383,143 @@ public class ComputeEnvironment {
      * @param active   the active
      * @param hardStop the hard stop
      */
-    public void conditionChanged(final boolean active, final boolean hardStop) {
+    public synchronized void conditionChanged(final boolean active, final boolean hardStop) {
         Log.d("conditionChanged active: " + active + " hardStop: " + hardStop);
-        if (active) {
+        cancelFreezeTimeout();
+        mActive = active;
+        if (active && mThrottled && mFeatures.contains(ControlProtocol.FEATURE_FREEZE)) {
+            throttleJob();
+        } else if (active) {
             resumeJob();
+        } else if (!hardStop && mFeatures.contains(ControlProtocol.FEATURE_FREEZE)) {
+            freezeJob();
         } else {
             stopJob(hardStop);
         }
     }
 
+    /**
+     * Freezes or resumes the job to cool the device down. It only applies
+     * while the conditions let the job run and it was not stopped, and to
+     * clients able to freeze.
+     *
+     * @param throttled true to freeze the job.
+     */
+    public synchronized void setThrottled(final boolean throttled) {
+        if (mThrottled == throttled) {
+            return;
+        }
+        mThrottled = throttled;
+        // A stopped job must exit: resuming it would turn its exit into a failure.
+        if (!mActive || mStopRequested || !mFeatures.contains(ControlProtocol.FEATURE_FREEZE)) {
+            return;
+        }
+        if (throttled) {
+            throttleJob();
+        } else {
+            resumeJob();
+        }
+    }
+
+    /**
+     * Freezes the job while the device cools down. Unlike
+     * {@link #freezeJob()}, the wake lock is kept so the thermal throttle
+     * resumes it on time, and there is no grace period.
+     */
+    private void throttleJob() {
+        if (mExecProccess != null) {
+            if (!mFrozen) {
+                mFrozen = true;
+                mThrottleStartTime = SystemClock.elapsedRealtime();
+                sendState(ControlProtocol.getFreezeFrame(), JSON_FREEZE);
+            }
+            if (!isActiveLockHeld()) {
+                mActiveLock.acquire();
+            }
+        }
+    }
+
+    /**
+     * Returns the time the thermal throttle kept the job frozen since the
+     * last call, to leave it out of the time the job ran.
+     *
+     * @return the time in milliseconds.
+     */
+    public synchronized long takeThrottledTime() {
+        if (mThrottleStartTime >= 0) {
+            final long now = SystemClock.elapsedRealtime();
+            mThrottledTime += now - mThrottleStartTime;
+            mThrottleStartTime = now;
+        }
+        final long throttledTime = mThrottledTime;
+        mThrottledTime = 0L;
+        return throttledTime;
+    }
+
+    /**
+     * Stops counting the time frozen by the thermal throttle. Must be called
+     * holding the lock.
+     */
+    private void endThrottledTime() {
+        if (mThrottleStartTime >= 0) {
+            mThrottledTime += SystemClock.elapsedRealtime() - mThrottleStartTime;
+            mThrottleStartTime = -1L;
+        }
+    }
+
     /**
      * Resumes the job.
      */
     private void resumeJob() {
-        try {
-            if (mExecProccess != null) {
-                getProcessOutputStream().write(EnvironmentMessenger
-                        .getJsonResumeJobClient().getBytes(CHARSET));
+        mStopRequested = false;
+        endThrottledTime();
+        if (mFrozen) {
+            mFrozen = false;
+            if (!isActiveLockHeld()) {
+                mActiveLock.acquire();
             }
-        } catch (final IOException e) {
-            Log.e(e.getLocalizedMessage());
         }
+        sendState(ControlProtocol.getContinueFrame(), JSON_CONTINUE);
+    }
+
+    /**
+     * Freezes the job, keeping it in memory. The job is killed if it is not
+     * resumed within the freeze grace period.
+     */
+    private void freezeJob() {
+        if (mExecProccess != null) {
+            // A job already frozen by the thermal throttle still releases its wake lock.
+            if (!mFrozen) {
+                mFrozen = true;
+                sendState(ControlProtocol.getFreezeFrame(), JSON_FREEZE);
+            }
+            if (isActiveLockHeld()) {
+                mActiveLock.release();
+            }
+            final long gracePeriod = SettingsPref.getFreezeGracePeriod();
+            // The timeout only guards against a lost callback, the runnable releases it.
+            mGraceLock.acquire(gracePeriod + GRACE_LOCK_MARGIN);
+            mHandler.postDelayed(mFreezeTimeoutRunnable, gracePeriod);
+        }
+    }
+
+    /**
+     * Cancels the kill of a frozen job and lets the device sleep again.
+     */
+    private void cancelFreezeTimeout() {
+        mHandler.removeCallbacks(mFreezeTimeoutRunnable);
+        if (mGraceLock.isHeld()) {
+            mGraceLock.release();
+        }
+    }
+
+    /**
+     * Asks the client to exit, for instance because another worker of the
+     * pool failed.
+     */
+    public synchronized void stop() {
+        cancelFreezeTimeout();
+        stopJob(false);
     }
 
     /**
@@ -134,13 +528,59 @@ public class ComputeEnvironment {
      * @param hardStop the hard stop
      */
     private void stopJob(final boolean hardStop) {
-        try {
-            if (mExecProccess != null) {
-                getProcessOutputStream().write(EnvironmentMessenger
-                        .getJsonKillClient(hardStop).getBytes(CHARSET));
+        mStopRequested = true;
+        mFrozen = false;
+        endThrottledTime();
+        if (mExecProccess == null) {
+            // Waiting to restart a failed process, there is nothing to kill.
+            final Thread jobThread = mJobThread;
+            if (jobThread != null) {
+                jobThread.interrupt();
             }
-        } catch (final IOException e) {
-            Log.e(e.getLocalizedMessage());
+            return;
+        }
+        sendState(ControlProtocol.getKillFrame(hardStop),
+                hardStop ? JSON_KILL_KILL : JSON_KILL_TERM);
+    }
+
+    /**
+     * Queues a message to the client, using the negotiated protocol.
+     *
+     * @param frame the message encoded as a frame.
+     * @param json  the message encoded as a JSON line.
+     */
+    private void send(final byte[] frame, final byte[] json) {
+        final ControlWriter writer = mWriter;
+        if (writer != null) {
+            writer.send(mFramed ? frame : json);
+        }
+    }
+
+    /**
+     * Sends a state command (continue, freeze or kill) to the client, using
+     * the negotiated protocol. It replaces a previous command not written yet.
+     *
+     * @param frame the command encoded as a frame.
+     * @param json  the command encoded as a JSON line.
+     */
+    private void sendState(final byte[] frame, final byte[] json) {
+        final ControlWriter writer = mWriter;
+        if (writer != null) {
+            writer.sendState(mFramed ? frame : json);
+        }
+    }
+
+    /**
+     * Encodes a JSON line.
+     *
+     * @param json the JSON line.
+     * @return the encoded line.
+     */
+    private static byte[] encode(final String json) {
+        try {
+            return json.getBytes(CHARSET);
+        } catch (final UnsupportedEncodingException e) {
+            return json.getBytes();
         }
     }
 
@@ -148,19 +588,155 @@ public class ComputeEnvironment {
      * Stops process.
      */
     private void stopProcess() {
-        if (mExecProccess != null) {
-            mExecProccess.destroy();
-            mExecProccess = null;
+        cancelFreezeTimeout();
+        mHandler.removeCallbacks(mWatchdogRunnable);
+        mFrozen = false;
+        final Process process = mExecProccess;
+        if (process != null) {
+            process.destroy();
+            synchronized (this) {
+                endThrottledTime();
+                mExecProccess = null;
+            }
+        }
+    }
 
-            if (isActiveLockHeld()) {
-                mActiveLock.release();
+    /**
+     * Waits for the process to exit after its output was closed, killing it
+     * if it doesn't exit in time.
+     *
+     * @param process the process.
+     * @return the exit code, or -1 if the thread was interrupted.
+     */
+    private static int waitForExit(final Process process) {
+        final long deadline = System.nanoTime() / 1000000L + EXIT_WAIT_TIME;
+        while (true) {
+            try {
+                return process.exitValue();
+            } catch (final IllegalThreadStateException e) {
+                if (System.nanoTime() / 1000000L > deadline) {
+                    process.destroy();
+                }
             }
-            if (mJobExecutionListener != null) {
-                mJobExecutionListener.clientStopped();
+            try {
+                Thread.sleep(EXIT_POLL_INTERVAL);
+            } catch (final InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+                return -1;
             }
         }
     }
 
+    /**
+     * Runs the client process until it stops.
+     *
+     * @return why the process stopped.
+     */
+    private StopReason runProcess() {
+        InputStream input = null;
+        ProtocolTrace trace = null;
+        StopReason reason = null;
+        mExitCode = 0;
+        try {
+            mFramed = false;
+            mFeatures = Collections.emptyList();
+            mClientKilled = false;
+            mHung = false;
+            // The standby process is already waiting for the key, so the
+            // handshake starts without paying for the node startup.
+            final WarmStandby.Parked parked = mWorker == 0
+                    ? WarmStandby.getInstance().take() : null;
+            final Process process;
+            if (parked != null) {
+                Log.d("Worker " + mWorker + " using the standby process");
+                process = parked.getProcess();
+            } else {
+                try {
+                    process = startProcess(mContext, mWorker);
+                } catch (final IOException e) {
+                    Log.e(e.getLocalizedMessage());
+                    return StopReason.START_FAILED;
+                }
+            }
+            synchronized (this) {
+                mExecProccess = process;
+            }
+            mCpuSampler = ProcessCpuSampler.forProcess(process);
+            trace = openTrace();
+            OutputStream output = getProcessOutputStream();
+            InputStream log = getProcessErrorStream();
+            input = getProcessInputStream();
+            if (trace != null) {
+                output = trace.wrapOutput(output, ProtocolTrace.DIRECTION_HOST);
+                log = trace.wrapInput(log, ProtocolTrace.DIRECTION_LOG);
+                input = trace.wrapInput(input, ProtocolTrace.DIRECTION_CLIENT);
+            }
+            mWriter = new ControlWriter(output, "control-writer-" + mWorker);
+            mWriter.start();
+
+            if (parked != null) {
+                mLogDrain = parked.getLogDrain();
+            } else {
+                mLogDrain = new ClientLogDrain(log, RECENT_LOG_LINES);
+                mLogDrain.start();
+            }
+
+            // reads the inputstream from the gcomp_node process
+            mChannel = new ControlChannel(input, this);
+            mChannel.run();
+
+            if (mHung) {
+                reason = StopReason.HANG;
+            } else if (mClientKilled) {
+                reason = StopReason.CLIENT_KILLED;
+            } else {
+                mExitCode = waitForExit(process);
+                reason = StopReason.fromExitCode(mExitCode, RAW_SIGNAL_EXIT_CODES);
+            }
+        } catch (final IOException e) {
+            Log.e(e.getLocalizedMessage());
+            reason = mHung ? StopReason.HANG : StopReason.IO_ERROR;
+        } finally {
+            mChannel = null;
+            mCpuSampler = null;
+            final ControlWriter writer = mWriter;
+            mWriter = null;
+            if (writer != null) {
+                writer.close();
+            }
+            try {
+                if (input != null) {
+                    input.close();
+                }
+            } catch (final IOException e) {
+                Log.e(e.getLocalizedMessage());
+            }
+            stopProcess();
+            if (trace != null) {
+                trace.close();
+            }
+        }
+        return reason;
+    }
+
+    /**
+     * Opens a trace of the bytes exchanged with the client, if enabled.
+     *
+     * @return the trace or null if disabled or it can't be created.
+     */
+    private ProtocolTrace openTrace() {
+        if (!BuildConfig.DEBUG || !SettingsPref.isProtocolTraceEnabled()) {
+            return null;
+        }
+        try {
+            return ProtocolTrace.open(new File(mContext.getFilesDir(), TRACES_DIR), mWorker);
+        } catch (final IOException e) {
+            Log.e("Can't open the protocol trace: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
     /**
      * Method that checks the wake lock.
      *
@@ -171,14 +747,34 @@ public class ComputeEnvironment {
     }
 
     /**
-     * Gets buffered reader.
+     * Returns the most recent lines logged by the client, oldest first.
+     *
+     * @return the recent log lines.
+     */
+    public List<String> getRecentClientLog() {
+        final ClientLogDrain drain = mLogDrain;
+        if (drain == null) {
+            return Collections.emptyList();
+        }
+        return drain.getRecentLines();
+    }
+
+    /**
+     * Gets the stream the client writes its logs to.
      *
-     * @return the buffered reader
-     * @throws UnsupportedEncodingException the encoding exception
+     * @return the error stream
      */
-    protected BufferedReader getReader() throws UnsupportedEncodingException {
-        return new BufferedReader(
-                new InputStreamReader(mExecProccess.getInputStream(), CHARSET));
+    protected InputStream getProcessErrorStream() {
+        return mExecProccess.getErrorStream();
+    }
+
+    /**
+     * Gets the stream the client writes the control messages to.
+     *
+     * @return the input stream
+     */
+    protected InputStream getProcessInputStream() {
+        return mExecProccess.getInputStream();
     }
 
     /**
@@ -190,66 +786,133 @@ public class ComputeEnvironment {
         return mExecProccess.getOutputStream();
     }
 
+    @Override
+    public void onGetKey(final List<String> features) throws IOException {
+        if (features == null) {
+            // A restarted client keeps using the features already negotiated.
+            send(EnvironmentMessenger.getKeyFrame(mFeatures), null);
+        } else {
+            final List<String> accepted = new ArrayList<>(SUPPORTED_FEATURES);
+            accepted.retainAll(features);
+            send(null, encode(EnvironmentMessenger.getJsonKeyReply(accepted)));
+        }
+    }
+
+    @Override
+    public void onKeyAccepted(final List<String> features) {
+        Log.d("Key accepted, features: " + features);
+        if (features != null) {
+            mFeatures = Collections.unmodifiableList(new ArrayList<>(features));
+            mFramed = features.contains(ControlProtocol.FEATURE_FRAMING);
+            mHandler.removeCallbacks(mWatchdogRunnable);
+            if (features.contains(ControlProtocol.FEATURE_HEARTBEAT)) {
+                mHandler.postDelayed(mWatchdogRunnable, ControlProtocol.HEARTBEAT_INTERVAL);
+            }
+        }
+    }
+
+    @Override
+    public void onNumberOfUsers(final long number) {
+        mJobExecutionListener.numberOfUsersReceived(number);
+    }
+
+    @Override
+    public void onResearchDetails(final JSONObject content) {
+        JobLedger.getInstance().setResearchDetails(mWorker,
+                JSONUtils.getString(content, "target_id", null),
+                JSONUtils.getString(content, "stream_id", null),
+                JSONUtils.getString(content, "title", null));
+        mJobExecutionListener.researchDetailsReceived(content);
+    }
+
+    @Override
+    public void onExecutingJob() {
+        JobLedger.getInstance().startJob(mWorker);
+    }
+
+    @Override
+    public void onJobStats(final long bytesDownloaded, final long bytesUploaded) {
+        JobLedger.getInstance().addTransfer(mWorker, bytesDownloaded, bytesUploaded);
+    }
+
+    @Override
+    public void onJobFinished(final long exitCode) {
+        JobLedger.getInstance().finishJob(mWorker, exitCode,
+                JobLedgerContract.STOP_REASON_FINISHED);
+    }
+
+    @Override
+    public void onJobExecutionError(final long exitCode, final String error) {
+        Log.d("Job execution error: " + exitCode + " " + error);
+        JobLedger.getInstance().finishJob(mWorker, exitCode,
+                JobLedgerContract.STOP_REASON_FAILED);
+    }
+
+    @Override
+    public void onClientKilled() {
+        Log.d("Client killed");
+        mClientKilled = true;
+    }
+
+    @Override
+    public void onClientLog(final String line) {
+        final ClientLogDrain logDrain = mLogDrain;
+        if (logDrain != null) {
+            logDrain.addLine(line);
+        }
+    }
+
     /**
      * Runs job thread.
      */
     private class RunJobThread extends Thread {
         @Override
         public void run() {
-            BufferedReader reader = null;
+            StopReason reason;
+            mStopRequested = false;
+            mActiveLock.acquire();
             try {
-                mExecProccess = startProcess();
+                while (true) {
+                    final long startTime = SystemClock.elapsedRealtime();
+                    reason = runProcess();
+                    final long stopTime = SystemClock.elapsedRealtime();
+                    JobLedger.getInstance().stopJob(mWorker, reason.name());
+                    Log.d("Worker " + mWorker + " stopped: " + reason + " exit code: " + mExitCode
+                            + " signal: " + StopReason.getSignal(mExitCode, RAW_SIGNAL_EXIT_CODES));
 
-                mActiveLock.acquire();
-                reader = getReader();
-                String str = "";
-
-                // reads the inputstream from the gcomp_node process
-                while ((str = reader.readLine()) != null) {
-                    Log.d("Read from Client > " + str);
-                    final JSONObject jsonObject = JSONUtils.parseJSONObject(str);
-                    final String action = JSONUtils.getString(jsonObject, "action", "");
-                    final JSONObject content = JSONUtils.getJSONObject(jsonObject, "content");
-
-                    if ("no_job_available".equalsIgnoreCase(action)) {
-                    } else if ("number_of_users".equalsIgnoreCase(action)) {
-                        mJobExecutionListener.numberOfUsersReceived(JSONUtils
-                                .getLong(content, "number_of_users", 0L));
-                    } else if ("research_details".equalsIgnoreCase(action)) {
-                        mJobExecutionListener.researchDetailsReceived(content);
-                    } else if ("limit_storage".equalsIgnoreCase(action)) {
-                    } else if ("get_key".equalsIgnoreCase(action)) {
-                        getProcessOutputStream()
-                                .write(EnvironmentMessenger.getJsonKeyReply().getBytes(CHARSET));
-                    } else if ("job_received".equalsIgnoreCase(action)) {
-                    } else if ("job_finished".equalsIgnoreCase(action)) {
-                    } else if ("key_accepted".equalsIgnoreCase(action)) {
-                    } else if ("job_execution_error".equalsIgnoreCase(action)) {
-                        try {
-                            final String error = content.getString("error");
-                            if (error != null && !error.isEmpty()
-                                    && !"undefined".equalsIgnoreCase(error)) {
-                                // Ignore error.
-                            }
-                        } catch (final Exception exception) {
-                            Log.e(exception.getLocalizedMessage());
-                        }
-                    } else if ("client_killed".equalsIgnoreCase(action)) {
+                    if (!reason.isFailure() || mStopRequested) {
+                        mSupervisor.onStopped(startTime, stopTime);
+                        break;
+                    }
+                    final long delay = mSupervisor.onFailure(startTime, stopTime, reason,
+                            mExitCode);
+                    if (delay == ProcessSupervisor.NO_RESTART) {
+                        Log.e("Worker " + mWorker + " is crashing in a loop, recent log: "
+                                + getRecentClientLog());
+                        reason = StopReason.CRASH_LOOP;
+                        break;
+                    }
+                    Log.d("Restarting worker " + mWorker + " in " + delay + " ms, restarts: "
+                            + mSupervisor.getRestartCount() + " MTBF: "
+                            + mSupervisor.getMeanTimeBetweenFailures() + " ms");
+                    try {
+                        Thread.sleep(delay);
+                    } catch (final InterruptedException e) {
+                        Log.d("Restart of worker " + mWorker + " cancelled");
+                        break;
+                    }
+                    if (mStopRequested) {
                         break;
                     }
-
                 }
-            } catch (final IOException e) {
-                Log.e(e.getLocalizedMessage());
             } finally {
-                try {
-                    if (reader != null) {
-                        reader.close();
-                    }
-                } catch (final IOException e) {
-                    Log.e(e.getLocalizedMessage());
+                if (isActiveLockHeld()) {
+                    mActiveLock.release();
                 }
-                stopProcess();
+                mJobThread = null;
+            }
+            if (mJobExecutionListener != null) {
+                mJobExecutionListener.clientStopped(mWorker, reason);
             }
         }
 
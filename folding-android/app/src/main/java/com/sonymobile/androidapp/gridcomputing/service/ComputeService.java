@@ -15,7 +15,9 @@ import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.sonymobile.androidapp.gridcomputing.conditions.ConditionsHandler;
-import com.sonymobile.androidapp.gridcomputing.database.JobCheckpointsContract;
+import com.sonymobile.androidapp.gridcomputing.database.CheckpointBuffer;
+import com.sonymobile.androidapp.gridcomputing.database.DatabaseExecutor;
+import com.sonymobile.androidapp.gridcomputing.database.JobLedger;
 import com.sonymobile.androidapp.gridcomputing.gamification.GameHelper;
 import com.sonymobile.androidapp.gridcomputing.gamification.Scores;
 import com.sonymobile.androidapp.gridcomputing.log.Log;
@@ -56,14 +58,18 @@ public class ComputeService extends Service implements JobExecutionListener {
      */
     private final Handler mUpdateTimeHandler = new Handler();
     /**
-     * Compute environment.
+     * Compute environments.
      */
-    private ComputeEnvironment mEnvironment;
+    private WorkerPool mWorkerPool;
+    /**
+     * Duty cycles the workers to hold the device temperature.
+     */
+    private ThermalThrottle mThermalThrottle;
 
     /**
-     * Last time.
+     * Measures the time the workers are allowed to fold.
      */
-    private long mLastTime;
+    private final FoldingTimer mFoldingTimer = new FoldingTimer();
     /**
      * Runnable to update time.
      */
@@ -71,13 +77,7 @@ public class ComputeService extends Service implements JobExecutionListener {
         @Override
         public void run() {
             mUpdateTimeHandler.postDelayed(mUpdateTimeRunnable, TIME_UPDATE_INTERVAL);
-            final long currentTime = SystemClock.elapsedRealtime();
-            final long elapsedTime = currentTime - mLastTime;
-            mLastTime = currentTime;
-
-            RunningPref.incrementAccumulatedTime(elapsedTime);
-            GamePref.incrementScoreToSubmit(elapsedTime);
-            JobCheckpointsContract.addCheckpoint(elapsedTime);
+            creditTime(mFoldingTimer.take(SystemClock.elapsedRealtime()));
 
             Scores.submitScore(GameHelper.getApiClient());
             sendDetailsMessage();
@@ -108,10 +108,14 @@ public class ComputeService extends Service implements JobExecutionListener {
     public final void onCreate() {
         super.onCreate();
         Log.d("Service > Creating service");
+        // Stores the checkpoints recovered from a killed process and closes their jobs.
+        CheckpointBuffer.getInstance().flush();
+        JobLedger.getInstance();
 
-        mEnvironment = new ComputeEnvironment(this, this);
-        mEnvironment.runJob();
-        mLastTime = SystemClock.elapsedRealtime();
+        mWorkerPool = new WorkerPool(this, this, WorkerPool.getWorkerCount(this));
+        mWorkerPool.runJobs();
+        mThermalThrottle = new ThermalThrottle(mWorkerPool);
+        mFoldingTimer.resume(SystemClock.elapsedRealtime());
         mUpdateTimeHandler.postDelayed(mUpdateTimeRunnable, TIME_UPDATE_INTERVAL);
 
         EXECUTING_JOBS.set(true);
@@ -125,7 +129,10 @@ public class ComputeService extends Service implements JobExecutionListener {
         Log.d("Service > Destroying service");
         ApplicationData.getBus().unregister(this);
         mUpdateTimeHandler.removeCallbacks(mUpdateTimeRunnable);
+        mThermalThrottle.shutDown();
         EXECUTING_JOBS.set(false);
+        CheckpointBuffer.getInstance().flush();
+        DatabaseExecutor.getInstance().logStats();
         sendDetailsMessage();
 
         if (ConditionsHandler.getInstance().checkEnabledCondition()) {
@@ -133,6 +140,7 @@ public class ComputeService extends Service implements JobExecutionListener {
         } else {
             stopForeground(false);
         }
+        WarmStandby.getInstance().park(getApplicationContext());
     }
 
     @Override
@@ -157,9 +165,54 @@ public class ComputeService extends Service implements JobExecutionListener {
     }
 
     @Override
-    public void clientStopped() {
-        Log.d("Service > clientStopped");
-        stopSelf();
+    public void clientStopped(final int worker, final StopReason reason) {
+        Log.d("Service > clientStopped: " + worker + " reason: " + reason);
+        if (reason == StopReason.CRASH_LOOP) {
+            // The supervisor gave up on the worker: rather than running with
+            // fewer workers, the whole pool stops and the service with it.
+            Log.e("Service > worker " + worker + " is crashing in a loop, stopping all workers");
+            mWorkerPool.stop();
+        }
+        if (mWorkerPool.workerStopped(worker)) {
+            stopSelf();
+        }
+    }
+
+    /**
+     * Credits the time the workers ran since the previous tick.
+     *
+     * @param tickTime the time since the previous tick.
+     */
+    private void creditTime(final long tickTime) {
+        boolean running = false;
+        long elapsedTime = 0L;
+        for (ComputeEnvironment worker : mWorkerPool.getWorkers()) {
+            // The time a worker was frozen by the thermal throttle doesn't count.
+            final long workerTime = Math.max(0L, tickTime - worker.takeThrottledTime());
+            if (worker.isRunning()) {
+                running = true;
+                elapsedTime = Math.max(elapsedTime, workerTime);
+                final long cpuTime = worker.takeCpuTimeDelta();
+                RunningPref.incrementWorkerAccumulatedTime(worker.getWorker(), workerTime);
+                RunningPref.incrementAccumulatedCpuTime(cpuTime);
+                CheckpointBuffer.getInstance().add(worker.getWorker(),
+                        JobLedger.getInstance().getJobId(worker.getWorker()), workerTime,
+                        cpuTime);
+            }
+        }
+        // The user folded while any worker ran, however many workers ran.
+        if (running) {
+            RunningPref.incrementAccumulatedTime(elapsedTime);
+            GamePref.incrementScoreToSubmit(elapsedTime);
+        }
+    }
+
+    /**
+     * Credits the time up to a stop and stops measuring it, so the time
+     * the workers stay frozen is never credited.
+     */
+    private void pauseTime() {
+        creditTime(mFoldingTimer.pause(SystemClock.elapsedRealtime()));
     }
 
     /**
@@ -173,6 +226,11 @@ public class ComputeService extends Service implements JobExecutionListener {
             if (notification != null && !RUNNING_FOREGROUND.get()) {
                 startForeground(NotificationHelper.NOTIFICATION_ID, notification);
                 mUpdateTimeHandler.removeCallbacks(mUpdateTimeRunnable);
+                // The workers were stopped since the last tick: drop their frozen time.
+                for (ComputeEnvironment worker : mWorkerPool.getWorkers()) {
+                    worker.takeThrottledTime();
+                }
+                mFoldingTimer.resume(SystemClock.elapsedRealtime());
                 mUpdateTimeHandler.postDelayed(mUpdateTimeRunnable, TIME_UPDATE_INTERVAL);
             }
             RUNNING_FOREGROUND.set(true);
@@ -200,13 +258,20 @@ public class ComputeService extends Service implements JobExecutionListener {
         }
 
         if (message.isHardStop()) {
-            mEnvironment.conditionChanged(false, true);
+            pauseTime();
+            mWorkerPool.conditionChanged(false, true);
+            mThermalThrottle.stop();
             setForeground(false);
+            CheckpointBuffer.getInstance().flush();
         } else if (message.isSoftStop()) {
-            mEnvironment.conditionChanged(false, false);
+            pauseTime();
+            mWorkerPool.conditionChanged(false, false);
+            mThermalThrottle.stop();
             setForeground(false);
+            CheckpointBuffer.getInstance().flush();
         } else {
-            mEnvironment.conditionChanged(true, false);
+            mWorkerPool.conditionChanged(true, false);
+            mThermalThrottle.start();
             setForeground(true);
         }
     }
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+import com.sonymobile.androidapp.gridcomputing.conditions.ConditionsHandler;
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.preferences.MiscPref;
+import com.sonymobile.androidapp.gridcomputing.preferences.SettingsPref;
+import com.sonymobile.androidapp.gridcomputing.receivers.ConditionReceiver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wakes the app to verify the conditions when the device is charging on an
+ * unmetered network, instead of polling them. While the app runs, the
+ * {@link ConditionsHandler} receivers follow the changes, and it schedules
+ * this job again whenever the charger or the network is lost. When the job
+ * runs and a condition of the device, such as the battery level, is still
+ * not met, the job is rescheduled with a linear backoff. Before Lollipop,
+ * where there is no job scheduler, the {@link ConditionReceiver} declared in
+ * the manifest wakes the app on the power and connectivity broadcasts
+ * instead.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class ConditionJobService extends JobService {
+
+    /**
+     * Id of the condition job.
+     */
+    private static final int JOB_ID = 147861;
+
+    /**
+     * Initial backoff of the job when a device condition is still not met.
+     */
+    private static final long RECHECK_BACKOFF = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Schedules the job waiting for the charger and the unmetered network,
+     * if it is not scheduled yet.
+     *
+     * @param context the context.
+     */
+    public static void schedule(final Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        final JobScheduler scheduler = (JobScheduler)
+                context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, ConditionJobService.class))
+                .setRequiresCharging(true)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setBackoffCriteria(RECHECK_BACKOFF, JobInfo.BACKOFF_POLICY_LINEAR)
+                .setPersisted(true)
+                .build());
+        Log.d("Conditions > job scheduled");
+    }
+
+    /**
+     * Verifies the conditions, starting the service if they are met, unless
+     * the user has not finished the wizard or has disabled the execution.
+     */
+    public static void verifyConditions() {
+        if (isExecutionAllowed()) {
+            ServiceManager.verifyConditionsAndStartService();
+        }
+    }
+
+    /**
+     * Checks if the user has finished the wizard and enabled the execution.
+     *
+     * @return true if the execution is allowed.
+     */
+    private static boolean isExecutionAllowed() {
+        return MiscPref.getWizardFinished() && SettingsPref.isExecutionEnabled();
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        Log.d("Conditions > job started");
+        if (!isExecutionAllowed()) {
+            return false;
+        }
+        final ConditionsHandler handler = ConditionsHandler.getInstance();
+        handler.verifyConditions(new Runnable() {
+            @Override
+            public void run() {
+                // Nothing wakes the app when the battery or the assets are
+                // ready, so the job checks them again later.
+                final boolean recheck = handler.isDeviceConditionNotMet();
+                Log.d("Conditions > job finished, recheck: " + recheck);
+                jobFinished(params, recheck);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(final JobParameters params) {
+        return true;
+    }
+}
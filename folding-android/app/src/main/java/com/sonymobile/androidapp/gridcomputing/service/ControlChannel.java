@@ -0,0 +1,388 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import android.os.SystemClock;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.utils.JSONUtils;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reads the control messages sent by the client.js. It starts reading line
+ * separated JSON and switches to the framed protocol defined by
+ * {@link ControlProtocol} once both sides accepted it.
+ */
+public class ControlChannel {
+
+    /**
+     * Receives the messages decoded from the client.
+     */
+    public interface Listener {
+
+        /**
+         * The client asked for the key.
+         *
+         * @param features the features supported by the client, or null if
+         *                 the client was restarted and keeps the features
+         *                 already negotiated.
+         * @throws IOException if the reply can't be written.
+         */
+        void onGetKey(List<String> features) throws IOException;
+
+        /**
+         * The client accepted the key.
+         *
+         * @param features the features accepted by the client, or null if
+         *                 the client keeps the features already negotiated.
+         */
+        void onKeyAccepted(List<String> features);
+
+        /**
+         * The client reported the number of users.
+         *
+         * @param number the number of users.
+         */
+        void onNumberOfUsers(long number);
+
+        /**
+         * The client reported the research details.
+         *
+         * @param content the research details.
+         */
+        void onResearchDetails(JSONObject content);
+
+        /**
+         * The client started executing a job.
+         */
+        void onExecutingJob();
+
+        /**
+         * The client reported bytes transferred by the job.
+         *
+         * @param bytesDownloaded the bytes downloaded since the last report.
+         * @param bytesUploaded   the bytes uploaded since the last report.
+         */
+        void onJobStats(long bytesDownloaded, long bytesUploaded);
+
+        /**
+         * The job finished.
+         *
+         * @param exitCode the exit code of the job.
+         */
+        void onJobFinished(long exitCode);
+
+        /**
+         * The job failed.
+         *
+         * @param exitCode the exit code of the job.
+         * @param error    the error description, may be null.
+         */
+        void onJobExecutionError(long exitCode, String error);
+
+        /**
+         * The client is about to exit.
+         */
+        void onClientKilled();
+
+        /**
+         * The client sent a log line.
+         *
+         * @param line the line.
+         */
+        void onClientLog(String line);
+    }
+
+    /**
+     * Encode.
+     */
+    private static final String CHARSET = "UTF-8";
+    /**
+     * Initial size of the read buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    /**
+     * The client stream.
+     */
+    private final InputStream mInput;
+    /**
+     * The listener.
+     */
+    private final Listener mListener;
+    /**
+     * Reader reused for every frame payload.
+     */
+    private final ControlProtocol.PayloadReader mPayloadReader =
+            new ControlProtocol.PayloadReader();
+    /**
+     * Buffer reused for every line or frame.
+     */
+    private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+    /**
+     * True when reading frames.
+     */
+    private boolean mFramed;
+    /**
+     * Time in ms (uptime) of the last message read.
+     */
+    private volatile long mLastMessageTime = SystemClock.uptimeMillis();
+
+    /**
+     * The class constructor.
+     *
+     * @param input    the client stream.
+     * @param listener the listener.
+     */
+    public ControlChannel(final InputStream input, final Listener listener) {
+        mInput = input instanceof BufferedInputStream ? input : new BufferedInputStream(input);
+        mListener = listener;
+    }
+
+    /**
+     * Returns true when reading frames.
+     *
+     * @return true if framed.
+     */
+    public boolean isFramed() {
+        return mFramed;
+    }
+
+    /**
+     * Returns the time of the last message read, in
+     * {@link SystemClock#uptimeMillis()} milliseconds.
+     *
+     * @return the time the channel was created if no message was read yet.
+     */
+    public long getLastMessageTime() {
+        return mLastMessageTime;
+    }
+
+    /**
+     * Reads and dispatches messages until the stream ends or the client
+     * reports it was killed.
+     *
+     * @throws IOException if the stream can't be read or is corrupted.
+     */
+    public void run() throws IOException {
+        while (readNext()) {
+            // Keep reading.
+        }
+    }
+
+    /**
+     * Reads and dispatches the next message.
+     *
+     * @return false if the stream ended or the client was killed.
+     * @throws IOException if the stream can't be read or is corrupted.
+     */
+    public boolean readNext() throws IOException {
+        final boolean more = mFramed ? readFrame() : readLine();
+        if (more) {
+            mLastMessageTime = SystemClock.uptimeMillis();
+        }
+        return more;
+    }
+
+    /**
+     * Reads the next JSON line.
+     *
+     * @return false if the stream ended or the client was killed.
+     * @throws IOException if the stream can't be read.
+     */
+    private boolean readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = mInput.read()) != '\n') {
+            if (b < 0) {
+                if (length == 0) {
+                    return false;
+                }
+                break;
+            }
+            if (length == mBuffer.length) {
+                ensureCapacity(length + 1);
+            }
+            mBuffer[length++] = (byte) b;
+        }
+        final String line = new String(mBuffer, 0, length, CHARSET);
+        if (line.isEmpty() || line.charAt(0) != '{') {
+            mListener.onClientLog(line);
+            return true;
+        }
+
+        final JSONObject jsonObject = JSONUtils.parseJSONObject(line);
+        final String action = JSONUtils.getString(jsonObject, "action", "");
+        final JSONObject content = JSONUtils.getJSONObject(jsonObject, "content");
+
+        switch (ControlProtocol.getActionCode(action)) {
+            case ControlProtocol.ACTION_GET_KEY:
+                mListener.onGetKey(getFeatures(content));
+                break;
+            case ControlProtocol.ACTION_KEY_ACCEPTED:
+                final List<String> features = getFeatures(content);
+                // Everything after an accepted framing is framed.
+                mFramed = features.contains(ControlProtocol.FEATURE_FRAMING);
+                mListener.onKeyAccepted(features);
+                break;
+            case ControlProtocol.ACTION_NUMBER_OF_USERS:
+                mListener.onNumberOfUsers(JSONUtils.getLong(content, "number_of_users", 0L));
+                break;
+            case ControlProtocol.ACTION_RESEARCH_DETAILS:
+                mListener.onResearchDetails(content);
+                break;
+            case ControlProtocol.ACTION_EXECUTING_JOB:
+                mListener.onExecutingJob();
+                break;
+            case ControlProtocol.ACTION_JOB_STATS:
+                mListener.onJobStats(JSONUtils.getLong(content, "bytes_downloaded", 0L),
+                        JSONUtils.getLong(content, "bytes_uploaded", 0L));
+                break;
+            case ControlProtocol.ACTION_JOB_FINISHED:
+                mListener.onJobFinished(JSONUtils.getLong(content, "exit_code", 0L));
+                break;
+            case ControlProtocol.ACTION_JOB_EXECUTION_ERROR:
+                mListener.onJobExecutionError(JSONUtils.getLong(content, "exit_code", 0L),
+                        JSONUtils.getString(content, "error", null));
+                break;
+            case ControlProtocol.ACTION_CLIENT_KILLED:
+                mListener.onClientKilled();
+                return false;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @return false if the stream ended or the client was killed.
+     * @throws IOException if the stream can't be read or is corrupted.
+     */
+    private boolean readFrame() throws IOException {
+        final long length = ControlProtocol.readVarint(mInput);
+        if (length < 0) {
+            return false;
+        }
+        if (length < 1 || length > ControlProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        ensureCapacity((int) length);
+        int read = 0;
+        while (read < length) {
+            final int count = mInput.read(mBuffer, read, (int) length - read);
+            if (count < 0) {
+                throw new EOFException("Truncated frame");
+            }
+            read += count;
+        }
+
+        final int action = mBuffer[0] & 0xFF;
+        final ControlProtocol.PayloadReader payload = mPayloadReader;
+        payload.reset(mBuffer, 1, read);
+        switch (action) {
+            case ControlProtocol.ACTION_GET_KEY:
+                // Only sent by a restarted client, the framing is already on.
+                mListener.onGetKey(null);
+                break;
+            case ControlProtocol.ACTION_KEY_ACCEPTED:
+                mListener.onKeyAccepted(null);
+                break;
+            case ControlProtocol.ACTION_NUMBER_OF_USERS:
+                mListener.onNumberOfUsers(payload.readVarint());
+                break;
+            case ControlProtocol.ACTION_RESEARCH_DETAILS:
+                mListener.onResearchDetails(readResearchDetails(payload));
+                break;
+            case ControlProtocol.ACTION_EXECUTING_JOB:
+                mListener.onExecutingJob();
+                break;
+            case ControlProtocol.ACTION_JOB_STATS:
+                mListener.onJobStats(payload.readVarint(), payload.readVarint());
+                break;
+            case ControlProtocol.ACTION_JOB_FINISHED:
+                mListener.onJobFinished(payload.readSigned());
+                break;
+            case ControlProtocol.ACTION_JOB_EXECUTION_ERROR:
+                mListener.onJobExecutionError(payload.readSigned(), payload.readString());
+                break;
+            case ControlProtocol.ACTION_CLIENT_KILLED:
+                mListener.onClientKilled();
+                return false;
+            case ControlProtocol.ACTION_LOG:
+                mListener.onClientLog(payload.readString());
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Builds the research details JSON from a frame payload.
+     *
+     * @param payload the payload.
+     * @return the research details.
+     * @throws IOException if the payload is truncated.
+     */
+    private static JSONObject readResearchDetails(final ControlProtocol.PayloadReader payload)
+            throws IOException {
+        final JSONObject content = new JSONObject();
+        try {
+            content.put("title", payload.readString());
+            content.put("description", payload.readString());
+            content.put("url", payload.readString());
+            content.put("target_id", payload.readString());
+            content.put("stream_id", payload.readString());
+        } catch (final JSONException e) {
+            Log.e(e.getLocalizedMessage());
+        }
+        return content;
+    }
+
+    /**
+     * Returns the features listed in a handshake message.
+     *
+     * @param content the message content.
+     * @return the features, empty if none.
+     */
+    private static List<String> getFeatures(final JSONObject content) {
+        final JSONArray array = content == null ? null : content.optJSONArray("features");
+        if (array == null) {
+            return Collections.emptyList();
+        }
+        final List<String> features = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            features.add(array.optString(i));
+        }
+        return features;
+    }
+
+    /**
+     * Grows the read buffer.
+     *
+     * @param capacity the minimum capacity.
+     */
+    private void ensureCapacity(final int capacity) {
+        if (mBuffer.length < capacity) {
+            final byte[] buffer = new byte[Math.max(capacity, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mBuffer.length);
+            mBuffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Framed binary protocol spoken with the client.js once both sides
+ * negotiated it during the key handshake.
+ * <p>
+ * Every frame is a varint length, one byte action code and the payload.
+ * The length covers the action code and the payload. Strings are a varint
+ * byte length followed by UTF-8 bytes and signed numbers are zigzag encoded.
+ * The action codes must be kept in sync with protocol.js.
+ */
+public final class ControlProtocol {
+
+    /**
+     * Name of the framing feature advertised during the handshake.
+     */
+    public static final String FEATURE_FRAMING = "framing";
+    /**
+     * Name of the feature that lets the host freeze the job instead of killing it.
+     */
+    public static final String FEATURE_FREEZE = "freeze";
+    /**
+     * Name of the feature that makes the client send periodic heartbeats.
+     */
+    public static final String FEATURE_HEARTBEAT = "heartbeat";
+    /**
+     * Interval between heartbeats requested to the client, in ms.
+     */
+    public static final long HEARTBEAT_INTERVAL = 30000L;
+    /**
+     * Biggest frame accepted from the client.
+     */
+    public static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    /**
+     * The client asks for the authentication key.
+     */
+    public static final int ACTION_GET_KEY = 1;
+    /**
+     * The host sends the authentication key.
+     */
+    public static final int ACTION_KEY = 2;
+    /**
+     * The client accepted the key.
+     */
+    public static final int ACTION_KEY_ACCEPTED = 3;
+    /**
+     * The client found no job to run.
+     */
+    public static final int ACTION_NO_JOB_AVAILABLE = 4;
+    /**
+     * The client reports the number of users.
+     */
+    public static final int ACTION_NUMBER_OF_USERS = 5;
+    /**
+     * The client reports the details of the research.
+     */
+    public static final int ACTION_RESEARCH_DETAILS = 6;
+    /**
+     * The client reached its storage limit.
+     */
+    public static final int ACTION_LIMIT_STORAGE = 7;
+    /**
+     * The client received a job.
+     */
+    public static final int ACTION_JOB_RECEIVED = 8;
+    /**
+     * The client started executing the job.
+     */
+    public static final int ACTION_EXECUTING_JOB = 9;
+    /**
+     * The client finished the job, with its exit code.
+     */
+    public static final int ACTION_JOB_FINISHED = 10;
+    /**
+     * The job failed, with its exit code and error.
+     */
+    public static final int ACTION_JOB_EXECUTION_ERROR = 11;
+    /**
+     * The client handled the kill and is exiting.
+     */
+    public static final int ACTION_CLIENT_KILLED = 12;
+    /**
+     * The client failed to resolve the server.
+     */
+    public static final int ACTION_DNS_ERROR = 13;
+    /**
+     * A log line of the client.
+     */
+    public static final int ACTION_LOG = 14;
+    /**
+     * The host asks the client to exit.
+     */
+    public static final int ACTION_KILL = 15;
+    /**
+     * The host asks the client to resume the job.
+     */
+    public static final int ACTION_CONTINUE = 16;
+    /**
+     * The host asks the client to freeze the job.
+     */
+    public static final int ACTION_FREEZE = 17;
+    /**
+     * The client is alive.
+     */
+    public static final int ACTION_HEARTBEAT = 18;
+    /**
+     * The client reports the bytes downloaded and uploaded by the job.
+     */
+    public static final int ACTION_JOB_STATS = 19;
+
+    /**
+     * Action names indexed by action code, used by the JSON line protocol.
+     */
+    private static final String[] ACTION_NAMES = {
+            null, "get_key", "key", "key_accepted", "no_job_available", "number_of_users",
+            "research_details", "limit_storage", "job_received", "executing_job",
+            "job_finished", "job_execution_error", "client_killed", "dns_error", "log",
+            "kill", "continue", "freeze", "heartbeat", "job_stats",
+    };
+
+    /**
+     * Pre-encoded continue frame.
+     */
+    private static final byte[] FRAME_CONTINUE = {1, ACTION_CONTINUE};
+    /**
+     * Pre-encoded freeze frame.
+     */
+    private static final byte[] FRAME_FREEZE = {1, ACTION_FREEZE};
+    /**
+     * Pre-encoded graceful kill frame.
+     */
+    private static final byte[] FRAME_KILL_TERM = {2, ACTION_KILL, 0};
+    /**
+     * Pre-encoded immediate kill frame.
+     */
+    private static final byte[] FRAME_KILL_KILL = {2, ACTION_KILL, 1};
+
+    /**
+     * Encode.
+     */
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * This class is not intended to be instantiated.
+     */
+    private ControlProtocol() { }
+
+    /**
+     * Returns the action code of the given JSON action name.
+     *
+     * @param action the action name.
+     * @return the action code or 0 if the action is unknown.
+     */
+    public static int getActionCode(final String action) {
+        for (int i = 1; i < ACTION_NAMES.length; i++) {
+            if (ACTION_NAMES[i].equalsIgnoreCase(action)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the continue frame. The returned array must not be modified.
+     *
+     * @return the encoded frame.
+     */
+    public static byte[] getContinueFrame() {
+        return FRAME_CONTINUE;
+    }
+
+    /**
+     * Returns the freeze frame. The returned array must not be modified.
+     *
+     * @return the encoded frame.
+     */
+    public static byte[] getFreezeFrame() {
+        return FRAME_FREEZE;
+    }
+
+    /**
+     * Returns the kill frame. The returned array must not be modified.
+     *
+     * @param immediately True if should kill the client immediately.
+     * @return the encoded frame.
+     */
+    public static byte[] getKillFrame(final boolean immediately) {
+        return immediately ? FRAME_KILL_KILL : FRAME_KILL_TERM;
+    }
+
+    /**
+     * Encodes a frame carrying a single string payload.
+     *
+     * @param action the action code.
+     * @param value  the payload.
+     * @return the encoded frame.
+     */
+    public static byte[] encodeStringFrame(final int action, final String value) {
+        try {
+            final byte[] bytes = value.getBytes(CHARSET);
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream(bytes.length + 5);
+            writeVarint(payload, bytes.length);
+            payload.write(bytes, 0, bytes.length);
+            final ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.size() + 6);
+            writeVarint(frame, payload.size() + 1);
+            frame.write(action);
+            payload.writeTo(frame);
+            return frame.toByteArray();
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes an unsigned varint.
+     *
+     * @param out   the stream to write to.
+     * @param value the value, must not be negative.
+     */
+    public static void writeVarint(final ByteArrayOutputStream out, final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /**
+     * Reads an unsigned varint from a stream.
+     *
+     * @param in the stream to read from.
+     * @return the value or -1 if the stream ended before the first byte.
+     * @throws IOException if the stream ends in the middle of the varint or
+     *                     the varint is malformed.
+     */
+    public static long readVarint(final InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("Truncated varint");
+            }
+            if (shift > 63) {
+                throw new IOException("Malformed varint");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Reader over a frame payload. It can be reset to read another payload so
+     * a single instance serves the whole stream.
+     */
+    public static final class PayloadReader {
+        /**
+         * The payload buffer.
+         */
+        private byte[] mBuffer;
+        /**
+         * Current read position.
+         */
+        private int mPosition;
+        /**
+         * End of the payload.
+         */
+        private int mLimit;
+
+        /**
+         * Points the reader to a new payload.
+         *
+         * @param buffer the buffer holding the payload.
+         * @param offset where the payload starts.
+         * @param limit  where the payload ends.
+         */
+        public void reset(final byte[] buffer, final int offset, final int limit) {
+            mBuffer = buffer;
+            mPosition = offset;
+            mLimit = limit;
+        }
+
+        /**
+         * Reads an unsigned varint.
+         *
+         * @return the value read.
+         * @throws IOException if the payload is truncated.
+         */
+        public long readVarint() throws IOException {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (mPosition >= mLimit || shift > 63) {
+                    throw new EOFException("Truncated frame");
+                }
+                b = mBuffer[mPosition++] & 0xFF;
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        /**
+         * Reads a zigzag encoded signed varint.
+         *
+         * @return the value read.
+         * @throws IOException if the payload is truncated.
+         */
+        public long readSigned() throws IOException {
+            final long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads a length prefixed UTF-8 string.
+         *
+         * @return the value read.
+         * @throws IOException if the payload is truncated.
+         */
+        public String readString() throws IOException {
+            final long length = readVarint();
+            if (length > mLimit - mPosition) {
+                throw new EOFException("Truncated frame");
+            }
+            final String value;
+            try {
+                value = new String(mBuffer, mPosition, (int) length, CHARSET);
+            } catch (final UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            mPosition += (int) length;
+            return value;
+        }
+    }
+}
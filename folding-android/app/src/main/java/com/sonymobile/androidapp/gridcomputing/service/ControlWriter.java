@@ -0,0 +1,285 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the messages sent to the client.js from a single thread, so the
+ * callers never block on the client pipe and messages never interleave.
+ * <p>
+ * Messages are kept in a bounded queue, in the order they were sent. State
+ * commands (continue, freeze and kill) are queued as well, but a command
+ * still waiting to be written is removed when the next one is sent, since
+ * only the latest state matters. Everything pending is written in one batch
+ * and flushed together.
+ */
+public class ControlWriter {
+
+    /**
+     * Maximum number of queued messages.
+     */
+    public static final int QUEUE_CAPACITY = 16;
+    /**
+     * How long {@link #send(byte[])} waits for room in a full queue, in ms.
+     */
+    public static final long QUEUE_FULL_TIMEOUT = 1000L;
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 512;
+
+    /**
+     * Guards the writer state.
+     */
+    private final Object mLock = new Object();
+    /**
+     * The buffered client stream.
+     */
+    private final OutputStream mOutput;
+    /**
+     * The writer thread.
+     */
+    private final Thread mThread;
+    /**
+     * Queued messages and state command.
+     */
+    private final ArrayDeque<byte[]> mQueue = new ArrayDeque<>(QUEUE_CAPACITY + 1);
+    /**
+     * Pending state command, also in the queue.
+     */
+    private byte[] mState;
+    /**
+     * Sequence number of the last message queued.
+     */
+    private long mQueuedSequence;
+    /**
+     * Sequence number of the last message written.
+     */
+    private long mWrittenSequence;
+    /**
+     * Number of state commands replaced before being written.
+     */
+    private int mCoalescedCount;
+    /**
+     * Number of messages dropped because the queue stayed full.
+     */
+    private int mDroppedCount;
+    /**
+     * True once closed or after a write error.
+     */
+    private boolean mClosed;
+    /**
+     * True once the writer thread stopped.
+     */
+    private boolean mFinished;
+
+    /**
+     * The class constructor.
+     *
+     * @param output the client stream.
+     * @param name   the writer thread name.
+     */
+    public ControlWriter(final OutputStream output, final String name) {
+        mOutput = new BufferedOutputStream(output, BUFFER_SIZE);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, name);
+        mThread.setDaemon(true);
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public void start() {
+        mThread.start();
+    }
+
+    /**
+     * Queues a message. The message must not be modified afterwards. If the
+     * queue is full it waits up to {@link #QUEUE_FULL_TIMEOUT} for the client
+     * to catch up.
+     *
+     * @param message the encoded message.
+     * @return false if the queue stayed full or the writer is closed.
+     */
+    public boolean send(final byte[] message) {
+        final long deadline = System.currentTimeMillis() + QUEUE_FULL_TIMEOUT;
+        synchronized (mLock) {
+            while (!mClosed && getMessageCount() >= QUEUE_CAPACITY) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    mDroppedCount++;
+                    Log.e("Control queue full, dropping message");
+                    return false;
+                }
+                try {
+                    mLock.wait(remaining);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    Log.e("Interrupted on a full control queue, dropping message");
+                    mDroppedCount++;
+                    return false;
+                }
+            }
+            if (mClosed) {
+                return false;
+            }
+            mQueue.add(message);
+            mQueuedSequence++;
+            mLock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Sets the state command to write, replacing a previous one not written
+     * yet. The command must not be modified afterwards.
+     *
+     * @param command the encoded command.
+     * @return false if the writer is closed.
+     */
+    public boolean sendState(final byte[] command) {
+        synchronized (mLock) {
+            if (mClosed) {
+                return false;
+            }
+            if (mState != null) {
+                mQueue.removeLastOccurrence(mState);
+                mCoalescedCount++;
+            }
+            mQueue.add(command);
+            mState = command;
+            mQueuedSequence++;
+            mLock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Waits until everything sent before this call is written to the client.
+     *
+     * @param timeout the maximum time to wait, in ms.
+     * @return true if everything was written, false on timeout or error.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean flush(final long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        synchronized (mLock) {
+            final long target = mQueuedSequence;
+            while (mWrittenSequence < target) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (mFinished || remaining <= 0) {
+                    return false;
+                }
+                mLock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stops accepting messages. Pending messages are still written.
+     */
+    public void close() {
+        synchronized (mLock) {
+            mClosed = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the number of state commands replaced before being written.
+     *
+     * @return the coalesced count.
+     */
+    public int getCoalescedCount() {
+        synchronized (mLock) {
+            return mCoalescedCount;
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue stayed full.
+     *
+     * @return the dropped count.
+     */
+    public int getDroppedCount() {
+        synchronized (mLock) {
+            return mDroppedCount;
+        }
+    }
+
+    /**
+     * Returns the number of queued messages, not counting the state command.
+     * Must be called holding the lock.
+     *
+     * @return the message count.
+     */
+    private int getMessageCount() {
+        return mState == null ? mQueue.size() : mQueue.size() - 1;
+    }
+
+    /**
+     * Writes the pending messages until closed.
+     */
+    private void writeLoop() {
+        final List<byte[]> batch = new ArrayList<>(QUEUE_CAPACITY + 1);
+        try {
+            while (true) {
+                final long sequence;
+                synchronized (mLock) {
+                    while (mQueue.isEmpty() && !mClosed) {
+                        mLock.wait();
+                    }
+                    if (mQueue.isEmpty()) {
+                        return;
+                    }
+                    batch.addAll(mQueue);
+                    mQueue.clear();
+                    mState = null;
+                    sequence = mQueuedSequence;
+                    // Wake up senders waiting for room.
+                    mLock.notifyAll();
+                }
+
+                for (byte[] message : batch) {
+                    mOutput.write(message);
+                }
+                mOutput.flush();
+                batch.clear();
+
+                synchronized (mLock) {
+                    mWrittenSequence = sequence;
+                    mLock.notifyAll();
+                }
+            }
+        } catch (final IOException e) {
+            Log.e(e.getLocalizedMessage());
+        } catch (final InterruptedException e) {
+            Log.e(e.getLocalizedMessage());
+        } finally {
+            synchronized (mLock) {
+                mClosed = true;
+                mFinished = true;
+                mQueue.clear();
+                mState = null;
+                mLock.notifyAll();
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ import android.os.Build;
 import com.sonymobile.androidapp.gridcomputing.preferences.MiscPref;
 import com.sonymobile.androidapp.gridcomputing.utils.ApplicationData;
 
+import java.util.Collection;
 import java.util.Locale;
 
 
@@ -23,18 +24,51 @@ public final class EnvironmentMessenger {
     /**
      * Returns the key message sent to the client.js.
      *
+     * @param features the protocol features accepted by the host.
      * @return a JSON containing the key reply message.
      */
-    public static String getJsonKeyReply() {
+    public static String getJsonKeyReply(final Collection<String> features) {
+        return "{\"action\": \"key\", \"content\":" + getKeyContent(features) + "}\n";
+    }
+
+    /**
+     * Returns the key message sent to a client.js already using the
+     * framed protocol.
+     *
+     * @param features the protocol features accepted by the host.
+     * @return the encoded key frame.
+     */
+    public static byte[] getKeyFrame(final Collection<String> features) {
+        return ControlProtocol.encodeStringFrame(ControlProtocol.ACTION_KEY,
+                getKeyContent(features));
+    }
+
+    /**
+     * Returns the content of the key message.
+     *
+     * @param features the protocol features accepted by the host.
+     * @return a JSON containing the key.
+     */
+    private static String getKeyContent(final Collection<String> features) {
         final String key = "clientkey";
         final String uuid = MiscPref.getUUID();
-        return "{\"action\": \"key\", \"content\":{\"key\":\"" + key  + "\", "
+        final StringBuilder featureList = new StringBuilder();
+        for (String feature : features) {
+            if (featureList.length() > 0) {
+                featureList.append(", ");
+            }
+            featureList.append('"').append(feature).append('"');
+        }
+        return "{\"key\":\"" + key  + "\", "
                 + "\"uuid\":\"" + uuid + "\", "
                 + "\"app_version\" : \"" + getVersionCode() + "\", "
                 + "\"platform\" : \"android\", "
                 + "\"os_version\" : \"" + Build.VERSION.RELEASE + "\", "
-                + "\"arch\" : \"" + Build.CPU_ABI + "\""
-                + "}}\n";
+                + "\"arch\" : \"" + Build.CPU_ABI + "\", "
+                + "\"features\" : [" + featureList + "]"
+                + (features.contains(ControlProtocol.FEATURE_HEARTBEAT)
+                ? ", \"heartbeat_interval\" : " + ControlProtocol.HEARTBEAT_INTERVAL : "")
+                + "}";
     }
 
     /**
@@ -50,6 +84,15 @@ public final class EnvironmentMessenger {
         return "{\"action\": \"kill\", \"content\":\"SIGTERM\"}\n";
     }
 
+    /**
+     * Returns the freeze message sent to the client.js.
+     *
+     * @return a JSON containing the freeze message.
+     */
+    public static String getJsonFreezeClient() {
+        return "{\"action\": \"freeze\", \"content\":{}}\n";
+    }
+
     /**
      * Returns the resume execution message sent to the client.js.
      *
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+/**
+ * Measures the time the workers are allowed to fold, to credit it tick by
+ * tick. The time between a {@link #pause(long)} and the next
+ * {@link #resume(long)}, while the workers are frozen or stopped by the
+ * conditions, is never credited.
+ * <p>
+ * All times are in milliseconds of a monotonic clock, such as
+ * {@link android.os.SystemClock#elapsedRealtime()}.
+ */
+public class FoldingTimer {
+
+    /**
+     * Time of the last tick or resume, -1 while paused.
+     */
+    private long mLastTime = -1L;
+
+    /**
+     * Starts measuring, if paused.
+     *
+     * @param now the current time.
+     */
+    public synchronized void resume(final long now) {
+        if (mLastTime < 0) {
+            mLastTime = now;
+        }
+    }
+
+    /**
+     * Returns the time since the last tick or resume, and stops measuring.
+     *
+     * @param now the current time.
+     * @return the time to credit, 0 if already paused.
+     */
+    public synchronized long pause(final long now) {
+        final long time = take(now);
+        mLastTime = -1L;
+        return time;
+    }
+
+    /**
+     * Returns the time since the last tick or resume.
+     *
+     * @param now the current time.
+     * @return the time to credit, 0 while paused.
+     */
+    public synchronized long take(final long now) {
+        if (mLastTime < 0) {
+            return 0L;
+        }
+        final long time = Math.max(0L, now - mLastTime);
+        mLastTime = now;
+        return time;
+    }
+}
@@ -32,6 +32,9 @@ public interface JobExecutionListener {
     /**
      * Action triggered when client stops (regardless of
      * reason for the stop).
+     *
+     * @param worker the id of the worker that stopped.
+     * @param reason why the worker stopped.
      */
-    void clientStopped();
+    void clientStopped(int worker, StopReason reason);
 }
@@ -0,0 +1,231 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import android.os.Build;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Samples the CPU time used by a process and its descendants from
+ * /proc/&lt;pid&gt;/stat. The stat of a process already adds up all of its
+ * threads, and the children that already exited are counted in the
+ * cutime/cstime of their parent.
+ */
+public class ProcessCpuSampler {
+
+    /**
+     * Clock ticks per second used by the kernel when sysconf is not available.
+     */
+    private static final long DEFAULT_CLOCK_TICKS = 100L;
+    /**
+     * Milliseconds per second.
+     */
+    private static final long MILLIS_PER_SECOND = 1000L;
+    /**
+     * Index of the parent pid after the process name in the stat line.
+     */
+    private static final int STAT_PPID = 1;
+    /**
+     * Index of the user time after the process name in the stat line.
+     */
+    private static final int STAT_UTIME = 11;
+    /**
+     * Index of the children system time after the process name in the stat line.
+     */
+    private static final int STAT_CSTIME = 14;
+    /**
+     * The proc directory.
+     */
+    private static final File PROC_DIR = new File("/proc");
+
+    /**
+     * Clock ticks per second.
+     */
+    private static final long CLOCK_TICKS = getClockTicks();
+
+    /**
+     * The root process pid.
+     */
+    private final int mPid;
+    /**
+     * CPU ticks of the last sample.
+     */
+    private long mLastTicks;
+
+    /**
+     * The class constructor.
+     *
+     * @param pid the root process pid.
+     */
+    public ProcessCpuSampler(final int pid) {
+        mPid = pid;
+    }
+
+    /**
+     * Creates a sampler for a process started by a {@link ProcessBuilder}.
+     *
+     * @param process the process.
+     * @return the sampler or null if the process pid can't be read.
+     */
+    public static ProcessCpuSampler forProcess(final Process process) {
+        try {
+            final Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return new ProcessCpuSampler(field.getInt(process));
+        } catch (final Exception e) {
+            Log.e("Can't read the process pid: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the CPU time used by the process tree since the previous call.
+     *
+     * @return the CPU time in ms.
+     */
+    public synchronized long takeCpuTimeDelta() {
+        final long ticks = sampleTicks();
+        // The ticks may go back when a child exits before its parent reaps it.
+        final long delta = Math.max(0L, ticks - mLastTicks);
+        mLastTicks = Math.max(ticks, mLastTicks);
+        return delta * MILLIS_PER_SECOND / CLOCK_TICKS;
+    }
+
+    /**
+     * Returns the CPU ticks used by the process tree.
+     *
+     * @return the ticks.
+     */
+    private long sampleTicks() {
+        final String[] root = readStat(mPid);
+        if (root == null) {
+            return mLastTicks;
+        }
+        long ticks = getTicks(root);
+
+        // Look for the descendants of the root process.
+        final String[] entries = PROC_DIR.list();
+        if (entries == null) {
+            return ticks;
+        }
+        final List<String[]> stats = new ArrayList<>();
+        final List<Integer> pids = new ArrayList<>();
+        for (String entry : entries) {
+            if (!isPid(entry)) {
+                continue;
+            }
+            final int pid = Integer.parseInt(entry);
+            if (pid == mPid) {
+                continue;
+            }
+            final String[] stat = readStat(pid);
+            if (stat != null) {
+                stats.add(stat);
+                pids.add(pid);
+            }
+        }
+        final List<Integer> tree = new ArrayList<>();
+        tree.add(mPid);
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (int i = 0; i < stats.size(); i++) {
+                final int ppid = Integer.parseInt(stats.get(i)[STAT_PPID]);
+                if (!tree.contains(pids.get(i)) && tree.contains(ppid)) {
+                    tree.add(pids.get(i));
+                    ticks += getTicks(stats.get(i));
+                    added = true;
+                }
+            }
+        }
+        return ticks;
+    }
+
+    /**
+     * Reads the fields following the process name of a stat file.
+     *
+     * @param pid the process pid.
+     * @return the fields or null if the process is gone.
+     */
+    private static String[] readStat(final int pid) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/" + pid + "/stat"));
+            final String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            // The process name may have spaces, so split after it.
+            final String[] fields = line.substring(line.lastIndexOf(')') + 2).split(" ");
+            return fields.length > STAT_CSTIME ? fields : null;
+        } catch (final IOException e) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the user, system, children user and children system ticks of a stat.
+     *
+     * @param stat the stat fields.
+     * @return the ticks.
+     */
+    private static long getTicks(final String[] stat) {
+        long ticks = 0;
+        for (int i = STAT_UTIME; i <= STAT_CSTIME; i++) {
+            ticks += Long.parseLong(stat[i]);
+        }
+        return ticks;
+    }
+
+    /**
+     * Checks if a proc entry is a pid.
+     *
+     * @param entry the entry name.
+     * @return true if it is a pid.
+     */
+    private static boolean isPid(final String entry) {
+        for (int i = 0; i < entry.length(); i++) {
+            if (!Character.isDigit(entry.charAt(i))) {
+                return false;
+            }
+        }
+        return !entry.isEmpty();
+    }
+
+    /**
+     * Returns the number of clock ticks per second.
+     *
+     * @return the clock ticks.
+     */
+    private static long getClockTicks() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            final long ticks = Os.sysconf(OsConstants._SC_CLK_TCK);
+            if (ticks > 0) {
+                return ticks;
+            }
+        }
+        return DEFAULT_CLOCK_TICKS;
+    }
+}
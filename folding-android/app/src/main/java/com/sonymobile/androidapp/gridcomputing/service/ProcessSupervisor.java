@@ -0,0 +1,176 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the failure history of a client process and decides when it should
+ * be restarted. Restarts back off exponentially while the process keeps
+ * failing, and stop when it fails too often in a short period.
+ * <p>
+ * All times are in milliseconds of a monotonic clock, such as
+ * {@link android.os.SystemClock#elapsedRealtime()}.
+ */
+public class ProcessSupervisor {
+
+    /**
+     * Delay before the first restart.
+     */
+    public static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Longest delay between restarts.
+     */
+    public static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * A process running at least this long resets the backoff.
+     */
+    public static final long STABLE_RUN_TIME = TimeUnit.MINUTES.toMillis(10);
+    /**
+     * Number of failures within {@link #CRASH_LOOP_WINDOW} considered a crash loop.
+     */
+    public static final int CRASH_LOOP_FAILURES = 5;
+    /**
+     * Window used to detect crash loops.
+     */
+    public static final long CRASH_LOOP_WINDOW = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Returned by {@link #onFailure} when the process should not be restarted.
+     */
+    public static final long NO_RESTART = -1L;
+
+    /**
+     * Times of the most recent failures, used as a ring.
+     */
+    private final long[] mRecentFailures = new long[CRASH_LOOP_FAILURES];
+    /**
+     * Failures since the last stable run.
+     */
+    private int mConsecutiveFailures;
+    /**
+     * Total number of failures.
+     */
+    private int mFailureCount;
+    /**
+     * Total number of restarts.
+     */
+    private int mRestartCount;
+    /**
+     * Total time the process has run.
+     */
+    private long mTotalRunTime;
+    /**
+     * The last failure reason.
+     */
+    private StopReason mLastFailure;
+    /**
+     * The last exit code.
+     */
+    private int mLastExitCode;
+
+    /**
+     * Records a run of the process that ended without failure.
+     *
+     * @param startTime when the process started.
+     * @param stopTime  when the process stopped.
+     */
+    public synchronized void onStopped(final long startTime, final long stopTime) {
+        mTotalRunTime += stopTime - startTime;
+        mConsecutiveFailures = 0;
+    }
+
+    /**
+     * Records a failure of the process.
+     *
+     * @param startTime when the process started.
+     * @param stopTime  when the process stopped.
+     * @param reason    why the process stopped.
+     * @param exitCode  the process exit code, if any.
+     * @return the delay before restarting the process or {@link #NO_RESTART}
+     * if the process is in a crash loop.
+     */
+    public synchronized long onFailure(final long startTime, final long stopTime,
+                                       final StopReason reason, final int exitCode) {
+        final long runTime = stopTime - startTime;
+        mTotalRunTime += runTime;
+        mLastFailure = reason;
+        mLastExitCode = exitCode;
+        if (runTime >= STABLE_RUN_TIME) {
+            mConsecutiveFailures = 0;
+        }
+
+        mRecentFailures[mFailureCount % CRASH_LOOP_FAILURES] = stopTime;
+        mFailureCount++;
+        mConsecutiveFailures++;
+
+        // Once the ring is full, the next slot holds the oldest of the last failures.
+        if (mFailureCount >= CRASH_LOOP_FAILURES && stopTime
+                - mRecentFailures[mFailureCount % CRASH_LOOP_FAILURES] < CRASH_LOOP_WINDOW) {
+            return NO_RESTART;
+        }
+
+        mRestartCount++;
+        return getBackoff(mConsecutiveFailures);
+    }
+
+    /**
+     * Returns the delay before a restart.
+     *
+     * @param consecutiveFailures the number of consecutive failures.
+     * @return the delay.
+     */
+    static long getBackoff(final int consecutiveFailures) {
+        final int shift = Math.min(Math.max(consecutiveFailures - 1, 0), Long.SIZE - 2);
+        final long backoff = MIN_BACKOFF << shift;
+        return backoff > MAX_BACKOFF || backoff <= 0 ? MAX_BACKOFF : backoff;
+    }
+
+    /**
+     * Returns how many times the process was restarted.
+     *
+     * @return the restart count.
+     */
+    public synchronized int getRestartCount() {
+        return mRestartCount;
+    }
+
+    /**
+     * Returns how many times the process failed.
+     *
+     * @return the failure count.
+     */
+    public synchronized int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * Returns the mean run time between failures.
+     *
+     * @return the mean time between failures or -1 if the process never failed.
+     */
+    public synchronized long getMeanTimeBetweenFailures() {
+        return mFailureCount == 0 ? -1L : mTotalRunTime / mFailureCount;
+    }
+
+    /**
+     * Returns the reason of the last failure.
+     *
+     * @return the reason or null if the process never failed.
+     */
+    public synchronized StopReason getLastFailure() {
+        return mLastFailure;
+    }
+
+    /**
+     * Returns the exit code of the last failure.
+     *
+     * @return the exit code.
+     */
+    public synchronized int getLastExitCode() {
+        return mLastExitCode;
+    }
+}
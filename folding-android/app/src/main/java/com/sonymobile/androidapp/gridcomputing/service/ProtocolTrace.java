@@ -0,0 +1,319 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Records the bytes exchanged with the client process, with the time they
+ * were read or written, so a run can be replayed later.
+ * <p>
+ * A trace starts with {@link #MAGIC} and {@link #VERSION}, followed by one
+ * record per read or write: the direction byte, the time since the trace
+ * start in microseconds, the data length and the data, numbers encoded as
+ * varints like in {@link ControlProtocol}.
+ */
+public class ProtocolTrace {
+
+    /**
+     * Bytes written by the host to the client.
+     */
+    public static final int DIRECTION_HOST = 0;
+    /**
+     * Control bytes written by the client to the host.
+     */
+    public static final int DIRECTION_CLIENT = 1;
+    /**
+     * Log bytes written by the client to the host.
+     */
+    public static final int DIRECTION_LOG = 2;
+    /**
+     * Trace format version.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Bytes starting a trace.
+     */
+    private static final byte[] MAGIC = {'G', 'C', 'T', 'R'};
+    /**
+     * Extension of the trace files.
+     */
+    private static final String EXTENSION = ".trace";
+    /**
+     * Number of trace files kept in the trace directory.
+     */
+    private static final int MAX_TRACE_FILES = 5;
+    /**
+     * Nanoseconds per microsecond.
+     */
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    /**
+     * The trace stream.
+     */
+    private final OutputStream mOutput;
+    /**
+     * Buffer reused for the record headers.
+     */
+    private final ByteArrayOutputStream mHeader = new ByteArrayOutputStream();
+    /**
+     * Time the trace started, in ns.
+     */
+    private final long mStartTime = System.nanoTime();
+    /**
+     * True once closed or after a write error.
+     */
+    private boolean mClosed;
+
+    /**
+     * The class constructor.
+     *
+     * @param output the trace stream.
+     * @throws IOException if the header can't be written.
+     */
+    public ProtocolTrace(final OutputStream output) throws IOException {
+        mOutput = new BufferedOutputStream(output);
+        mOutput.write(MAGIC);
+        mOutput.write(VERSION);
+    }
+
+    /**
+     * Creates a new trace file, deleting the oldest ones.
+     *
+     * @param dir    the trace directory.
+     * @param worker the worker id.
+     * @return the trace.
+     * @throws IOException if the file can't be created.
+     */
+    public static ProtocolTrace open(final File dir, final int worker) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create trace dir " + dir);
+        }
+        final File[] files = dir.listFiles();
+        if (files != null && files.length >= MAX_TRACE_FILES) {
+            // The names start with the creation time, so they sort by age.
+            Arrays.sort(files);
+            for (int i = 0; i <= files.length - MAX_TRACE_FILES; i++) {
+                if (!files[i].delete()) {
+                    Log.e("Can't delete trace " + files[i]);
+                }
+            }
+        }
+        final File file = new File(dir, System.currentTimeMillis() + "-" + worker + EXTENSION);
+        Log.d("Recording protocol trace to " + file);
+        return new ProtocolTrace(new FileOutputStream(file));
+    }
+
+    /**
+     * Records bytes read or written.
+     *
+     * @param direction the direction, one of the DIRECTION constants.
+     * @param data      the data.
+     * @param offset    the data offset.
+     * @param length    the data length.
+     */
+    public synchronized void record(final int direction, final byte[] data, final int offset,
+                                    final int length) {
+        if (mClosed || length <= 0) {
+            return;
+        }
+        try {
+            mHeader.reset();
+            mHeader.write(direction);
+            ControlProtocol.writeVarint(mHeader, (System.nanoTime() - mStartTime)
+                    / NANOS_PER_MICRO);
+            ControlProtocol.writeVarint(mHeader, length);
+            mHeader.writeTo(mOutput);
+            mOutput.write(data, offset, length);
+        } catch (final IOException e) {
+            Log.e("Protocol trace failed: " + e.getLocalizedMessage());
+            close();
+        }
+    }
+
+    /**
+     * Flushes and closes the trace.
+     */
+    public synchronized void close() {
+        if (!mClosed) {
+            mClosed = true;
+            try {
+                mOutput.close();
+            } catch (final IOException e) {
+                Log.e(e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Wraps a stream so everything read from it is recorded.
+     *
+     * @param input     the stream.
+     * @param direction the direction of the bytes read.
+     * @return the wrapped stream.
+     */
+    public InputStream wrapInput(final InputStream input, final int direction) {
+        return new FilterInputStream(input) {
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b >= 0) {
+                    record(direction, new byte[]{(byte) b}, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] buffer, final int offset, final int length)
+                    throws IOException {
+                final int count = super.read(buffer, offset, length);
+                record(direction, buffer, offset, count);
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream so everything written to it is recorded.
+     *
+     * @param output    the stream.
+     * @param direction the direction of the bytes written.
+     * @return the wrapped stream.
+     */
+    public OutputStream wrapOutput(final OutputStream output, final int direction) {
+        return new FilterOutputStream(output) {
+            @Override
+            public void write(final int b) throws IOException {
+                record(direction, new byte[]{(byte) b}, 0, 1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(final byte[] buffer, final int offset, final int length)
+                    throws IOException {
+                record(direction, buffer, offset, length);
+                out.write(buffer, offset, length);
+            }
+        };
+    }
+
+    /**
+     * Reads and checks the header of a trace.
+     *
+     * @param input the trace stream.
+     * @throws IOException if the stream is not a supported trace.
+     */
+    public static void readHeader(final InputStream input) throws IOException {
+        for (byte b : MAGIC) {
+            if (input.read() != b) {
+                throw new IOException("Not a protocol trace");
+            }
+        }
+        final int version = input.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported trace version: " + version);
+        }
+    }
+
+    /**
+     * Reads the next record of a trace, after its header.
+     *
+     * @param input the trace stream.
+     * @return the record or null at the end of the trace.
+     * @throws IOException if the trace is truncated.
+     */
+    public static Record readRecord(final InputStream input) throws IOException {
+        final int direction = input.read();
+        if (direction < 0) {
+            return null;
+        }
+        final long time = ControlProtocol.readVarint(input);
+        final long length = ControlProtocol.readVarint(input);
+        if (time < 0 || length < 0 || length > ControlProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Corrupted trace record");
+        }
+        final byte[] data = new byte[(int) length];
+        int read = 0;
+        while (read < data.length) {
+            final int count = input.read(data, read, data.length - read);
+            if (count < 0) {
+                throw new EOFException("Truncated trace record");
+            }
+            read += count;
+        }
+        return new Record(direction, time, data);
+    }
+
+    /**
+     * Bytes read or written at a given time.
+     */
+    public static final class Record {
+        /**
+         * The direction.
+         */
+        private final int mDirection;
+        /**
+         * Time since the trace start, in microseconds.
+         */
+        private final long mTime;
+        /**
+         * The data.
+         */
+        private final byte[] mData;
+
+        /**
+         * The class constructor.
+         *
+         * @param direction the direction.
+         * @param time      time since the trace start, in microseconds.
+         * @param data      the data.
+         */
+        Record(final int direction, final long time, final byte[] data) {
+            mDirection = direction;
+            mTime = time;
+            mData = data;
+        }
+
+        /**
+         * Returns the direction.
+         *
+         * @return one of the DIRECTION constants.
+         */
+        public int getDirection() {
+            return mDirection;
+        }
+
+        /**
+         * Returns the time since the trace start.
+         *
+         * @return the time in microseconds.
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        /**
+         * Returns the data.
+         *
+         * @return the data.
+         */
+        public byte[] getData() {
+            return mData;
+        }
+    }
+}
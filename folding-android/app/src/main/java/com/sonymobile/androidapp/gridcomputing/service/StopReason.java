@@ -0,0 +1,125 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+/**
+ * Reasons for a client process to stop.
+ */
+public enum StopReason {
+    /**
+     * The client acknowledged a kill sent by the host.
+     */
+    CLIENT_KILLED(false),
+    /**
+     * The process exited with code 0 without being asked to.
+     */
+    EXITED(true),
+    /**
+     * The process exited with a non zero code.
+     */
+    CRASHED(true),
+    /**
+     * The process was terminated by a signal.
+     */
+    SIGNALED(true),
+    /**
+     * The process could not be started.
+     */
+    START_FAILED(true),
+    /**
+     * The communication with the process failed.
+     */
+    IO_ERROR(true),
+    /**
+     * The process stopped sending heartbeats and was destroyed.
+     */
+    HANG(true),
+    /**
+     * The process failed too many times in a short period and won't be
+     * restarted.
+     */
+    CRASH_LOOP(false);
+
+    /**
+     * Since Android N exit codes above this value follow the shell convention
+     * of 128 plus the number of the signal that terminated the process.
+     */
+    private static final int SIGNAL_EXIT_CODE_BASE = 128;
+    /**
+     * Signals that terminate a crashed or killed process. Before Android N
+     * the exit value of a signaled process is the raw signal number, which
+     * can't be told apart from an exit code, so only these are recognized.
+     */
+    private static final int[] RAW_SIGNALS = {
+            4,  // SIGILL
+            6,  // SIGABRT
+            7,  // SIGBUS
+            8,  // SIGFPE
+            9,  // SIGKILL
+            11, // SIGSEGV
+            15, // SIGTERM
+    };
+
+    /**
+     * True if the process stopped unexpectedly.
+     */
+    private final boolean mFailure;
+
+    /**
+     * The enum constructor.
+     *
+     * @param failure true if the process stopped unexpectedly.
+     */
+    StopReason(final boolean failure) {
+        mFailure = failure;
+    }
+
+    /**
+     * Checks if the process stopped unexpectedly and may be restarted.
+     *
+     * @return true if it is a failure.
+     */
+    public boolean isFailure() {
+        return mFailure;
+    }
+
+    /**
+     * Classifies the exit code of a process that exited on its own.
+     *
+     * @param exitCode  the exit code.
+     * @param rawSignal true if the exit code of a signaled process is the raw
+     *                  signal number, as reported before Android N.
+     * @return the reason.
+     */
+    public static StopReason fromExitCode(final int exitCode, final boolean rawSignal) {
+        if (exitCode == 0) {
+            return EXITED;
+        } else if (getSignal(exitCode, rawSignal) != 0) {
+            return SIGNALED;
+        }
+        return CRASHED;
+    }
+
+    /**
+     * Returns the signal that terminated a process.
+     *
+     * @param exitCode  the exit code.
+     * @param rawSignal true if the exit code of a signaled process is the raw
+     *                  signal number, as reported before Android N.
+     * @return the signal number or 0 if the process was not signaled.
+     */
+    public static int getSignal(final int exitCode, final boolean rawSignal) {
+        if (!rawSignal) {
+            return exitCode > SIGNAL_EXIT_CODE_BASE ? exitCode - SIGNAL_EXIT_CODE_BASE : 0;
+        }
+        for (final int signal : RAW_SIGNALS) {
+            if (exitCode == signal) {
+                return signal;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+/**
+ * PID controller turning how far the device is above its target
+ * temperature into the fraction of time the job may run.
+ * <p>
+ * The output is 1 minus the controller response, so the job runs flat out
+ * while the device is cool and is throttled down to
+ * {@link #MIN_DUTY_CYCLE} as it heats up. The integral term holds the duty
+ * cycle that keeps the temperature at the target, and is bounded to what
+ * can change the output, so it doesn't wind up while saturated.
+ * <p>
+ * All times are in milliseconds of a monotonic clock, such as
+ * {@link android.os.SystemClock#elapsedRealtime()}.
+ */
+public class ThermalGovernor {
+
+    /**
+     * Lowest duty cycle, so the job always makes some progress.
+     */
+    public static final float MIN_DUTY_CYCLE = 0.25f;
+    /**
+     * Proportional gain, per degree Celsius above the target.
+     */
+    static final float KP = 0.08f;
+    /**
+     * Integral gain, per degree Celsius above the target and second.
+     */
+    static final float KI = 0.001f;
+    /**
+     * Derivative gain, per degree Celsius per second.
+     */
+    static final float KD = 2f;
+    /**
+     * Bound of the integral term, which alone can reach the lowest duty cycle.
+     */
+    private static final float MAX_INTEGRAL = (1f - MIN_DUTY_CYCLE) / KI;
+
+    /**
+     * Accumulated error, in degree Celsius seconds.
+     */
+    private float mIntegral;
+    /**
+     * Error of the previous update.
+     */
+    private float mLastError;
+    /**
+     * Time of the previous update, -1 if none.
+     */
+    private long mLastTime = -1L;
+    /**
+     * The duty cycle of the previous update.
+     */
+    private float mDutyCycle = 1f;
+
+    /**
+     * Updates the controller with a new reading.
+     *
+     * @param error how many degrees Celsius the device is above its target
+     *              temperature, negative if below.
+     * @param now   the time of the reading.
+     * @return the duty cycle, between {@link #MIN_DUTY_CYCLE} and 1.
+     */
+    public synchronized float update(final float error, final long now) {
+        float derivative = 0f;
+        if (mLastTime >= 0 && now > mLastTime) {
+            final float seconds = (now - mLastTime) / 1000f;
+            mIntegral = Math.max(0f, Math.min(MAX_INTEGRAL, mIntegral + error * seconds));
+            derivative = (error - mLastError) / seconds;
+        }
+        mLastError = error;
+        mLastTime = now;
+
+        final float response = KP * error + KI * mIntegral + KD * derivative;
+        mDutyCycle = Math.max(MIN_DUTY_CYCLE, Math.min(1f, 1f - response));
+        return mDutyCycle;
+    }
+
+    /**
+     * Returns the duty cycle of the last update.
+     *
+     * @return the duty cycle, 1 before any update.
+     */
+    public synchronized float getDutyCycle() {
+        return mDutyCycle;
+    }
+
+    /**
+     * Forgets the past readings, for instance after the job was stopped for
+     * a while.
+     */
+    public synchronized void reset() {
+        mIntegral = 0f;
+        mLastError = 0f;
+        mLastTime = -1L;
+        mDutyCycle = 1f;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import android.os.SystemClock;
+
+import com.sonymobile.androidapp.gridcomputing.conditions.ConditionSnapshot;
+import com.sonymobile.androidapp.gridcomputing.conditions.ConditionsHandler;
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duty cycles the workers to hold the device under its target temperature,
+ * before the kernel throttles the clocks. Every period the battery and the
+ * thermal zones are read, the {@link ThermalGovernor} picks the fraction
+ * of the period the workers run, and they are frozen for the rest of it.
+ */
+public class ThermalThrottle {
+
+    /**
+     * Length of a duty cycle period.
+     */
+    private static final long PERIOD = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * Shortest freeze worth sending to the workers.
+     */
+    private static final long MIN_THROTTLE_TIME = TimeUnit.SECONDS.toMillis(2);
+    /**
+     * Target battery temperature, in tenths of degree Celsius.
+     */
+    private static final int BATTERY_TARGET_TEMPERATURE = 380;
+    /**
+     * Target temperature of the thermal zones, in tenths of degree Celsius,
+     * below the usual kernel throttling trip points.
+     */
+    private static final int ZONE_TARGET_TEMPERATURE = 750;
+    /**
+     * Highest plausible temperature, in tenths of degree Celsius. Zones
+     * reading more are broken or not temperature sensors.
+     */
+    private static final int MAX_TEMPERATURE = 1500;
+    /**
+     * Directory of the thermal zones.
+     */
+    private static final File THERMAL_DIR = new File("/sys/class/thermal");
+
+    /**
+     * The throttled workers.
+     */
+    private final WorkerPool mWorkerPool;
+    /**
+     * The controller.
+     */
+    private final ThermalGovernor mGovernor = new ThermalGovernor();
+    /**
+     * Temperature files of the thermal zones.
+     */
+    private final File[] mZones;
+    /**
+     * Single thread reading the sensors and throttling the workers.
+     */
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(runnable, "thermal");
+                }
+            });
+    /**
+     * The periodic update, null while stopped. Only used on the executor.
+     */
+    private ScheduledFuture<?> mPeriodFuture;
+    /**
+     * The freeze of the current period, null if none. Only used on the executor.
+     */
+    private ScheduledFuture<?> mThrottleFuture;
+    /**
+     * True while the workers are frozen. Only used on the executor.
+     */
+    private boolean mThrottled;
+
+    /**
+     * Starts a duty cycle period: reads the temperature, runs the workers
+     * and schedules their freeze.
+     */
+    private final Runnable mPeriodRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final float dutyCycle = mGovernor.update(readTemperatureError(),
+                    SystemClock.elapsedRealtime());
+            setThrottled(false);
+            final long throttleTime = Math.round(PERIOD * (1f - dutyCycle));
+            if (throttleTime >= MIN_THROTTLE_TIME) {
+                Log.d("ThermalThrottle > duty cycle: " + dutyCycle);
+                mThrottleFuture = mExecutor.schedule(mThrottleRunnable,
+                        PERIOD - throttleTime, TimeUnit.MILLISECONDS);
+            }
+        }
+    };
+
+    /**
+     * Freezes the workers for the rest of the period.
+     */
+    private final Runnable mThrottleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mThrottleFuture = null;
+            setThrottled(true);
+        }
+    };
+
+    /**
+     * The class constructor.
+     *
+     * @param workerPool the workers to throttle.
+     */
+    public ThermalThrottle(final WorkerPool workerPool) {
+        mWorkerPool = workerPool;
+        mZones = findZones();
+    }
+
+    /**
+     * Starts duty cycling the workers, if not started yet.
+     */
+    public void start() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mPeriodFuture == null) {
+                    mGovernor.reset();
+                    mPeriodFuture = mExecutor.scheduleAtFixedRate(mPeriodRunnable, 0L, PERIOD,
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops duty cycling the workers, letting them run.
+     */
+    public void stop() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mPeriodFuture != null) {
+                    mPeriodFuture.cancel(false);
+                    mPeriodFuture = null;
+                }
+                if (mThrottleFuture != null) {
+                    mThrottleFuture.cancel(false);
+                    mThrottleFuture = null;
+                }
+                setThrottled(false);
+            }
+        });
+    }
+
+    /**
+     * Stops duty cycling the workers and releases the thread.
+     */
+    public void shutDown() {
+        stop();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Freezes or runs the workers, if they are not already. Runs on the executor.
+     *
+     * @param throttled true to freeze the workers.
+     */
+    private void setThrottled(final boolean throttled) {
+        if (throttled == mThrottled) {
+            return;
+        }
+        mThrottled = throttled;
+        mWorkerPool.setThrottled(throttled);
+    }
+
+    /**
+     * Reads how far the device is above its target temperature: the largest
+     * difference among the battery and the thermal zones. The battery
+     * temperature comes from the last battery broadcast seen by the
+     * {@link ConditionsHandler}.
+     *
+     * @return the difference in degrees Celsius, negative if all are below.
+     */
+    private float readTemperatureError() {
+        int error = Integer.MIN_VALUE;
+        final int battery = ConditionsHandler.getInstance().getSnapshot()
+                .getBatteryTemperature();
+        if (battery != ConditionSnapshot.UNKNOWN_TEMPERATURE) {
+            error = battery - BATTERY_TARGET_TEMPERATURE;
+        }
+        for (File zone : mZones) {
+            final int temperature = readZoneTemperature(zone);
+            if (temperature > 0 && temperature < MAX_TEMPERATURE) {
+                error = Math.max(error, temperature - ZONE_TARGET_TEMPERATURE);
+            }
+        }
+        // Without any sensor, the device is assumed cool.
+        return error == Integer.MIN_VALUE ? -1f : error / 10f;
+    }
+
+    /**
+     * Finds the temperature files of the thermal zones.
+     *
+     * @return the files, empty if there are none.
+     */
+    private static File[] findZones() {
+        final File[] zones = THERMAL_DIR.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith("thermal_zone");
+            }
+        });
+        if (zones == null) {
+            return new File[0];
+        }
+        final File[] files = new File[zones.length];
+        for (int i = 0; i < zones.length; i++) {
+            files[i] = new File(zones[i], "temp");
+        }
+        return files;
+    }
+
+    /**
+     * Reads the temperature of a thermal zone. Depending on the driver, it
+     * is in millidegrees, tenths of degree or degrees Celsius.
+     *
+     * @param file the temperature file of the zone.
+     * @return the temperature in tenths of degree Celsius, or 0 if it can't
+     * be read.
+     */
+    static int readZoneTemperature(final File file) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            final String line = reader.readLine();
+            return line == null ? 0 : (int) toTenths(Long.parseLong(line.trim()));
+        } catch (final IOException | NumberFormatException e) {
+            // Disabled sensors fail to read.
+            return 0;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a raw zone temperature to tenths of degree Celsius.
+     *
+     * @param value the raw temperature.
+     * @return the temperature in tenths of degree Celsius.
+     */
+    static long toTenths(final long value) {
+        if (value >= 10000) {
+            return value / 100;
+        } else if (value >= 200) {
+            return value;
+        }
+        return value * 10;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.sonymobile.androidapp.gridcomputing.assets.CopyAssets;
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.messages.ConditionMessage;
+import com.sonymobile.androidapp.gridcomputing.preferences.SettingsPref;
+import com.sonymobile.androidapp.gridcomputing.utils.ApplicationData;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a client process of the first worker started ahead of time while the
+ * conditions to run jobs are not met. The client.js asks for the key as soon
+ * as it is loaded and waits for the reply, so the parked process holds no
+ * job and the next job starts without paying for the node startup.
+ * <p>
+ * The parked process is destroyed on a hard stop, under memory pressure and
+ * when it is not used for {@link #MAX_PARK_TIME}.
+ */
+public final class WarmStandby {
+
+    /**
+     * Longest time a process stays parked.
+     */
+    private static final long MAX_PARK_TIME = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * This class' singleton instance.
+     */
+    private static WarmStandby sWarmStandby;
+
+    /**
+     * Handler used to destroy a process parked for too long.
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Destroys the parked process when it was not used in time.
+     */
+    private final Runnable mExpireRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d("Standby > Parked process expired");
+            release();
+        }
+    };
+    /**
+     * The parked process.
+     */
+    private Parked mParked;
+
+    /**
+     * Simple constructor.
+     */
+    private WarmStandby() {
+    }
+
+    /**
+     * Gets the singleton instance.
+     *
+     * @return the singleton instance of this class.
+     */
+    public static synchronized WarmStandby getInstance() {
+        if (sWarmStandby == null) {
+            sWarmStandby = new WarmStandby();
+        }
+        return sWarmStandby;
+    }
+
+    /**
+     * Starts a process and parks it, if the warm standby is enabled and the
+     * jobs may run once the device conditions are met.
+     *
+     * @param context the context.
+     */
+    public synchronized void park(final Context context) {
+        if (mParked != null && isAlive(mParked.getProcess())) {
+            return;
+        }
+        release();
+        if (!SettingsPref.isWarmStandbyEnabled() || !SettingsPref.isExecutionEnabled()
+                || SettingsPref.isPaused() || ComputeService.isExecutingJobs()
+                || !CopyAssets.filesCopied()) {
+            return;
+        }
+
+        final Process process;
+        try {
+            process = ComputeEnvironment.startProcess(context, 0);
+        } catch (final IOException e) {
+            Log.e("Standby > " + e.getLocalizedMessage());
+            return;
+        }
+        final ClientLogDrain drain = new ClientLogDrain(process.getErrorStream(),
+                ComputeEnvironment.RECENT_LOG_LINES);
+        drain.start();
+        mParked = new Parked(process, drain);
+        mHandler.postDelayed(mExpireRunnable, MAX_PARK_TIME);
+        ApplicationData.getBus().register(this);
+        Log.d("Standby > Process parked");
+    }
+
+    /**
+     * Takes the parked process, to be used by the first worker.
+     *
+     * @return the parked process or null if there is none.
+     */
+    public synchronized Parked take() {
+        final Parked parked = mParked;
+        if (parked == null) {
+            return null;
+        }
+        detach();
+        if (!isAlive(parked.getProcess())) {
+            Log.d("Standby > Parked process is gone");
+            return null;
+        }
+        return parked;
+    }
+
+    /**
+     * Destroys the parked process, if any.
+     */
+    public synchronized void release() {
+        final Parked parked = mParked;
+        if (parked != null) {
+            detach();
+            parked.getProcess().destroy();
+            Log.d("Standby > Parked process released");
+        }
+    }
+
+    /**
+     * Releases the parked process when the system is low on memory.
+     *
+     * @param level the trim memory level.
+     */
+    public void onTrimMemory(final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            release();
+        }
+    }
+
+    /**
+     * Forgets the parked process.
+     */
+    private void detach() {
+        mParked = null;
+        mHandler.removeCallbacks(mExpireRunnable);
+        ApplicationData.getBus().unregister(this);
+    }
+
+    /**
+     * Checks if a process is still running.
+     *
+     * @param process the process.
+     * @return true if it is running.
+     */
+    private static boolean isAlive(final Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (final IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public void onEventBackgroundThread(final ConditionMessage message) {
+        if (message.isHardStop()) {
+            release();
+        }
+    }
+
+    /**
+     * A parked process and the thread draining its log.
+     */
+    public static final class Parked {
+        /**
+         * The process.
+         */
+        private final Process mProcess;
+        /**
+         * The log drain.
+         */
+        private final ClientLogDrain mLogDrain;
+
+        /**
+         * The class constructor.
+         *
+         * @param process  the process.
+         * @param logDrain the log drain.
+         */
+        Parked(final Process process, final ClientLogDrain logDrain) {
+            mProcess = process;
+            mLogDrain = logDrain;
+        }
+
+        /**
+         * Returns the process.
+         *
+         * @return the process.
+         */
+        public Process getProcess() {
+            return mProcess;
+        }
+
+        /**
+         * Returns the thread draining the process log.
+         *
+         * @return the log drain.
+         */
+        public ClientLogDrain getLogDrain() {
+            return mLogDrain;
+        }
+    }
+}
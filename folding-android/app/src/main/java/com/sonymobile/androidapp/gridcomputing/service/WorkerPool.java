@@ -0,0 +1,162 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.service;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.preferences.SettingsPref;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pool of compute environments, each one running its own client process
+ * with its own job state directory.
+ */
+public class WorkerPool {
+
+    /**
+     * Maximum number of workers, each worker holds a job in memory.
+     */
+    private static final int MAX_WORKERS = 4;
+    /**
+     * Battery temperature, in tenths of degree Celsius, above which the
+     * number of workers is halved.
+     */
+    private static final int WARM_BATTERY_TEMPERATURE = 370;
+    /**
+     * Battery temperature, in tenths of degree Celsius, above which only a
+     * single worker runs.
+     */
+    private static final int HOT_BATTERY_TEMPERATURE = 400;
+
+    /**
+     * The workers.
+     */
+    private final List<ComputeEnvironment> mWorkers;
+    /**
+     * Flags of the workers that already stopped.
+     */
+    private final boolean[] mStopped;
+    /**
+     * Number of workers that already stopped.
+     */
+    private int mStoppedCount;
+
+    /**
+     * The class constructor.
+     *
+     * @param context  the context.
+     * @param listener the listener shared by all workers.
+     * @param count    the number of workers.
+     */
+    public WorkerPool(final Context context, final JobExecutionListener listener,
+                      final int count) {
+        final List<ComputeEnvironment> workers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            workers.add(new ComputeEnvironment(context, listener, i));
+        }
+        mWorkers = Collections.unmodifiableList(workers);
+        mStopped = new boolean[count];
+    }
+
+    /**
+     * Returns how many workers should run. A single worker runs unless the
+     * worker pool is enabled, otherwise one core is left for the system and
+     * the count is reduced when the battery is warm.
+     *
+     * @param context the context.
+     * @return the number of workers.
+     */
+    public static int getWorkerCount(final Context context) {
+        if (!SettingsPref.isWorkerPoolEnabled()) {
+            return 1;
+        }
+        int count = Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1);
+
+        final Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        final int temperature = battery == null
+                ? 0 : battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+        if (temperature >= HOT_BATTERY_TEMPERATURE) {
+            count = 1;
+        } else if (temperature >= WARM_BATTERY_TEMPERATURE) {
+            count /= 2;
+        }
+        count = Math.max(1, count);
+        Log.d("WorkerPool > workers: " + count + " battery temperature: " + temperature);
+        return count;
+    }
+
+    /**
+     * Returns the workers.
+     *
+     * @return the unmodifiable list of workers.
+     */
+    public List<ComputeEnvironment> getWorkers() {
+        return mWorkers;
+    }
+
+    /**
+     * Starts all workers.
+     */
+    public void runJobs() {
+        for (ComputeEnvironment worker : mWorkers) {
+            worker.runJob();
+        }
+    }
+
+    /**
+     * Notifies all workers that the conditions changed.
+     *
+     * @param active   the active
+     * @param hardStop the hard stop
+     */
+    public void conditionChanged(final boolean active, final boolean hardStop) {
+        for (ComputeEnvironment worker : mWorkers) {
+            worker.conditionChanged(active, hardStop);
+        }
+    }
+
+    /**
+     * Freezes or resumes all workers to cool the device down.
+     *
+     * @param throttled true to freeze the workers.
+     */
+    public void setThrottled(final boolean throttled) {
+        for (ComputeEnvironment worker : mWorkers) {
+            worker.setThrottled(throttled);
+        }
+    }
+
+    /**
+     * Asks all workers to exit.
+     */
+    public void stop() {
+        for (ComputeEnvironment worker : mWorkers) {
+            worker.stop();
+        }
+    }
+
+    /**
+     * Marks a worker as stopped.
+     *
+     * @param worker the worker id.
+     * @return true if all workers are stopped.
+     */
+    public synchronized boolean workerStopped(final int worker) {
+        if (worker >= 0 && worker < mStopped.length && !mStopped[worker]) {
+            mStopped[worker] = true;
+            mStoppedCount++;
+        }
+        return mStoppedCount == mStopped.length;
+    }
+}
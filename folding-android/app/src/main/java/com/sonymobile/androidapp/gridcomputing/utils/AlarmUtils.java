@@ -12,17 +12,19 @@ import android.os.SystemClock;
 
 import com.sonymobile.androidapp.gridcomputing.receivers.AlarmReceiver;
 
-import java.util.concurrent.TimeUnit;
-
 /**
  * This class provides an abstraction of the AlarmManager class to help setting alarms.
  */
 public final class AlarmUtils {
 
     /**
-     * 1min Alarm pending intent id.
+     * Pending intent id of the alarm which polled the conditions every minute.
+     */
+    private static final int LEGACY_ALARM_1MIN_ID = 147851;
+    /**
+     * Action of the alarm which polled the conditions every minute.
      */
-    private static final int ALARM_1MIN_ID = 147851;
+    private static final String LEGACY_ALARM_1MIN_ACTION = "REPEAT_1_MIN";
     /**
      * 24hours Alarm pending intent id.
      */
@@ -35,6 +37,10 @@ public final class AlarmUtils {
      * Scheduled Alarm pending intent id.
      */
     private static final int ALARM_SCHEDULED_ID = 147854;
+    /**
+     * Compaction Alarm pending intent id.
+     */
+    private static final int ALARM_COMPACTION_ID = 147855;
 
     private AlarmUtils() { }
 
@@ -138,10 +144,6 @@ public final class AlarmUtils {
      */
     public static void createAlarm(final AlarmType alarmType) {
         switch (alarmType) {
-            case REPEAT_1_MIN:
-                setAlarm(alarmType.name(), ALARM_1MIN_ID,
-                        TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1), true);
-                break;
             case REPEAT_30_MIN:
                 setAlarm(alarmType.name(), ALARM_30MIN_ID,
                         AlarmManager.INTERVAL_HALF_HOUR, AlarmManager.INTERVAL_HALF_HOUR, true);
@@ -150,6 +152,10 @@ public final class AlarmUtils {
                 setAlarm(alarmType.name(), ALARM_24HOURS_ID,
                         AlarmManager.INTERVAL_DAY, 0, true);
                 break;
+            case REPEAT_COMPACTION:
+                setAlarm(alarmType.name(), ALARM_COMPACTION_ID,
+                        AlarmManager.INTERVAL_DAY, AlarmManager.INTERVAL_DAY, false);
+                break;
             default:
                 break;
 
@@ -173,28 +179,60 @@ public final class AlarmUtils {
      */
     public static void cancelAlarm(final AlarmType alarmType) {
         switch (alarmType) {
-            case REPEAT_1_MIN:
-                cancelAlarm(alarmType.name(), ALARM_1MIN_ID);
-                break;
             case REPEAT_30_MIN:
                 cancelAlarm(alarmType.name(), ALARM_30MIN_ID);
                 break;
             case REPEAT_24_HOUR:
                 cancelAlarm(alarmType.name(), ALARM_24HOURS_ID);
                 break;
+            case REPEAT_COMPACTION:
+                cancelAlarm(alarmType.name(), ALARM_COMPACTION_ID);
+                break;
             default:
                 break;
         }
     }
 
+    /**
+     * Cancels the alarm which polled the conditions every minute, replaced by
+     * the condition job. Alarms survive app updates, so it may still be set.
+     */
+    public static void cancelLegacyConditionAlarm() {
+        cancelAlarm(LEGACY_ALARM_1MIN_ACTION, LEGACY_ALARM_1MIN_ID);
+    }
+
+    /**
+     * Checks if a repeating alarm is set.
+     *
+     * @param alarmType type of the alarm.
+     * @return true if the alarm is set.
+     */
+    public static boolean isAlarmSet(final AlarmType alarmType) {
+        final int id;
+        switch (alarmType) {
+            case REPEAT_30_MIN:
+                id = ALARM_30MIN_ID;
+                break;
+            case REPEAT_24_HOUR:
+                id = ALARM_24HOURS_ID;
+                break;
+            case REPEAT_COMPACTION:
+                id = ALARM_COMPACTION_ID;
+                break;
+            default:
+                return false;
+        }
+        final Context context = ApplicationData.getAppContext();
+        final Intent intent = new Intent(context, AlarmReceiver.class);
+        intent.setAction(alarmType.name());
+        return PendingIntent.getBroadcast(context, id, intent,
+                PendingIntent.FLAG_NO_CREATE) != null;
+    }
+
     /**
      * Alarm types.
      */
     public enum AlarmType {
-        /**
-         * Alarm repeated within an 1min interval.
-         */
-        REPEAT_1_MIN,
         /**
          * Alarm repeated within a 30min interval.
          */
@@ -206,6 +244,10 @@ public final class AlarmUtils {
         /**
          * Alarm triggered within a scheduled time.
          */
-        SCHEDULED
+        SCHEDULED,
+        /**
+         * Daily history compaction, on devices without a job scheduler.
+         */
+        REPEAT_COMPACTION
     }
 }
@@ -11,6 +11,8 @@ import android.support.multidex.MultiDex;
 
 import com.facebook.FacebookSdk;
 import com.sonymobile.androidapp.gridcomputing.preferences.MiscPref;
+import com.sonymobile.androidapp.gridcomputing.service.CompactionJobService;
+import com.sonymobile.androidapp.gridcomputing.service.WarmStandby;
 
 import de.greenrobot.event.EventBus;
 
@@ -109,6 +111,14 @@ public class ApplicationData extends Application {
         initEventBus();
 
         MiscPref.setLastBatteryPlateauTime(0);
+        CompactionJobService.schedule(this);
+        AlarmUtils.cancelLegacyConditionAlarm();
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        WarmStandby.getInstance().onTrimMemory(level);
     }
 
     /**
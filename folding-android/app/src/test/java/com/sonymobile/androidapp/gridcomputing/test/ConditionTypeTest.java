@@ -0,0 +1,41 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.test;
+
+import com.sonymobile.androidapp.gridcomputing.conditions.ConditionType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ConditionTypeTest {
+
+    @Test
+    public void testMasksAreDistinct() {
+        int all = 0;
+        for (ConditionType condition : ConditionType.values()) {
+            assertEquals(1, Integer.bitCount(condition.getMask()));
+            assertEquals(0, all & condition.getMask());
+            all |= condition.getMask();
+        }
+        assertEquals(Arrays.asList(ConditionType.values()), ConditionType.toList(all));
+    }
+
+    @Test
+    public void testToList() {
+        final int mask = ConditionType.WIFI.getMask() | ConditionType.CHARGER.getMask();
+        assertTrue(ConditionType.WIFI.isIn(mask));
+        assertFalse(ConditionType.BATTERY.isIn(mask));
+        assertEquals(Arrays.asList(ConditionType.CHARGER, ConditionType.WIFI),
+                ConditionType.toList(mask));
+        assertEquals(Collections.<ConditionType>emptyList(), ConditionType.toList(0));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.test;
+
+import com.sonymobile.androidapp.gridcomputing.service.ControlProtocol;
+import com.sonymobile.androidapp.gridcomputing.service.ControlWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ControlWriterTest {
+
+    private static final long TIMEOUT = 5000L;
+
+    /**
+     * Output that blocks the writes until released.
+     */
+    private static class StuckOutput extends ByteArrayOutputStream {
+        final CountDownLatch mWriting = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            mWriting.countDown();
+            try {
+                mRelease.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(b, off, len);
+        }
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final StuckOutput output = new StuckOutput();
+        final ControlWriter writer = new ControlWriter(output, "test-writer");
+        writer.start();
+
+        // The first message is stuck in the pipe while the state changes.
+        final byte[] key = ControlProtocol.encodeStringFrame(ControlProtocol.ACTION_KEY, "{}");
+        assertTrue(writer.send(key));
+        assertTrue(output.mWriting.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        writer.sendState(ControlProtocol.getContinueFrame());
+        writer.sendState(ControlProtocol.getFreezeFrame());
+        writer.sendState(ControlProtocol.getKillFrame(true));
+        output.mRelease.countDown();
+
+        assertTrue(writer.flush(TIMEOUT));
+        assertEquals(2, writer.getCoalescedCount());
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(key);
+        expected.write(ControlProtocol.getKillFrame(true));
+        assertArrayEquals(expected.toByteArray(), output.toByteArray());
+
+        writer.close();
+        assertFalse(writer.send(key));
+    }
+
+    @Test
+    public void testStateKeepsOrder() throws Exception {
+        final StuckOutput output = new StuckOutput();
+        final ControlWriter writer = new ControlWriter(output, "test-writer");
+        writer.start();
+
+        final byte[] key = ControlProtocol.encodeStringFrame(ControlProtocol.ACTION_KEY, "{}");
+        final byte[] other = ControlProtocol.encodeStringFrame(ControlProtocol.ACTION_KEY, "[]");
+        assertTrue(writer.send(key));
+        assertTrue(output.mWriting.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        writer.sendState(ControlProtocol.getContinueFrame());
+        writer.sendState(ControlProtocol.getFreezeFrame());
+        assertTrue(writer.send(other));
+        output.mRelease.countDown();
+
+        assertTrue(writer.flush(TIMEOUT));
+        assertEquals(1, writer.getCoalescedCount());
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(key);
+        expected.write(ControlProtocol.getFreezeFrame());
+        expected.write(other);
+        assertArrayEquals(expected.toByteArray(), output.toByteArray());
+        writer.close();
+    }
+
+    @Test
+    public void testFullQueue() throws Exception {
+        final StuckOutput output = new StuckOutput();
+        final ControlWriter writer = new ControlWriter(output, "test-writer");
+        writer.start();
+
+        final byte[] key = ControlProtocol.encodeStringFrame(ControlProtocol.ACTION_KEY, "{}");
+        assertTrue(writer.send(key));
+        assertTrue(output.mWriting.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < ControlWriter.QUEUE_CAPACITY; i++) {
+            assertTrue(writer.send(key));
+        }
+        // The state command doesn't take room from the messages.
+        assertTrue(writer.sendState(ControlProtocol.getContinueFrame()));
+
+        // The queue stays full.
+        assertFalse(writer.send(key));
+        assertEquals(1, writer.getDroppedCount());
+
+        // The sender waits until the client catches up.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                output.mRelease.countDown();
+            }
+        }).start();
+        assertTrue(writer.send(key));
+        assertTrue(writer.flush(TIMEOUT));
+        assertEquals(1, writer.getDroppedCount());
+        writer.close();
+    }
+
+    @Test
+    public void testWriteError() throws Exception {
+        final ControlWriter writer = new ControlWriter(new ByteArrayOutputStream() {
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("closed");
+            }
+        }, "test-writer");
+        writer.start();
+        writer.sendState(ControlProtocol.getContinueFrame());
+        assertFalse(writer.flush(TIMEOUT));
+        assertFalse(writer.sendState(ControlProtocol.getContinueFrame()));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.test;
+
+import com.sonymobile.androidapp.gridcomputing.service.FoldingTimer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FoldingTimerTest {
+
+    private static final long TICK = TimeUnit.MINUTES.toMillis(1);
+    private static final long GRACE_PERIOD = TimeUnit.MINUTES.toMillis(5);
+
+    @Test
+    public void testTicks() {
+        final FoldingTimer timer = new FoldingTimer();
+        assertEquals(0L, timer.take(TICK));
+        timer.resume(TICK);
+        assertEquals(TICK, timer.take(2 * TICK));
+        assertEquals(TICK, timer.take(3 * TICK));
+    }
+
+    @Test
+    public void testResumeAfterFreeze() {
+        final FoldingTimer timer = new FoldingTimer();
+        timer.resume(0L);
+        assertEquals(TICK, timer.take(TICK));
+
+        // Frozen half way through the next tick, for the whole grace period.
+        final long stopTime = TICK + TICK / 2;
+        assertEquals(TICK / 2, timer.pause(stopTime));
+        assertEquals(0L, timer.take(2 * TICK));
+        assertEquals(0L, timer.pause(3 * TICK));
+
+        final long resumeTime = stopTime + GRACE_PERIOD;
+        timer.resume(resumeTime);
+        assertEquals(TICK, timer.take(resumeTime + TICK));
+    }
+
+    @Test
+    public void testResumeWhileRunning() {
+        final FoldingTimer timer = new FoldingTimer();
+        timer.resume(0L);
+        timer.resume(TICK / 2);
+        assertEquals(TICK, timer.take(TICK));
+    }
+}
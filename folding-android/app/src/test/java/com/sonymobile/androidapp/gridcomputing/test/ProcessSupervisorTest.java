@@ -0,0 +1,77 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.test;
+
+import com.sonymobile.androidapp.gridcomputing.service.ProcessSupervisor;
+import com.sonymobile.androidapp.gridcomputing.service.StopReason;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ProcessSupervisorTest {
+
+    private static final long START = 1000000L;
+
+    @Test
+    public void testBackoff() {
+        final ProcessSupervisor supervisor = new ProcessSupervisor();
+        long time = START;
+        long delay = supervisor.onFailure(time, time + 1000, StopReason.CRASHED, 1);
+        assertEquals(ProcessSupervisor.MIN_BACKOFF, delay);
+
+        time += ProcessSupervisor.CRASH_LOOP_WINDOW;
+        delay = supervisor.onFailure(time, time + 1000, StopReason.CRASHED, 1);
+        assertEquals(ProcessSupervisor.MIN_BACKOFF * 2, delay);
+
+        // A stable run resets the backoff.
+        time += ProcessSupervisor.CRASH_LOOP_WINDOW;
+        delay = supervisor.onFailure(time, time + ProcessSupervisor.STABLE_RUN_TIME,
+                StopReason.SIGNALED, 137);
+        assertEquals(ProcessSupervisor.MIN_BACKOFF, delay);
+
+        assertEquals(3, supervisor.getRestartCount());
+        assertEquals((1000 + 1000 + ProcessSupervisor.STABLE_RUN_TIME) / 3,
+                supervisor.getMeanTimeBetweenFailures());
+    }
+
+    @Test
+    public void testCrashLoop() {
+        final ProcessSupervisor supervisor = new ProcessSupervisor();
+        long time = START;
+        for (int i = 1; i < ProcessSupervisor.CRASH_LOOP_FAILURES; i++) {
+            final long delay = supervisor.onFailure(time, time + 100, StopReason.CRASHED, 1);
+            assertEquals(ProcessSupervisor.MIN_BACKOFF << (i - 1), delay);
+            time += 100 + delay;
+        }
+        assertEquals(ProcessSupervisor.NO_RESTART,
+                supervisor.onFailure(time, time + 100, StopReason.CRASHED, 1));
+        assertEquals(ProcessSupervisor.CRASH_LOOP_FAILURES - 1, supervisor.getRestartCount());
+    }
+
+    @Test
+    public void testExitCode() {
+        assertEquals(StopReason.EXITED, StopReason.fromExitCode(0, false));
+        assertEquals(StopReason.CRASHED, StopReason.fromExitCode(5, false));
+        assertEquals(StopReason.CRASHED, StopReason.fromExitCode(11, false));
+        assertEquals(StopReason.SIGNALED, StopReason.fromExitCode(139, false));
+        assertEquals(11, StopReason.getSignal(139, false));
+        assertEquals(9, StopReason.getSignal(137, false));
+        assertEquals(0, StopReason.getSignal(1, false));
+    }
+
+    @Test
+    public void testRawSignalExitCode() {
+        assertEquals(StopReason.EXITED, StopReason.fromExitCode(0, true));
+        assertEquals(StopReason.CRASHED, StopReason.fromExitCode(1, true));
+        assertEquals(StopReason.SIGNALED, StopReason.fromExitCode(11, true));
+        assertEquals(StopReason.SIGNALED, StopReason.fromExitCode(9, true));
+        assertEquals(11, StopReason.getSignal(11, true));
+        assertEquals(9, StopReason.getSignal(9, true));
+        assertEquals(0, StopReason.getSignal(1, true));
+        assertEquals(0, StopReason.getSignal(139, true));
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.test;
+
+import com.sonymobile.androidapp.gridcomputing.log.Log;
+import com.sonymobile.androidapp.gridcomputing.service.ControlChannel;
+import com.sonymobile.androidapp.gridcomputing.service.ProtocolTrace;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONObject;
+
+/**
+ * Replays the client side of a {@link ProtocolTrace} into the same
+ * {@link ControlChannel} reader loop run by the ComputeEnvironment, on a plain
+ * JVM. The client bytes are written to a pipe with their recorded timing,
+ * scaled by the replay speed, and every decoded message records how long it
+ * took to be dispatched after its bytes were written and how many bytes the
+ * reader thread allocated for it.
+ * <p>
+ * Usage: ProtocolReplay &lt;trace file&gt; [speed], where speed 0 replays as
+ * fast as possible.
+ */
+public class ProtocolReplay {
+
+    /**
+     * Size of the pipe between the replay and the reader loop.
+     */
+    private static final int PIPE_SIZE = 64 * 1024;
+    /**
+     * Microseconds per millisecond.
+     */
+    private static final long MICROS_PER_MILLI = 1000L;
+    /**
+     * Nanoseconds per microsecond.
+     */
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    /**
+     * Time scale, 2 replays twice as fast, 0 as fast as possible.
+     */
+    private final double mSpeed;
+    /**
+     * Time the last client bytes were written, in ns.
+     */
+    private volatile long mLastWriteTime;
+    /**
+     * Thread allocated bytes after the last message.
+     */
+    private long mLastAllocation;
+    /**
+     * Dispatch latency of every message, in ns.
+     */
+    private final List<Long> mLatencies = new ArrayList<>();
+    /**
+     * Bytes allocated by the reader for every message.
+     */
+    private final List<Long> mAllocations = new ArrayList<>();
+    /**
+     * Error thrown by the reader loop.
+     */
+    private volatile IOException mReadError;
+
+    /**
+     * The class constructor.
+     *
+     * @param speed time scale, 1 replays at the recorded speed and 0 as fast
+     *              as possible.
+     */
+    public ProtocolReplay(final double speed) {
+        mSpeed = speed;
+    }
+
+    /**
+     * Replays a trace file.
+     *
+     * @param args the trace file and the optional speed.
+     * @throws Exception if the trace can't be replayed.
+     */
+    public static void main(final String[] args) throws Exception {
+        final double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        final InputStream input = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            System.out.println(new ProtocolReplay(speed).replay(input, new NullListener()));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Replays a trace.
+     *
+     * @param trace    the trace stream.
+     * @param listener receives the decoded messages.
+     * @return the replay report.
+     * @throws IOException if the trace is corrupted or the reader loop failed.
+     * @throws InterruptedException if interrupted while replaying.
+     */
+    public Report replay(final InputStream trace, final ControlChannel.Listener listener)
+            throws IOException, InterruptedException {
+        Log.setLogging(false);
+        ProtocolTrace.readHeader(trace);
+
+        final PipedOutputStream pipe = new PipedOutputStream();
+        final ControlChannel channel = new ControlChannel(
+                new PipedInputStream(pipe, PIPE_SIZE), new MeasuringListener(listener));
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mLastAllocation = getAllocatedBytes();
+                try {
+                    channel.run();
+                } catch (final IOException e) {
+                    mReadError = e;
+                }
+            }
+        }, "replay-reader");
+        reader.start();
+
+        final long start = System.nanoTime();
+        int hostMessages = 0;
+        ProtocolTrace.Record record;
+        try {
+            while ((record = ProtocolTrace.readRecord(trace)) != null) {
+                if (record.getDirection() == ProtocolTrace.DIRECTION_HOST) {
+                    hostMessages++;
+                } else if (record.getDirection() == ProtocolTrace.DIRECTION_CLIENT
+                        && reader.isAlive()) {
+                    waitUntil(start, record.getTime());
+                    mLastWriteTime = System.nanoTime();
+                    try {
+                        pipe.write(record.getData());
+                        pipe.flush();
+                    } catch (final IOException e) {
+                        // The reader stops at the client killed message.
+                        if (reader.isAlive()) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+        } finally {
+            pipe.close();
+        }
+        reader.join();
+        if (mReadError != null) {
+            throw mReadError;
+        }
+        return new Report(toArray(mLatencies), toArray(mAllocations), hostMessages,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Sleeps until a record is due.
+     *
+     * @param start the replay start, in ns.
+     * @param time  the record time, in microseconds.
+     * @throws InterruptedException if interrupted while sleeping.
+     */
+    private void waitUntil(final long start, final long time) throws InterruptedException {
+        if (mSpeed <= 0) {
+            return;
+        }
+        final long due = start + (long) (time * NANOS_PER_MICRO / mSpeed);
+        final long delay = (due - System.nanoTime()) / NANOS_PER_MICRO / MICROS_PER_MILLI;
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Records the latency and the allocations of a decoded message. Called
+     * from the reader thread.
+     */
+    private void onMessage() {
+        final long allocation = getAllocatedBytes();
+        mLatencies.add(System.nanoTime() - mLastWriteTime);
+        mAllocations.add(allocation < 0 ? -1L : allocation - mLastAllocation);
+        // Measuring allocates too, so read the counter again.
+        mLastAllocation = getAllocatedBytes();
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread.
+     *
+     * @return the allocated bytes or -1 if the JVM can't measure them.
+     */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sunBean =
+                    (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                    && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Converts a list of longs.
+     *
+     * @param values the list.
+     * @return the array.
+     */
+    private static long[] toArray(final List<Long> values) {
+        final long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Measures every message before passing it on.
+     */
+    private class MeasuringListener implements ControlChannel.Listener {
+        /**
+         * The listener receiving the messages.
+         */
+        private final ControlChannel.Listener mListener;
+
+        /**
+         * The class constructor.
+         *
+         * @param listener the listener receiving the messages.
+         */
+        MeasuringListener(final ControlChannel.Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void onGetKey(final List<String> features) throws IOException {
+            onMessage();
+            mListener.onGetKey(features);
+        }
+
+        @Override
+        public void onKeyAccepted(final List<String> features) {
+            onMessage();
+            mListener.onKeyAccepted(features);
+        }
+
+        @Override
+        public void onNumberOfUsers(final long number) {
+            onMessage();
+            mListener.onNumberOfUsers(number);
+        }
+
+        @Override
+        public void onResearchDetails(final JSONObject content) {
+            onMessage();
+            mListener.onResearchDetails(content);
+        }
+
+        @Override
+        public void onExecutingJob() {
+            onMessage();
+            mListener.onExecutingJob();
+        }
+
+        @Override
+        public void onJobStats(final long bytesDownloaded, final long bytesUploaded) {
+            onMessage();
+            mListener.onJobStats(bytesDownloaded, bytesUploaded);
+        }
+
+        @Override
+        public void onJobFinished(final long exitCode) {
+            onMessage();
+            mListener.onJobFinished(exitCode);
+        }
+
+        @Override
+        public void onJobExecutionError(final long exitCode, final String error) {
+            onMessage();
+            mListener.onJobExecutionError(exitCode, error);
+        }
+
+        @Override
+        public void onClientKilled() {
+            onMessage();
+            mListener.onClientKilled();
+        }
+
+        @Override
+        public void onClientLog(final String line) {
+            onMessage();
+            mListener.onClientLog(line);
+        }
+    }
+
+    /**
+     * Ignores all messages.
+     */
+    public static class NullListener implements ControlChannel.Listener {
+        @Override
+        public void onGetKey(final List<String> features) {
+        }
+
+        @Override
+        public void onKeyAccepted(final List<String> features) {
+        }
+
+        @Override
+        public void onNumberOfUsers(final long number) {
+        }
+
+        @Override
+        public void onResearchDetails(final JSONObject content) {
+        }
+
+        @Override
+        public void onExecutingJob() {
+        }
+
+        @Override
+        public void onJobStats(final long bytesDownloaded, final long bytesUploaded) {
+        }
+
+        @Override
+        public void onJobFinished(final long exitCode) {
+        }
+
+        @Override
+        public void onJobExecutionError(final long exitCode, final String error) {
+        }
+
+        @Override
+        public void onClientKilled() {
+        }
+
+        @Override
+        public void onClientLog(final String line) {
+        }
+    }
+
+    /**
+     * Result of a replay.
+     */
+    public static class Report {
+        /**
+         * Dispatch latency of every message, in ns.
+         */
+        private final long[] mLatencies;
+        /**
+         * Bytes allocated for every message, -1 if unknown.
+         */
+        private final long[] mAllocations;
+        /**
+         * Number of host records in the trace.
+         */
+        private final int mHostMessages;
+        /**
+         * Replay duration, in ns.
+         */
+        private final long mDuration;
+
+        /**
+         * The class constructor.
+         *
+         * @param latencies    dispatch latency of every message, in ns.
+         * @param allocations  bytes allocated for every message.
+         * @param hostMessages number of host records in the trace.
+         * @param duration     replay duration, in ns.
+         */
+        Report(final long[] latencies, final long[] allocations, final int hostMessages,
+               final long duration) {
+            mLatencies = latencies;
+            mAllocations = allocations;
+            mHostMessages = hostMessages;
+            mDuration = duration;
+        }
+
+        /**
+         * Returns the number of messages decoded.
+         *
+         * @return the message count.
+         */
+        public int getMessageCount() {
+            return mLatencies.length;
+        }
+
+        /**
+         * Returns the number of host records in the trace.
+         *
+         * @return the host record count.
+         */
+        public int getHostMessageCount() {
+            return mHostMessages;
+        }
+
+        /**
+         * Returns a percentile of the dispatch latency.
+         *
+         * @param percentile the percentile, between 0 and 100.
+         * @return the latency in ns, 0 if no message was decoded.
+         */
+        public long getLatency(final double percentile) {
+            if (mLatencies.length == 0) {
+                return 0L;
+            }
+            final long[] sorted = Arrays.copyOf(mLatencies, mLatencies.length);
+            Arrays.sort(sorted);
+            final int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+
+        /**
+         * Returns the mean bytes allocated per message.
+         *
+         * @return the bytes or -1 if the JVM can't measure them.
+         */
+        public long getMeanAllocation() {
+            long total = 0;
+            for (long allocation : mAllocations) {
+                if (allocation < 0) {
+                    return -1L;
+                }
+                total += allocation;
+            }
+            return mAllocations.length == 0 ? 0L : total / mAllocations.length;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "messages: %d host messages: %d duration: %d ms%n"
+                            + "latency p50: %d us p95: %d us p99: %d us max: %d us%n"
+                            + "allocated per message: %d bytes",
+                    getMessageCount(), mHostMessages, mDuration / NANOS_PER_MICRO
+                            / MICROS_PER_MILLI,
+                    getLatency(50) / NANOS_PER_MICRO, getLatency(95) / NANOS_PER_MICRO,
+                    getLatency(99) / NANOS_PER_MICRO, getLatency(100) / NANOS_PER_MICRO,
+                    getMeanAllocation());
+        }
+    }
+}
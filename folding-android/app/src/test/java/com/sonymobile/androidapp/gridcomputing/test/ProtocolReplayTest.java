@@ -0,0 +1,118 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.test;
+
+import com.sonymobile.androidapp.gridcomputing.service.ControlProtocol;
+import com.sonymobile.androidapp.gridcomputing.service.ProtocolTrace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+public class ProtocolReplayTest {
+
+    private static final int LOG_FRAMES = 200;
+
+    private static byte[] recordSession() throws Exception {
+        final ByteArrayOutputStream traceBytes = new ByteArrayOutputStream();
+        final ProtocolTrace trace = new ProtocolTrace(traceBytes);
+        final OutputStream client = trace.wrapOutput(new ByteArrayOutputStream(),
+                ProtocolTrace.DIRECTION_CLIENT);
+        final OutputStream host = trace.wrapOutput(new ByteArrayOutputStream(),
+                ProtocolTrace.DIRECTION_HOST);
+
+        client.write(("{\"action\":\"get_key\",\"content\":{\"features\":"
+                + "[\"framing\",\"heartbeat\"]}}\n").getBytes("UTF-8"));
+        host.write(("{\"action\": \"key\", \"content\":{\"features\" : [\"framing\"]}}\n")
+                .getBytes("UTF-8"));
+        client.write(("{\"action\":\"key_accepted\",\"content\":{\"features\":"
+                + "[\"framing\"]}}\n").getBytes("UTF-8"));
+
+        final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(3);
+        frame.write(ControlProtocol.ACTION_NUMBER_OF_USERS);
+        ControlProtocol.writeVarint(frame, 1000);
+        client.write(frame.toByteArray());
+        for (int i = 0; i < LOG_FRAMES; i++) {
+            client.write(ControlProtocol.encodeStringFrame(ControlProtocol.ACTION_LOG,
+                    "log line " + i));
+        }
+        client.write(new byte[]{1, ControlProtocol.ACTION_HEARTBEAT});
+        client.write(new byte[]{1, ControlProtocol.ACTION_CLIENT_KILLED});
+        trace.close();
+        return traceBytes.toByteArray();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final byte[] trace = recordSession();
+        final CountingListener listener = new CountingListener();
+        final ProtocolReplay.Report report = new ProtocolReplay(0)
+                .replay(new ByteArrayInputStream(trace), listener);
+
+        assertEquals(1, listener.mGetKeys);
+        assertEquals(1000L, listener.mNumberOfUsers);
+        assertEquals(LOG_FRAMES, listener.mLogs);
+        assertTrue(listener.mKilled);
+        // get_key, key_accepted, users, logs and client_killed. The
+        // heartbeat only refreshes the channel.
+        assertEquals(LOG_FRAMES + 4, report.getMessageCount());
+        assertEquals(1, report.getHostMessageCount());
+        assertTrue(report.getLatency(50) <= report.getLatency(100));
+    }
+
+    @Test
+    public void testTraceRecords() throws Exception {
+        final ByteArrayInputStream input = new ByteArrayInputStream(recordSession());
+        ProtocolTrace.readHeader(input);
+        final ProtocolTrace.Record first = ProtocolTrace.readRecord(input);
+        assertEquals(ProtocolTrace.DIRECTION_CLIENT, first.getDirection());
+        final ProtocolTrace.Record second = ProtocolTrace.readRecord(input);
+        assertEquals(ProtocolTrace.DIRECTION_HOST, second.getDirection());
+        assertTrue(second.getTime() >= first.getTime());
+
+        int records = 2;
+        while (ProtocolTrace.readRecord(input) != null) {
+            records++;
+        }
+        assertEquals(LOG_FRAMES + 6, records);
+        assertNull(ProtocolTrace.readRecord(input));
+    }
+
+    private static class CountingListener extends ProtocolReplay.NullListener {
+        private int mGetKeys;
+        private long mNumberOfUsers;
+        private int mLogs;
+        private boolean mKilled;
+
+        @Override
+        public void onGetKey(final List<String> features) {
+            mGetKeys++;
+        }
+
+        @Override
+        public void onNumberOfUsers(final long number) {
+            mNumberOfUsers = number;
+        }
+
+        @Override
+        public void onClientLog(final String line) {
+            mLogs++;
+        }
+
+        @Override
+        public void onClientKilled() {
+            mKilled = true;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.test;
+
+import com.sonymobile.androidapp.gridcomputing.database.ReportSeries;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+public class ReportSeriesTest {
+
+    private static final long DAY_MILLIS = 86400000L;
+    private static final int MONTH_DAYS = 35;
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void testDayOfWeek() {
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        for (long day = -800; day < 800; day++) {
+            calendar.setTimeInMillis(day * DAY_MILLIS);
+            assertEquals(calendar.get(Calendar.DAY_OF_WEEK), ReportSeries.getDayOfWeek(day));
+        }
+    }
+
+    @Test
+    public void testFillDays() {
+        final ReportSeries series = new ReportSeries();
+        series.add(99, 5f);
+        series.add(101, 1f);
+        series.add(103, 2f);
+        series.add(107, 9f);
+        final float[] values = new float[7];
+        series.fillDays(100, values);
+        assertEquals(0f, values[0], 0f);
+        assertEquals(1f, values[1], 0f);
+        assertEquals(0f, values[2], 0f);
+        assertEquals(2f, values[3], 0f);
+        assertEquals(0f, values[6], 0f);
+    }
+
+    @Test
+    public void testFillWeeks() {
+        // Day 3 is a sunday, day 4 a monday.
+        final ReportSeries series = new ReportSeries();
+        series.add(2, 1f);
+        series.add(3, 2f);
+        series.add(4, 3f);
+        series.add(11, 4f);
+        final float[] values = new float[3 * ReportSeries.DAYS_PER_WEEK];
+
+        // Weeks starting on sunday: [2], [3, 4], [11].
+        assertEquals(3, series.fillWeeks(Calendar.SUNDAY, values));
+        assertEquals(1f, values[Calendar.SATURDAY - 1], 0f);
+        assertEquals(2f, values[7 + Calendar.SUNDAY - 1], 0f);
+        assertEquals(3f, values[7 + Calendar.MONDAY - 1], 0f);
+        assertEquals(4f, values[14 + Calendar.MONDAY - 1], 0f);
+
+        // Weeks starting on monday: [2, 3], [4], [11].
+        assertEquals(3, series.fillWeeks(Calendar.MONDAY, values));
+        assertEquals(1f, values[Calendar.SATURDAY - 1], 0f);
+        assertEquals(2f, values[Calendar.SUNDAY - 1], 0f);
+        assertEquals(3f, values[7 + Calendar.MONDAY - 1], 0f);
+        assertEquals(4f, values[14 + Calendar.MONDAY - 1], 0f);
+
+        // The weeks that don't fit are dropped.
+        assertEquals(1, series.fillWeeks(Calendar.SUNDAY, new float[ReportSeries.DAYS_PER_WEEK]));
+    }
+
+    /**
+     * Checks the month report grouping against the boxed implementation it
+     * replaced: bucket strings parsed into dates, paired with boxed hours and
+     * grouped with a calendar into maps, standing in for the sparse arrays.
+     */
+    @Test
+    public void testMonthReportMatchesLegacy() throws ParseException {
+        final SimpleDateFormat format = createFormat();
+        final long firstDay = 17000;
+        final String[] buckets = createBuckets(format, firstDay);
+        final long[] durations = createDurations();
+        final float[] values = new float[6 * ReportSeries.DAYS_PER_WEEK];
+        final ReportSeries series = new ReportSeries();
+        load(series, firstDay, durations, values);
+
+        // Every day lands in the same week and day bucket as before.
+        final Map<Integer, Map<Integer, Double>> weeks = loadLegacy(format, buckets, durations);
+        assertEquals(weeks.size(), series.fillWeeks(Calendar.SUNDAY, values));
+        int week = 0;
+        for (Map<Integer, Double> days : weeks.values()) {
+            for (Map.Entry<Integer, Double> day : days.entrySet()) {
+                assertEquals("week " + week + " day " + day.getKey(), day.getValue(),
+                        values[week * ReportSeries.DAYS_PER_WEEK + day.getKey() - 1], 0.001);
+            }
+            week++;
+        }
+    }
+
+    /**
+     * Times the month report grouping against the boxed implementation.
+     * Timing depends on the machine, so it is only run on demand.
+     */
+    @Ignore("Benchmark, run on demand")
+    @Test
+    public void testMonthReportBenchmark() throws ParseException {
+        final SimpleDateFormat format = createFormat();
+        final long firstDay = 17000;
+        final String[] buckets = createBuckets(format, firstDay);
+        final long[] durations = createDurations();
+        final float[] values = new float[6 * ReportSeries.DAYS_PER_WEEK];
+        final ReportSeries series = new ReportSeries();
+
+        // Warm up both implementations.
+        for (int i = 0; i < ITERATIONS; i++) {
+            loadLegacy(format, buckets, durations);
+            load(series, firstDay, durations, values);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            loadLegacy(format, buckets, durations);
+        }
+        final long legacyTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            load(series, firstDay, durations, values);
+        }
+        final long time = System.nanoTime() - start;
+        assertTrue("series " + time + " ns, legacy " + legacyTime + " ns", time < legacyTime);
+    }
+
+    private static SimpleDateFormat createFormat() {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    private static String[] createBuckets(final SimpleDateFormat format, final long firstDay) {
+        final String[] buckets = new String[MONTH_DAYS];
+        for (int i = 0; i < MONTH_DAYS; i++) {
+            buckets[i] = format.format(new Date((firstDay + i) * DAY_MILLIS));
+        }
+        return buckets;
+    }
+
+    private static long[] createDurations() {
+        final long[] durations = new long[MONTH_DAYS];
+        for (int i = 0; i < MONTH_DAYS; i++) {
+            durations[i] = (i * 7919L) % 3600000L * 10;
+        }
+        return durations;
+    }
+
+    private static float[] load(final ReportSeries series, final long firstDay,
+                                final long[] durations, final float[] values) {
+        series.clear();
+        for (int i = 0; i < durations.length; i++) {
+            series.add(firstDay + i, (float) (durations[i] / 3600000d));
+        }
+        series.fillWeeks(Calendar.SUNDAY, values);
+        return values;
+    }
+
+    private static Map<Integer, Map<Integer, Double>> loadLegacy(
+            final SimpleDateFormat format, final String[] buckets, final long[] durations)
+            throws ParseException {
+        final Map<Integer, Object[]> report = new TreeMap<>();
+        for (int i = 0; i < buckets.length; i++) {
+            final Date date = format.parse(buckets[i]);
+            report.put(i, new Object[] {date, durations[i] / 3600000d});
+        }
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US);
+        final Map<Integer, Map<Integer, Double>> weeks = new LinkedHashMap<>();
+        for (Object[] entry : report.values()) {
+            calendar.setTime((Date) entry[0]);
+            final int week = calendar.get(Calendar.WEEK_OF_YEAR);
+            Map<Integer, Double> days = weeks.get(week);
+            if (days == null) {
+                days = new TreeMap<>();
+                for (int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++) {
+                    days.put(day, 0.0);
+                }
+                weeks.put(week, days);
+            }
+            days.put(calendar.get(Calendar.DAY_OF_WEEK), (Double) entry[1]);
+        }
+        return weeks;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.test;
+
+import com.sonymobile.androidapp.gridcomputing.database.RollingWindow;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RollingWindowTest {
+
+    private static final long MINUTE = 60000L;
+    private static final int SLOTS = 1440;
+    private static final long START = 1000L * SLOTS * MINUTE;
+
+    @Test
+    public void testSums() {
+        final RollingWindow window = new RollingWindow(SLOTS, MINUTE);
+        window.add(START, 1000, 500);
+        window.add(START + 10, 1000, 500);
+        window.add(START + MINUTE, 2000, 1000);
+        assertEquals(4000, window.getTime(START + MINUTE));
+        assertEquals(2000, window.getCpuTime(START + MINUTE));
+    }
+
+    @Test
+    public void testExpiry() {
+        final RollingWindow window = new RollingWindow(SLOTS, MINUTE);
+        window.add(START, 1000, 500);
+        window.add(START + MINUTE, 2000, 1000);
+
+        // The first minute leaves the window a day later.
+        assertEquals(3000, window.getTime(START + (SLOTS - 1) * MINUTE));
+        assertEquals(2000, window.getTime(START + SLOTS * MINUTE));
+        assertEquals(1000, window.getCpuTime(START + SLOTS * MINUTE));
+        assertEquals(0, window.getTime(START + 2 * SLOTS * MINUTE));
+
+        // A checkpoint older than the window is ignored.
+        window.add(START, 1000, 500);
+        assertEquals(0, window.getTime(START + 2 * SLOTS * MINUTE));
+    }
+
+    @Test
+    public void testClockChange() {
+        final RollingWindow window = new RollingWindow(SLOTS, MINUTE);
+        window.add(START + 10 * MINUTE, 1000, 500);
+        window.add(START, 1000, 500);
+        assertEquals(2000, window.getTime(START));
+        assertEquals(2000, window.getTime(START + 10 * MINUTE));
+    }
+}
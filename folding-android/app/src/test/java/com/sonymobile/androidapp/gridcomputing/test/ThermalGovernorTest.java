@@ -0,0 +1,69 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+
+package com.sonymobile.androidapp.gridcomputing.test;
+
+import com.sonymobile.androidapp.gridcomputing.service.ThermalGovernor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ThermalGovernorTest {
+
+    private static final int PERIOD_SECONDS = 30;
+    private static final float TIME_CONSTANT_SECONDS = 300f;
+
+    @Test
+    public void testCoolDeviceRunsFlatOut() {
+        final ThermalGovernor governor = new ThermalGovernor();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1f, governor.update(-5f, i * PERIOD_SECONDS * 1000L), 0f);
+        }
+    }
+
+    @Test
+    public void testHotDeviceIsThrottledToTheMinimum() {
+        final ThermalGovernor governor = new ThermalGovernor();
+        float dutyCycle = 1f;
+        for (int i = 0; i < 100; i++) {
+            dutyCycle = governor.update(20f, i * PERIOD_SECONDS * 1000L);
+        }
+        assertEquals(ThermalGovernor.MIN_DUTY_CYCLE, dutyCycle, 0f);
+
+        // The integral doesn't wind up: once cool, the job runs flat out quickly.
+        for (int i = 100; i < 105; i++) {
+            dutyCycle = governor.update(-10f, i * PERIOD_SECONDS * 1000L);
+        }
+        assertEquals(1f, dutyCycle, 0f);
+    }
+
+    /**
+     * Simulates a device heating to 8 degrees above the target when running
+     * flat out and cooling to 10 degrees below it when frozen, so the
+     * temperature holds at the target with a duty cycle of 10 / 18.
+     */
+    @Test
+    public void testHoldsTheTarget() {
+        final ThermalGovernor governor = new ThermalGovernor();
+        float error = -10f;
+        float maxError = error;
+        for (int period = 0; period < 240; period++) {
+            final float dutyCycle = governor.update(error,
+                    period * PERIOD_SECONDS * 1000L);
+            for (int second = 0; second < PERIOD_SECONDS; second++) {
+                final float steadyError = second < dutyCycle * PERIOD_SECONDS ? 8f : -10f;
+                error += (steadyError - error) / TIME_CONSTANT_SECONDS;
+            }
+            maxError = Math.max(maxError, error);
+            if (period >= 120) {
+                assertEquals(0f, error, 0.5f);
+                assertEquals(10f / 18f, dutyCycle, 0.05f);
+            }
+        }
+        assertTrue("overshoot " + maxError, maxError < 3f);
+    }
+}